@@ -0,0 +1,77 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import utils.DatabaseHelper;
+import utils.RowVisitor;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DatabaseHelper result handling against an in-memory H2 database holding {@code rows} users, so
+ * the numbers cover JDBC and materialization cost without a network round trip to MySQL.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DatabaseMaterializationBenchmark {
+
+    private static final String SELECT_ALL = "SELECT id, email, name, active, created FROM users";
+
+    @Param({"100", "10000"})
+    public int rows;
+
+    private DatabaseHelper databaseHelper;
+
+    @Setup
+    public void setUp() {
+        databaseHelper = new DatabaseHelper("jdbc:h2:mem:bench" + rows + ";DB_CLOSE_DELAY=-1", "sa", "");
+        databaseHelper.executeUpdate("CREATE TABLE users (id INT PRIMARY KEY, email VARCHAR(100), name VARCHAR(100), "
+                + "active BOOLEAN, created TIMESTAMP)");
+        Timestamp created = new Timestamp(System.currentTimeMillis());
+        List<Object[]> data = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            data.add(new Object[]{i, "user" + i + "@example.com", "User " + i, i % 2 == 0, created});
+        }
+        databaseHelper.bulkInsert("users", List.of("id", "email", "name", "active", "created"), data);
+    }
+
+    @TearDown
+    public void tearDown() {
+        databaseHelper.executeUpdate("DROP TABLE users");
+        databaseHelper.closeConnection();
+    }
+
+    @Benchmark
+    public List<Object[]> materializeAllRows() {
+        return databaseHelper.executeQueryAndGetResults(SELECT_ALL);
+    }
+
+    @Benchmark
+    public long streamAllRows() {
+        RowVisitor.Counter counter = RowVisitor.count();
+        databaseHelper.streamQuery(SELECT_ALL, Map.of(), counter);
+        return counter.getRows();
+    }
+
+    @Benchmark
+    public List<Object[]> namedQuerySingleRow() {
+        return databaseHelper.executeNamedQuery("SELECT id, email FROM users WHERE id = :id", Map.of("id", rows / 2));
+    }
+
+    @Benchmark
+    public int rowCount() {
+        return databaseHelper.getRowCount(SELECT_ALL);
+    }
+}
@@ -0,0 +1,115 @@
+package benchmarks;
+
+import com.sun.net.httpserver.HttpServer;
+import io.restassured.response.Response;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import utils.ApiTestHelper;
+import utils.HttpClientPool;
+import utils.JsonStreamValidator;
+import utils.ParsedResponse;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends requests to a local HTTP stub and runs the ApiTestHelper assertions on the responses, so the
+ * numbers are framework and Rest Assured overhead only. The stub returns a page of {@code users} users.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResponseAssertionBenchmark {
+
+    @Param({"10", "1000"})
+    public int users;
+
+    private HttpServer server;
+    private ApiTestHelper apiHelper;
+    private Response response;
+    private String lastEmail;
+
+    @Setup
+    public void setUp() throws Exception {
+        byte[] body = usersPage(users).getBytes(StandardCharsets.UTF_8);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/users", exchange -> {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        apiHelper = new ApiTestHelper();
+        apiHelper.setBaseURI("http://127.0.0.1:" + server.getAddress().getPort());
+        response = apiHelper.sendRequest("GET", "/users");
+        lastEmail = "user" + (users - 1) + "@example.com";
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop(0);
+        HttpClientPool.shutdownShared();
+    }
+
+    @Benchmark
+    public Response sendRequest() {
+        return apiHelper.sendRequest("GET", "/users");
+    }
+
+    // Steps after the first on the same response reuse its parsed body
+    @Benchmark
+    public boolean verifyFieldParsedOnce() {
+        return ApiTestHelper.verifyResponseField(response, "data[" + (users - 1) + "].email", lastEmail);
+    }
+
+    // First assertion on a new response: parse plus the Jackson fast path
+    @Benchmark
+    public Object firstFieldAccess() {
+        return new ParsedResponse(response).get("data[" + (users - 1) + "].email");
+    }
+
+    // Same lookup through Rest Assured's Groovy JsonPath, for comparison
+    @Benchmark
+    public Object gpathFieldAccess() {
+        return response.jsonPath().get("data[" + (users - 1) + "].email");
+    }
+
+    @Benchmark
+    public List<Object> extractValues() {
+        return new ParsedResponse(response).getList("data.id");
+    }
+
+    @Benchmark
+    public boolean streamingElementValidation() {
+        JsonStreamValidator validator = new JsonStreamValidator("data")
+                .expectField("id")
+                .expectField("email");
+        return ApiTestHelper.validateElements(response, validator).isValid();
+    }
+
+    private static String usersPage(int users) {
+        StringBuilder json = new StringBuilder("{\"page\":1,\"total\":").append(users).append(",\"data\":[");
+        for (int i = 0; i < users; i++) {
+            json.append(i == 0 ? "" : ",")
+                    .append("{\"id\":").append(i)
+                    .append(",\"email\":\"user").append(i).append("@example.com\"")
+                    .append(",\"first_name\":\"First").append(i).append('"')
+                    .append(",\"last_name\":\"Last").append(i).append('"')
+                    .append(",\"active\":").append(i % 2 == 0)
+                    .append('}');
+        }
+        return json.append("]}").toString();
+    }
+}
@@ -0,0 +1,66 @@
+package benchmarks;
+
+import common.Common;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import utils.ApiTestHelper;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-step work the framework does before a request leaves the machine: YAML lookups, typed JSON
+ * body building (iSetComplexRequestBodyWithData) and endpoint assembly (iSendARequestTo).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StepOverheadBenchmark {
+
+    private final Common common = new Common();
+    private final Map<String, String> body = new LinkedHashMap<>();
+    private final Map<String, String> pathParams = new LinkedHashMap<>();
+    private final Map<String, String> queryParams = new LinkedHashMap<>();
+
+    @Setup
+    public void setUp() {
+        body.put("name", "morpheus");
+        body.put("job", "leader");
+        body.put("age", "42");
+        body.put("salary", "1234.5");
+        body.put("active", "true");
+        body.put("address", "{\"city\":\"Zion\",\"zip\":\"10001\"}");
+        pathParams.put("userId", "2");
+        queryParams.put("page", "2");
+        queryParams.put("per_page", "6");
+        // Loads and indexes both YAML files outside the measurement
+        common.getApiPathFromYaml("updateUser");
+        common.getQueryFromYaml("databaseUrl");
+    }
+
+    @Benchmark
+    public String apiPathLookup() {
+        return common.getApiPathFromYaml("updateUser");
+    }
+
+    @Benchmark
+    public String queryLookup() {
+        return common.getQueryFromYaml("databaseUrl");
+    }
+
+    @Benchmark
+    public String typedJsonBody() {
+        return ApiTestHelper.toTypedJson(body);
+    }
+
+    @Benchmark
+    public String endpointAssembly() {
+        return ApiTestHelper.buildEndpoint(common.getApiPathFromYaml("updateUser"), pathParams, queryParams);
+    }
+}
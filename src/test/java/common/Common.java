@@ -1,86 +1,36 @@
 package common;
 
-import org.yaml.snakeyaml.Yaml;
-import runners.TestRunner;
-
-import java.io.InputStream;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 public class Common {
 
     public static void checkYamlFileForUniqueness(String filePath) {
-        try (InputStream inputStream = TestRunner.class.getClassLoader().getResourceAsStream(filePath)) {
-            Yaml yaml = new Yaml();
-            Map<String, Map<String, String>> data = yaml.load(inputStream);
-
-            Set<String> uniqueElements = new HashSet<>();
-            for (Map.Entry<String, Map<String, String>> entry : data.entrySet()) {
-                for (String key : entry.getValue().keySet()) {
-                    if (!uniqueElements.add(key)) {
-                        throw new RuntimeException("Duplicate element name found: " + key);
-                    }
-                }
-            }
-        } catch (Exception e) {
-            throw new RuntimeException("Error checking uniqueness in YAML file: " + e.getMessage(), e);
-        }
+        // Uniqueness is verified while the registry indexes the file
+        YamlRegistry.of(filePath);
     }
-    public String getApiPathFromYaml(String pathName) {
-        try (InputStream inputStream = getClass().getClassLoader().getResourceAsStream("apiPaths/apiPaths.yaml")) {
-            Yaml yaml = new Yaml();
-            Map<String, Map<String, String>> data = yaml.load(inputStream);
 
-            for (Map.Entry<String, Map<String, String>> page : data.entrySet()) {
-                Map<String, String> elements = page.getValue();
-                if (elements.containsKey(pathName)) {
-                    return elements.get(pathName);
-                }
-            }
+    public String getApiPathFromYaml(String pathName) {
+        YamlRegistry registry = YamlRegistry.apiPaths();
+        if (!registry.contains(pathName)) {
             throw new IllegalArgumentException("path '" + pathName + "' not found in the YAML file.");
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new RuntimeException("Failed to load or parse the apiPaths.yaml file.", e);
         }
+        return registry.getString(pathName);
     }
 
     public String getQueryFromYaml(String queryName) {
-        try (InputStream inputStream = getClass().getClassLoader().getResourceAsStream("databaseQueries/databaseQueries.yaml")) {
-            Yaml yaml = new Yaml();
-            Map<String, Map<String, String>> data = yaml.load(inputStream);
-
-            for (Map.Entry<String, Map<String, String>> entry : data.entrySet()) {
-                Map<String, String> queries = entry.getValue();
-                if (queries.containsKey(queryName)) {
-                    return queries.get(queryName);
-                }
-            }
-
+        YamlRegistry registry = YamlRegistry.databaseQueries();
+        if (!registry.contains(queryName)) {
             throw new IllegalArgumentException("Query '" + queryName + "' not found in the YAML file.");
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new RuntimeException("Failed to load or parse the databaseQueries.yaml file.", e);
         }
+        return registry.getString(queryName);
     }
-    public List<String> getBatchQueriesFromYaml(String batchQueryName) {
-        try (InputStream inputStream = getClass().getClassLoader().getResourceAsStream("databaseQueries/databaseQueries.yaml")) {
-            Yaml yaml = new Yaml();
-            Map<String, Map<String, List<String>>> data = yaml.load(inputStream);
-
-            for (Map.Entry<String, Map<String, List<String>>> entry : data.entrySet()) {
-                Map<String, List<String>> batchQueries = entry.getValue();
-                if (batchQueries.containsKey(batchQueryName)) {
-                    return batchQueries.get(batchQueryName);
-                }
-            }
 
+    public List<String> getBatchQueriesFromYaml(String batchQueryName) {
+        YamlRegistry registry = YamlRegistry.databaseQueries();
+        if (!registry.contains(batchQueryName)) {
             throw new IllegalArgumentException("Batch query '" + batchQueryName + "' not found in the YAML file.");
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new RuntimeException("Failed to load or parse the databaseQueries.yaml file.", e);
         }
+        return registry.getList(batchQueryName);
     }
 
     public static boolean isInteger(String value) {
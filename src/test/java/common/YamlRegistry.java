@@ -0,0 +1,182 @@
+package common;
+
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide, read-only view of a sectioned YAML resource such as apiPaths.yaml.
+ * Each file is parsed once, checked for duplicate element names and flattened into
+ * a single name -> value index. Set -Dyaml.reload=true to read the file from the
+ * source resources (src/test/resources, or -Dyaml.sourceDirectory) instead of the
+ * classpath and re-parse it whenever it is edited, without a rebuild.
+ */
+public final class YamlRegistry {
+
+    public static final String API_PATHS = "apiPaths/apiPaths.yaml";
+    public static final String DATABASE_QUERIES = "databaseQueries/databaseQueries.yaml";
+
+    private static final boolean RELOAD_ON_CHANGE = Boolean.getBoolean("yaml.reload");
+    private static final Path SOURCE_DIRECTORY = Paths.get(System.getProperty("yaml.sourceDirectory", "src/test/resources"));
+    private static final Map<String, YamlRegistry> REGISTRIES = new ConcurrentHashMap<>();
+
+    private final String resourcePath;
+    private volatile Snapshot snapshot;
+
+    private YamlRegistry(String resourcePath) {
+        this.resourcePath = resourcePath;
+        this.snapshot = load(resourcePath);
+    }
+
+    public static YamlRegistry of(String resourcePath) {
+        return REGISTRIES.computeIfAbsent(resourcePath, YamlRegistry::new);
+    }
+
+    public static YamlRegistry apiPaths() {
+        return of(API_PATHS);
+    }
+
+    public static YamlRegistry databaseQueries() {
+        return of(DATABASE_QUERIES);
+    }
+
+    public boolean contains(String name) {
+        return current().index.containsKey(name);
+    }
+
+    // An element with an empty value is present and returns null
+    public Object get(String name) {
+        Map<String, Object> index = current().index;
+        if (!index.containsKey(name)) {
+            throw new IllegalArgumentException("'" + name + "' not found in " + resourcePath);
+        }
+        return index.get(name);
+    }
+
+    public String getString(String name) {
+        Object value = get(name);
+        return value == null ? null : String.valueOf(value);
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<String> getList(String name) {
+        Object value = get(name);
+        if (!(value instanceof List)) {
+            throw new IllegalArgumentException("'" + name + "' in " + resourcePath + " is not a list");
+        }
+        return (List<String>) value;
+    }
+
+    // Name of the first element with this value, e.g. the query name of a SQL string; null if none
+    public String nameOf(Object value) {
+        return current().names.get(value);
+    }
+
+    public Map<String, Object> asMap() {
+        return current().index;
+    }
+
+    private Snapshot current() {
+        Snapshot current = snapshot;
+        if (RELOAD_ON_CHANGE && current.lastModified != lastModified(resourcePath)) {
+            synchronized (this) {
+                if (snapshot.lastModified != lastModified(resourcePath)) {
+                    snapshot = load(resourcePath);
+                }
+                current = snapshot;
+            }
+        }
+        return current;
+    }
+
+    private static Snapshot load(String resourcePath) {
+        long lastModified = lastModified(resourcePath);
+        try (InputStream inputStream = open(resourcePath)) {
+            if (inputStream == null) {
+                throw new IllegalStateException("Resource not found on classpath: " + resourcePath);
+            }
+            Map<String, Object> index = new HashMap<>();
+            Map<Object, String> names = new HashMap<>();
+            index(inputStream, index, names);
+            return new Snapshot(Collections.unmodifiableMap(index), Collections.unmodifiableMap(names), lastModified);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to load or parse the " + resourcePath + " file: " + e.getMessage(), e);
+        }
+    }
+
+    // Flattened name -> value index of YAML text in the sectioned format, e.g. an older version of a file
+    public static Map<String, Object> parse(InputStream inputStream) {
+        Map<String, Object> index = new HashMap<>();
+        index(inputStream, index, new HashMap<>());
+        return index;
+    }
+
+    private static void index(InputStream inputStream, Map<String, Object> index, Map<Object, String> names) {
+        Map<String, Map<String, Object>> data = new Yaml().load(inputStream);
+        if (data == null) {
+            return;
+        }
+        for (Map.Entry<String, Map<String, Object>> section : data.entrySet()) {
+            for (Map.Entry<String, Object> element : section.getValue().entrySet()) {
+                Object value = element.getValue() instanceof List
+                        ? List.copyOf((List<?>) element.getValue())
+                        : element.getValue();
+                if (index.containsKey(element.getKey())) {
+                    throw new IllegalStateException("Duplicate element name found: " + element.getKey());
+                }
+                index.put(element.getKey(), value);
+                if (value instanceof String || value instanceof List) {
+                    names.putIfAbsent(value, element.getKey());
+                }
+            }
+        }
+    }
+
+    // With reloading on, the source file is read so edits show up before the resources are copied again
+    private static InputStream open(String resourcePath) throws IOException {
+        Path source = SOURCE_DIRECTORY.resolve(resourcePath);
+        if (RELOAD_ON_CHANGE && Files.isRegularFile(source)) {
+            return Files.newInputStream(source);
+        }
+        return YamlRegistry.class.getClassLoader().getResourceAsStream(resourcePath);
+    }
+
+    private static long lastModified(String resourcePath) {
+        Path source = SOURCE_DIRECTORY.resolve(resourcePath);
+        if (RELOAD_ON_CHANGE && Files.isRegularFile(source)) {
+            return source.toFile().lastModified();
+        }
+        URL url = YamlRegistry.class.getClassLoader().getResource(resourcePath);
+        if (url == null || !"file".equals(url.getProtocol())) {
+            return 0L;
+        }
+        try {
+            return new File(url.toURI()).lastModified();
+        } catch (Exception e) {
+            return 0L;
+        }
+    }
+
+    private static final class Snapshot {
+        private final Map<String, Object> index;
+        private final Map<Object, String> names;
+        private final long lastModified;
+
+        private Snapshot(Map<String, Object> index, Map<Object, String> names, long lastModified) {
+            this.index = index;
+            this.names = names;
+            this.lastModified = lastModified;
+        }
+    }
+}
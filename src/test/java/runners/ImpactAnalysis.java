@@ -0,0 +1,346 @@
+package runners;
+
+import common.YamlRegistry;
+import io.cucumber.core.feature.FeatureParser;
+import io.cucumber.core.gherkin.DataTableArgument;
+import io.cucumber.core.gherkin.Feature;
+import io.cucumber.core.gherkin.Pickle;
+import io.cucumber.core.gherkin.Step;
+import io.cucumber.core.resource.Resource;
+import io.cucumber.testng.PickleWrapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Picks the scenarios a change can affect, for pull request runs. The changed files since the merge
+ * base with impact.base are read with git. Scenarios are indexed by the strings their steps use
+ * (quoted arguments and data table cells, background and outline rows included) and by their tags.
+ * A scenario is selected when its feature file changed, when it names a changed apiPaths.yaml or
+ * databaseQueries.yaml element or a changed resource file, or when it has the tag of a hook that
+ * reads a changed element (for example @Login for loginPath). An element read by Java code outside
+ * a tagged hook, such as testUrl, and any change to Java code or pom.xml select the whole suite.
+ * Usage: ImpactAnalysis [base commit] prints the selected scenarios as a cucumber.features value.
+ */
+public final class ImpactAnalysis {
+    private static final Logger logger = LogManager.getLogger(ImpactAnalysis.class);
+    private static final String FEATURES = "src/test/resources/features/";
+    private static final String RESOURCES = "src/test/resources/";
+    private static final String JAVA_SOURCES = "src/test/java";
+    private static final List<String> REGISTRIES = List.of(RESOURCES + YamlRegistry.API_PATHS, RESOURCES + YamlRegistry.DATABASE_QUERIES);
+    private static final Pattern QUOTED = Pattern.compile("\"([^\"]*)\"");
+    // A Before or After hook limited to one tag, e.g. @Before(value = "@Login", order = 2)
+    private static final Pattern TAGGED_HOOK = Pattern.compile("@(?:Before|After)\\(value = \"(@\\w+)\"");
+    private static final Pattern ANY_HOOK = Pattern.compile("@(?:Before|After|BeforeStep|AfterStep|BeforeAll|AfterAll)\\b");
+
+    private final boolean all;
+    private final Set<String> selected;
+    private final List<String> reasons;
+
+    private ImpactAnalysis(boolean all, Set<String> selected, List<String> reasons) {
+        this.all = all;
+        this.selected = selected;
+        this.reasons = reasons;
+    }
+
+    // Without -Dimpact.base every scenario is selected
+    public static ImpactAnalysis fromSystemProperties() {
+        String base = System.getProperty("impact.base");
+        if (base == null || base.isBlank()) {
+            return new ImpactAnalysis(true, Set.of(), List.of());
+        }
+        try {
+            return analyze(base);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Impact analysis against {} failed, running every scenario", base, e);
+            return new ImpactAnalysis(true, Set.of(), List.of("analysis failed: " + e.getMessage()));
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        ImpactAnalysis analysis = analyze(args.length > 0 ? args[0] : "origin/main");
+        analysis.reasons.forEach(System.err::println);
+        if (analysis.all) {
+            System.out.println(FEATURES.substring(0, FEATURES.length() - 1));
+        } else {
+            System.out.println(analysis.toFeaturesFilter());
+        }
+    }
+
+    // The scenarios (TestNG data provider rows) affected by the change
+    public Object[][] select(Object[][] scenarios) {
+        if (all) {
+            return scenarios;
+        }
+        List<Object[]> kept = new ArrayList<>();
+        for (Object[] scenario : scenarios) {
+            io.cucumber.testng.Pickle pickle = ((PickleWrapper) scenario[0]).getPickle();
+            if (selected.contains(key(pickle.getUri(), pickle.getLine()))) {
+                kept.add(scenario);
+            }
+        }
+        logger.info("Impact analysis kept {} of {} scenarios: {}", kept.size(), scenarios.length, reasons);
+        return kept.toArray(new Object[0][]);
+    }
+
+    // path:line:line ... per feature, the format of the cucumber.features property
+    public String toFeaturesFilter() {
+        Map<String, Set<Integer>> lines = new TreeMap<>();
+        for (String key : selected) {
+            int colon = key.lastIndexOf(':');
+            lines.computeIfAbsent(key.substring(0, colon), path -> new TreeSet<>()).add(Integer.parseInt(key.substring(colon + 1)));
+        }
+        StringBuilder filter = new StringBuilder();
+        lines.forEach((path, featureLines) -> {
+            filter.append(filter.length() == 0 ? "" : " ").append(path);
+            featureLines.forEach(line -> filter.append(':').append(line));
+        });
+        return filter.toString();
+    }
+
+    static ImpactAnalysis analyze(String base) throws IOException {
+        String mergeBase = git("merge-base", base, "HEAD").trim();
+        Set<String> changed = new TreeSet<>(lines(git("diff", "--name-only", mergeBase, "--")));
+        changed.addAll(lines(git("ls-files", "--others", "--exclude-standard")));
+        List<String> reasons = new ArrayList<>();
+        Set<String> keys = new HashSet<>();
+        Set<String> files = new HashSet<>();
+
+        for (String file : changed) {
+            if (file.endsWith(".md") || file.startsWith("src/benchmark/")) {
+                continue;
+            }
+            if (REGISTRIES.contains(file)) {
+                Set<String> changedKeys = changedKeys(mergeBase, file);
+                reasons.add(file + ": " + changedKeys);
+                keys.addAll(changedKeys);
+            } else if (file.startsWith(RESOURCES)) {
+                files.add(file);
+            } else {
+                reasons.add(file + " changed, running every scenario");
+                return new ImpactAnalysis(true, Set.of(), reasons);
+            }
+        }
+
+        Map<String, Set<String>> hookTags = hookTags(keys);
+        for (Map.Entry<String, Set<String>> key : hookTags.entrySet()) {
+            if (key.getValue().isEmpty()) {
+                reasons.add(key.getKey() + " is read outside a tagged hook, running every scenario");
+                return new ImpactAnalysis(true, Set.of(), reasons);
+            }
+        }
+
+        Set<String> selected = new LinkedHashSet<>();
+        for (Pickle pickle : parseFeatures()) {
+            String path = relativePath(pickle.getUri());
+            Set<String> tokens = tokens(pickle);
+            String reason = null;
+            if (files.contains(path)) {
+                reason = "feature changed";
+            }
+            for (String key : keys) {
+                if (reason == null && tokens.contains(key)) {
+                    reason = "uses " + key;
+                }
+                for (String tag : hookTags.getOrDefault(key, Set.of())) {
+                    if (reason == null && pickle.getTags().contains(tag)) {
+                        reason = tag + " reads " + key;
+                    }
+                }
+            }
+            for (String file : files) {
+                for (String token : tokens) {
+                    if (reason == null && !token.isEmpty() && (file.equals(token) || file.endsWith("/" + token))) {
+                        reason = "uses " + file;
+                    }
+                }
+            }
+            if (reason != null) {
+                selected.add(key(pickle.getUri(), pickle.getLocation().getLine()));
+                reasons.add(path + ":" + pickle.getLocation().getLine() + " " + reason);
+            }
+        }
+        return new ImpactAnalysis(false, selected, reasons);
+    }
+
+    // Elements added, removed or changed between the merge base and the working tree
+    private static Set<String> changedKeys(String mergeBase, String file) throws IOException {
+        Map<String, Object> before;
+        try {
+            before = parse(git("show", mergeBase + ":" + file));
+        } catch (IOException e) {
+            before = Map.of();
+        }
+        Path path = Paths.get(file);
+        Map<String, Object> after = Files.exists(path) ? parse(Files.readString(path)) : Map.of();
+        Set<String> changedKeys = new TreeSet<>();
+        Set<String> names = new HashSet<>(before.keySet());
+        names.addAll(after.keySet());
+        for (String name : names) {
+            if (!Objects.equals(before.get(name), after.get(name))) {
+                changedKeys.add(name);
+            }
+        }
+        return changedKeys;
+    }
+
+    private static Map<String, Object> parse(String yaml) {
+        return YamlRegistry.parse(new ByteArrayInputStream(yaml.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    // For every key that appears as a string literal in the test code: the tags of the hooks it is read in,
+    // or an empty set when it is also read elsewhere. Keys that are not in the code are left out.
+    private static Map<String, Set<String>> hookTags(Set<String> keys) throws IOException {
+        Map<String, Set<String>> tags = new HashMap<>();
+        Set<String> untagged = new HashSet<>();
+        List<Path> sources;
+        try (Stream<Path> files = Files.walk(Paths.get(JAVA_SOURCES))) {
+            sources = files.filter(file -> file.toString().endsWith(".java")).toList();
+        }
+        for (Path source : sources) {
+            String code = Files.readString(source);
+            // Each hook annotation starts a section that runs to the next hook annotation
+            Matcher hook = ANY_HOOK.matcher(code);
+            List<Integer> starts = new ArrayList<>(List.of(0));
+            while (hook.find()) {
+                starts.add(hook.start());
+            }
+            starts.add(code.length());
+            for (int i = 0; i + 1 < starts.size(); i++) {
+                String section = code.substring(starts.get(i), starts.get(i + 1));
+                Matcher tagged = TAGGED_HOOK.matcher(section);
+                String tag = tagged.lookingAt() ? tagged.group(1) : null;
+                Matcher literal = QUOTED.matcher(section);
+                while (literal.find()) {
+                    String key = literal.group(1);
+                    if (!keys.contains(key)) {
+                        continue;
+                    }
+                    if (tag == null) {
+                        untagged.add(key);
+                    } else {
+                        tags.computeIfAbsent(key, k -> new HashSet<>()).add(tag);
+                    }
+                }
+            }
+        }
+        untagged.forEach(key -> tags.put(key, Set.of()));
+        return tags;
+    }
+
+    private static List<Pickle> parseFeatures() throws IOException {
+        FeatureParser parser = new FeatureParser(UUID::randomUUID);
+        List<Pickle> pickles = new ArrayList<>();
+        List<Path> featureFiles;
+        try (Stream<Path> files = Files.walk(Paths.get(FEATURES))) {
+            featureFiles = files.filter(file -> file.toString().endsWith(".feature")).sorted().toList();
+        }
+        for (Path featureFile : featureFiles) {
+            // The same relative file: URI that the runner gives its pickles
+            URI uri = URI.create("file:" + featureFile.toString().replace('\\', '/'));
+            Resource resource = new Resource() {
+                @Override
+                public URI getUri() {
+                    return uri;
+                }
+
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    return Files.newInputStream(featureFile);
+                }
+            };
+            parser.parseResource(resource).map(Feature::getPickles).ifPresent(pickles::addAll);
+        }
+        return pickles;
+    }
+
+    // Quoted step arguments and data table cells; comma separated lists also count item by item
+    private static Set<String> tokens(Pickle pickle) {
+        Set<String> tokens = new HashSet<>();
+        for (Step step : pickle.getSteps()) {
+            Matcher quoted = QUOTED.matcher(step.getText());
+            while (quoted.find()) {
+                addToken(tokens, quoted.group(1));
+            }
+            if (step.getArgument() instanceof DataTableArgument) {
+                for (List<String> row : ((DataTableArgument) step.getArgument()).cells()) {
+                    row.forEach(cell -> addToken(tokens, cell));
+                }
+            }
+        }
+        return tokens;
+    }
+
+    private static void addToken(Set<String> tokens, String value) {
+        String token = value.trim();
+        tokens.add(token);
+        if (token.contains(",")) {
+            for (String item : token.split(",")) {
+                tokens.add(item.trim());
+            }
+        }
+    }
+
+    // Also the scenario key of ShardPlan, so both agree with the uri and line fields of the JSON report
+    static String key(URI uri, int line) {
+        return relativePath(uri) + ":" + line;
+    }
+
+    private static String relativePath(URI uri) {
+        String path = uri.getSchemeSpecificPart();
+        Path file = Paths.get(path);
+        if (file.isAbsolute()) {
+            file = Paths.get("").toAbsolutePath().relativize(file);
+        }
+        return file.toString().replace('\\', '/');
+    }
+
+    private static List<String> lines(String output) {
+        List<String> lines = new ArrayList<>();
+        for (String line : output.split("\n")) {
+            if (!line.isBlank()) {
+                lines.add(line.trim());
+            }
+        }
+        return lines;
+    }
+
+    private static String git(String... args) throws IOException {
+        List<String> command = new ArrayList<>(List.of("git"));
+        command.addAll(List.of(args));
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        try {
+            if (!process.waitFor(1, TimeUnit.MINUTES) || process.exitValue() != 0) {
+                throw new IOException(String.join(" ", command) + " failed: " + output.trim());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(String.join(" ", command) + " was interrupted", e);
+        }
+        return output;
+    }
+}
@@ -0,0 +1,96 @@
+package runners;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Combines the Cucumber JSON reports of the shards in target/shards/shard-N into one
+ * cucumber-report.json, with the scenarios of each feature back in file order, so
+ * maven-cucumber-reporting shows a sharded run as one run. The other files of a shard, such as the
+ * step timing summary, stay in its directory, since every JSON file in the report directory is read
+ * as Cucumber results.
+ * Usage: ReportMerger [shards directory] [report directory]
+ */
+public final class ReportMerger {
+    private static final Logger logger = LogManager.getLogger(ReportMerger.class);
+    static final String REPORT = "cucumber-report.json";
+
+    private ReportMerger() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path shardsDirectory = Paths.get(args.length > 0 ? args[0] : ShardPlan.SHARDS_DIRECTORY.toString());
+        Path reportDirectory = Paths.get(args.length > 1 ? args[1] : "target/jsonReports");
+        merge(shardsDirectory, reportDirectory);
+    }
+
+    public static void merge(Path shardsDirectory, Path reportDirectory) throws IOException {
+        List<Path> shards = new ArrayList<>();
+        if (Files.isDirectory(shardsDirectory)) {
+            try (DirectoryStream<Path> directories = Files.newDirectoryStream(shardsDirectory, "shard-*")) {
+                directories.forEach(shards::add);
+            }
+        }
+        if (shards.isEmpty()) {
+            logger.warn("No shard reports in {}", shardsDirectory);
+            return;
+        }
+        shards.sort(Comparator.comparing(Path::toString));
+        ObjectMapper mapper = new ObjectMapper();
+        Map<String, ObjectNode> features = new LinkedHashMap<>();
+        Map<String, List<List<JsonNode>>> scenarios = new LinkedHashMap<>();
+        Files.createDirectories(reportDirectory);
+        for (Path shard : shards) {
+            Path file = shard.resolve(REPORT);
+            if (!Files.exists(file)) {
+                continue;
+            }
+            for (JsonNode feature : mapper.readTree(file.toFile())) {
+                String uri = feature.path("uri").asText();
+                features.computeIfAbsent(uri, key -> ((ObjectNode) feature).deepCopy());
+                addScenarios(scenarios.computeIfAbsent(uri, key -> new ArrayList<>()), feature.path("elements"));
+            }
+        }
+
+        ArrayNode merged = mapper.createArrayNode();
+        int scenarioCount = 0;
+        for (Map.Entry<String, ObjectNode> feature : features.entrySet()) {
+            List<List<JsonNode>> groups = scenarios.get(feature.getKey());
+            groups.sort(Comparator.comparingInt(group -> group.get(group.size() - 1).path("line").asInt()));
+            ArrayNode elements = feature.getValue().putArray("elements");
+            groups.forEach(elements::addAll);
+            scenarioCount += groups.size();
+            merged.add(feature.getValue());
+        }
+        mapper.writerWithDefaultPrettyPrinter().writeValue(reportDirectory.resolve(REPORT).toFile(), merged);
+        logger.info("Merged {} scenarios of {} features from {} shards into {}", scenarioCount, features.size(),
+                shards.size(), reportDirectory.resolve(REPORT));
+    }
+
+    // Keeps a background together with the scenario it ran before
+    private static void addScenarios(List<List<JsonNode>> groups, JsonNode elements) {
+        List<JsonNode> group = new ArrayList<>();
+        for (JsonNode element : elements) {
+            group.add(element);
+            if (!"background".equals(element.path("type").asText())) {
+                groups.add(group);
+                group = new ArrayList<>();
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package runners;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Runs the TestRunner suite as shard.count shards in parallel, one forked JVM per shard, and merges
+ * their reports. The -D options given to this JVM are passed on to every shard. Each shard writes its
+ * console output and reports to target/shards/shard-N. If a shard crashes (any exit code other than
+ * TestNG's 0 or 1) or leaves no report, the reports are not merged and the launcher fails.
+ * Usage: ShardLauncher shardCount [threadsPerShard]
+ */
+public final class ShardLauncher {
+    private static final Logger logger = LogManager.getLogger(ShardLauncher.class);
+
+    private ShardLauncher() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int count = Integer.parseInt(args[0]);
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        deleteShardReports();
+
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<String> forwarded = new ArrayList<>();
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (argument.startsWith("-D")) {
+                forwarded.add(argument);
+            }
+        }
+        List<Process> processes = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int index = 1; index <= count; index++) {
+            Path shardDirectory = ShardPlan.SHARDS_DIRECTORY.resolve("shard-" + index);
+            Files.createDirectories(shardDirectory);
+            List<String> command = new ArrayList<>(List.of(java, "-cp", System.getProperty("java.class.path")));
+            command.addAll(forwarded);
+            command.addAll(List.of("-Dshard.index=" + index, "-Dshard.count=" + count,
+                    "org.testng.TestNG", "-testclass", TestRunner.class.getName(),
+                    "-dataproviderthreadcount", String.valueOf(threads),
+                    "-d", shardDirectory.resolve("testng").toString()));
+            File console = shardDirectory.resolve("console.log").toFile();
+            processes.add(new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(console).start());
+        }
+        List<String> incomplete = new ArrayList<>();
+        for (int index = 1; index <= count; index++) {
+            int exitCode = processes.get(index - 1).waitFor();
+            // TestNG exits with 1 when scenarios failed; like surefire's testFailureIgnore, that does not stop the build
+            logger.info("Shard {} of {} finished with exit code {} after {} s", index, count, exitCode,
+                    TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+            Path report = ShardPlan.SHARDS_DIRECTORY.resolve("shard-" + index).resolve(ReportMerger.REPORT);
+            if (exitCode != 0 && exitCode != 1) {
+                incomplete.add("shard " + index + " exited with code " + exitCode);
+            } else if (!Files.isRegularFile(report)) {
+                incomplete.add("shard " + index + " wrote no " + report);
+            }
+        }
+        // A merged report without a shard's scenarios would look like a smaller, passing run
+        if (!incomplete.isEmpty()) {
+            logger.error("Sharded run is incomplete, reports were not merged: {}", incomplete);
+            throw new IllegalStateException("Sharded run is incomplete: " + String.join("; ", incomplete)
+                    + "; see console.log in " + ShardPlan.SHARDS_DIRECTORY);
+        }
+        ReportMerger.merge(ShardPlan.SHARDS_DIRECTORY, Paths.get("target/jsonReports"));
+    }
+
+    // Reports of an earlier run with more shards would otherwise be merged too
+    private static void deleteShardReports() throws IOException {
+        if (!Files.isDirectory(ShardPlan.SHARDS_DIRECTORY)) {
+            return;
+        }
+        try (DirectoryStream<Path> shards = Files.newDirectoryStream(ShardPlan.SHARDS_DIRECTORY, "shard-*")) {
+            for (Path shard : shards) {
+                try (Stream<Path> files = Files.walk(shard)) {
+                    for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                        Files.delete(file);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package runners;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.cucumber.testng.PickleWrapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits the scenarios of a run into shard.count shards that take about the same time, so shards run
+ * on several JVMs or machines finish together. Scenario durations come from a previous Cucumber JSON
+ * report (shard.history); scenarios are placed longest first on the shard with the least work so far
+ * (longest processing time first). Scenarios missing from the history count as the average duration.
+ * Every shard computes the same plan from the same history and keeps the scenarios of shard.index
+ * (1 to shard.count). A sharded run writes its reports under target/shards/shard-N.
+ */
+public final class ShardPlan {
+    private static final Logger logger = LogManager.getLogger(ShardPlan.class);
+    public static final Path SHARDS_DIRECTORY = Paths.get("target", "shards");
+    private static final long DEFAULT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final int index;
+    private final int count;
+    private final Map<String, Long> durations;
+
+    private ShardPlan(int index, int count, Map<String, Long> durations) {
+        this.index = index;
+        this.count = count;
+        this.durations = durations;
+    }
+
+    // Reads shard.index, shard.count and shard.history; the history has to be read before this run's report replaces it
+    public static ShardPlan fromSystemProperties() {
+        int count = Integer.getInteger("shard.count", 1);
+        int index = Integer.getInteger("shard.index", 1);
+        if (count <= 1) {
+            return new ShardPlan(1, 1, Map.of());
+        }
+        if (index < 1 || index > count) {
+            throw new IllegalArgumentException("shard.index must be between 1 and " + count + ", was " + index);
+        }
+        Path history = Paths.get(System.getProperty("shard.history", "target/jsonReports/cucumber-report.json"));
+        return new ShardPlan(index, count, readDurations(history));
+    }
+
+    public static boolean isSharded() {
+        return Integer.getInteger("shard.count", 1) > 1;
+    }
+
+    // A report file of this shard: target/shards/shard-N/<file name> when sharded, the file itself otherwise
+    public static File outputFile(File file) {
+        if (!isSharded()) {
+            return file;
+        }
+        return SHARDS_DIRECTORY.resolve("shard-" + Integer.getInteger("shard.index", 1)).resolve(file.getName()).toFile();
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    // The scenarios (TestNG data provider rows) of this shard
+    public Object[][] select(Object[][] scenarios) {
+        if (count <= 1) {
+            return scenarios;
+        }
+        List<String> keys = new ArrayList<>(scenarios.length);
+        for (Object[] scenario : scenarios) {
+            keys.add(key((PickleWrapper) scenario[0]));
+        }
+        int[] shards = assign(keys, durations, count);
+        List<Object[]> selected = new ArrayList<>();
+        long plannedNanos = 0;
+        for (int i = 0; i < scenarios.length; i++) {
+            if (shards[i] == index - 1) {
+                selected.add(scenarios[i]);
+                plannedNanos += durations.getOrDefault(keys.get(i), 0L);
+            }
+        }
+        logger.info("Shard {} of {}: {} of {} scenarios, {} s of recorded duration", index, count, selected.size(),
+                scenarios.length, TimeUnit.NANOSECONDS.toSeconds(plannedNanos));
+        return selected.toArray(new Object[0][]);
+    }
+
+    private static String key(PickleWrapper pickle) {
+        return key(pickle.getPickle().getUri(), pickle.getPickle().getLine());
+    }
+
+    // Feature path relative to the working directory and line. Pickles carry absolute file URIs while
+    // the JSON report writes them relative (file:src/test/...), so both are reduced to the same form.
+    static String key(URI uri, int line) {
+        return ImpactAnalysis.key(uri, line);
+    }
+
+    // Shard (0-based) of every key, longest first onto the least loaded shard; ties keep the input order
+    static int[] assign(List<String> keys, Map<String, Long> durations, int count) {
+        long known = durations.values().stream().mapToLong(Long::longValue).sum();
+        long estimate = durations.isEmpty() ? DEFAULT_NANOS : Math.max(1, known / durations.size());
+        long[] weights = new long[keys.size()];
+        List<Integer> order = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            weights[i] = durations.getOrDefault(keys.get(i), estimate);
+            order.add(i);
+        }
+        order.sort(Comparator.<Integer>comparingLong(i -> weights[i]).reversed().thenComparing(i -> i));
+        long[] loads = new long[count];
+        int[] shards = new int[keys.size()];
+        for (int i : order) {
+            int lightest = 0;
+            for (int shard = 1; shard < count; shard++) {
+                if (loads[shard] < loads[lightest]) {
+                    lightest = shard;
+                }
+            }
+            shards[i] = lightest;
+            loads[lightest] += weights[i];
+        }
+        return shards;
+    }
+
+    // Scenario durations in nanoseconds (steps and hooks, including the background) by relative path:line
+    static Map<String, Long> readDurations(Path report) {
+        Map<String, Long> durations = new HashMap<>();
+        if (!Files.isRegularFile(report)) {
+            logger.warn("No scenario history at {}; shards are split by scenario count", report);
+            return durations;
+        }
+        try {
+            for (JsonNode feature : new ObjectMapper().readTree(report.toFile())) {
+                URI uri = URI.create(feature.path("uri").asText());
+                long background = 0;
+                for (JsonNode element : feature.path("elements")) {
+                    long nanos = sum(element.path("before")) + sum(element.path("steps")) + sum(element.path("after"));
+                    if ("background".equals(element.path("type").asText())) {
+                        background = nanos;
+                        continue;
+                    }
+                    durations.merge(key(uri, element.path("line").asInt()), background + nanos, Long::sum);
+                    background = 0;
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            logger.warn("Could not read scenario history {}; shards are split by scenario count", report, e);
+            durations.clear();
+        }
+        return durations;
+    }
+
+    private static long sum(JsonNode results) {
+        long nanos = 0;
+        for (JsonNode result : results) {
+            nanos += result.path("result").path("duration").asLong(0);
+        }
+        return nanos;
+    }
+}
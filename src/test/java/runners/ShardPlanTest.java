@@ -0,0 +1,89 @@
+package runners;
+
+import org.testng.annotations.Test;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class ShardPlanTest {
+    // Cucumber JSON report of a full run of the features in src/test/resources/features
+    private static final Path HISTORY = Paths.get("src/test/resources/fixtures/shard-history.json");
+    private static final String AUTH = "src/test/resources/features/AUTH.feature";
+
+    @Test
+    public void pickleUrisAndReportUrisGiveTheSameKey() {
+        URI pickleUri = Paths.get(AUTH).toAbsolutePath().toUri();
+        URI reportUri = URI.create("file:" + AUTH);
+
+        assertEquals(ShardPlan.key(pickleUri, 3), AUTH + ":3");
+        assertEquals(ShardPlan.key(reportUri, 3), AUTH + ":3");
+    }
+
+    @Test
+    public void everyScenarioOfTheRunIsFoundInTheHistory() {
+        Map<String, Long> durations = ShardPlan.readDurations(HISTORY);
+
+        assertEquals(durations.size(), 11);
+        for (String key : durations.keySet()) {
+            int colon = key.lastIndexOf(':');
+            URI pickleUri = Paths.get(key.substring(0, colon)).toAbsolutePath().toUri();
+            assertEquals(ShardPlan.key(pickleUri, Integer.parseInt(key.substring(colon + 1))), key);
+        }
+        assertEquals(durations.get(AUTH + ":3").longValue(), 2_512_222_119L);
+    }
+
+    @Test
+    public void recordedDurationsBalanceTheShards() {
+        Map<String, Long> durations = ShardPlan.readDurations(HISTORY);
+        List<String> keys = new ArrayList<>();
+        for (String key : durations.keySet()) {
+            int colon = key.lastIndexOf(':');
+            keys.add(ShardPlan.key(Paths.get(key.substring(0, colon)).toAbsolutePath().toUri(),
+                    Integer.parseInt(key.substring(colon + 1))));
+        }
+
+        int[] shards = ShardPlan.assign(keys, durations, 2);
+
+        // The login scenario takes longer than all the others together, so it gets a shard of its own
+        int authShard = shards[keys.indexOf(AUTH + ":3")];
+        for (int i = 0; i < keys.size(); i++) {
+            if (!keys.get(i).equals(AUTH + ":3")) {
+                assertEquals(shards[i], 1 - authShard, keys.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void longestScenariosGoFirstOntoTheLightestShard() {
+        List<String> keys = List.of("a:1", "b:1", "c:1", "d:1");
+        Map<String, Long> durations = Map.of("a:1", 4L, "b:1", 3L, "c:1", 2L, "d:1", 1L);
+
+        assertEquals(ShardPlan.assign(keys, durations, 2), new int[] {0, 1, 1, 0});
+    }
+
+    @Test
+    public void scenariosWithoutHistoryCountAsTheAverage() {
+        List<String> keys = List.of("known:1", "known:2", "new:1", "new:2");
+        Map<String, Long> durations = Map.of("known:1", 10L, "known:2", 30L);
+
+        int[] shards = ShardPlan.assign(keys, durations, 2);
+
+        // The new scenarios weigh 20 each: 30 goes first, then 20 and 20 on the other shard, then 10 back on the first
+        assertEquals(shards, new int[] {0, 0, 1, 1});
+    }
+
+    @Test
+    public void missingHistorySplitsByScenarioCount() {
+        Map<String, Long> durations = ShardPlan.readDurations(Paths.get("target/no-such-report.json"));
+
+        assertTrue(durations.isEmpty());
+        assertEquals(ShardPlan.assign(List.of("a:1", "b:1", "c:1", "d:1"), durations, 2), new int[] {0, 1, 0, 1});
+    }
+}
@@ -0,0 +1,28 @@
+package runners;
+
+import io.cucumber.core.plugin.JsonFormatter;
+import io.cucumber.plugin.EventListener;
+import io.cucumber.plugin.event.EventPublisher;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+
+/**
+ * Cucumber's json plugin, writing to the shard's own directory when the run is sharded, so shards
+ * running side by side do not write the same report file. ReportMerger combines the shard reports.
+ */
+public class ShardedJsonFormatter implements EventListener {
+    private final JsonFormatter formatter;
+
+    public ShardedJsonFormatter(File reportFile) throws FileNotFoundException {
+        File file = ShardPlan.outputFile(reportFile);
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        this.formatter = new JsonFormatter(new FileOutputStream(file));
+    }
+
+    @Override
+    public void setEventPublisher(EventPublisher publisher) {
+        formatter.setEventPublisher(publisher);
+    }
+}
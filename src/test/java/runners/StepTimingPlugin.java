@@ -0,0 +1,103 @@
+package runners;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.cucumber.plugin.ConcurrentEventListener;
+import io.cucumber.plugin.event.EventPublisher;
+import io.cucumber.plugin.event.PickleStepTestStep;
+import io.cucumber.plugin.event.TestRunFinished;
+import io.cucumber.plugin.event.TestStepFinished;
+import io.cucumber.plugin.event.TestStepStarted;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import utils.LatencyHistogram;
+import utils.StepTimings;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns the phase timings collected by StepTimings on for every test step and writes a run summary of
+ * the slowest endpoints and queries as plain JSON. The summary goes to its own directory rather than
+ * target/jsonReports, because every JSON file there is read as Cucumber results and would count as a
+ * passed feature. Events for a scenario arrive on the thread that runs it, which is what StepTimings keys
+ * on. Per-step timings are attached to the steps by the AfterStep hook in CucumberHooks.
+ */
+public class StepTimingPlugin implements ConcurrentEventListener {
+    private static final Logger logger = LogManager.getLogger(StepTimingPlugin.class);
+    private static final int SLOWEST = 15;
+
+    private final File summaryFile;
+
+    public StepTimingPlugin(File summaryFile) {
+        this.summaryFile = ShardPlan.outputFile(summaryFile);
+    }
+
+    @Override
+    public void setEventPublisher(EventPublisher publisher) {
+        publisher.registerHandlerFor(TestStepStarted.class, event -> StepTimings.startStep());
+        publisher.registerHandlerFor(TestStepFinished.class, event -> {
+            if (event.getTestStep() instanceof PickleStepTestStep) {
+                StepTimings.finishStep(event.getResult().getDuration().toNanos());
+            } else {
+                StepTimings.finishStep(0);
+                // Phases recorded in hooks only count towards the run totals
+                StepTimings.takeLastStep();
+            }
+        });
+        publisher.registerHandlerFor(TestRunFinished.class, event -> writeSummary());
+    }
+
+    private void writeSummary() {
+        List<StepTimings.TargetStats> slowest = StepTimings.getSlowest(Integer.MAX_VALUE);
+        if (slowest.isEmpty()) {
+            return;
+        }
+        List<StepTimings.TargetStats> requests = slowest.stream().filter(stats -> !stats.getName().startsWith("SQL ")).limit(SLOWEST).toList();
+        List<StepTimings.TargetStats> queries = slowest.stream().filter(stats -> stats.getName().startsWith("SQL ")).limit(SLOWEST).toList();
+        for (StepTimings.TargetStats stats : slowest.subList(0, Math.min(SLOWEST, slowest.size()))) {
+            logger.info("Slowest: {} {} {}", stats.getName(), stats.getLatencies(), phaseAverages(stats));
+        }
+
+        ObjectMapper mapper = new ObjectMapper();
+        ObjectNode summary = mapper.createObjectNode();
+        addTargets(summary.putArray("endpoints"), requests);
+        addTargets(summary.putArray("queries"), queries);
+        try {
+            summaryFile.getAbsoluteFile().getParentFile().mkdirs();
+            mapper.writerWithDefaultPrettyPrinter().writeValue(summaryFile, summary);
+        } catch (Exception e) {
+            logger.error("Error writing step timing summary: {}", summaryFile, e);
+        }
+    }
+
+    private static void addTargets(ArrayNode array, List<StepTimings.TargetStats> targets) {
+        for (StepTimings.TargetStats stats : targets) {
+            LatencyHistogram latencies = stats.getLatencies();
+            ObjectNode target = array.addObject();
+            target.put("name", stats.getName());
+            target.put("count", latencies.getCount());
+            target.put("totalMs", stats.getTotalNanos() / 1e6);
+            target.put("p50Ms", latencies.getPercentileMillis(50));
+            target.put("p95Ms", latencies.getPercentileMillis(95));
+            target.put("maxMs", latencies.getMaxNanos() / 1e6);
+            ObjectNode phases = target.putObject("averagePhaseMs");
+            long count = Math.max(1, latencies.getCount());
+            for (Map.Entry<String, Long> phase : stats.getPhaseNanos().entrySet()) {
+                phases.put(phase.getKey(), phase.getValue() / 1e6 / count);
+            }
+        }
+    }
+
+    private static String phaseAverages(StepTimings.TargetStats stats) {
+        long count = Math.max(1, stats.getLatencies().getCount());
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Long> phase : stats.getPhaseNanos().entrySet()) {
+            text.append(text.length() == 0 ? "" : ", ")
+                    .append(String.format("%s %.2f ms", phase.getKey(), phase.getValue() / 1e6 / count));
+        }
+        return text.toString();
+    }
+}
@@ -1,19 +1,97 @@
 package runners;
 
-import common.Common;
+import common.YamlRegistry;
 import io.cucumber.testng.AbstractTestNGCucumberTests;
 import io.cucumber.testng.CucumberOptions;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.testng.annotations.AfterSuite;
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.DataProvider;
+import utils.Cassette;
+import utils.ConnectionPool;
+import utils.HttpClientPool;
+import utils.Metrics;
+import utils.TokenCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 
 
 @CucumberOptions(
         features = "src/test/resources/features",
         glue = "stepdefinitions",
-        plugin = "json:target/jsonReports/cucumber-report.json"
+        plugin = {"runners.ShardedJsonFormatter:target/jsonReports/cucumber-report.json",
+                "runners.StepTimingPlugin:target/step-timings/step-timings.json"}
 )
 public class TestRunner extends AbstractTestNGCucumberTests {
+    private static final Logger logger = LogManager.getLogger(TestRunner.class);
+    // Read when the class loads, before the report plugins of this run open their files
+    private static final ShardPlan SHARD_PLAN = ShardPlan.fromSystemProperties();
+    // With -Dimpact.base=<commit> only the scenarios affected by changes since that commit are run
+    private static final ImpactAnalysis IMPACT = ImpactAnalysis.fromSystemProperties();
+
     static {
-        // Call method to check uniqueness in the YAML file
-        Common.checkYamlFileForUniqueness("apiPaths/apiPaths.yaml");
-        Common.checkYamlFileForUniqueness("databaseQueries/databaseQueries.yaml");
+        // Load the YAML registries once up front; loading also checks element names for uniqueness
+        YamlRegistry.apiPaths();
+        YamlRegistry.databaseQueries();
+    }
+
+    // Scenarios are handed out in parallel; the number of threads is TestNG's data provider
+    // thread count, set from the cucumber.threads property in pom.xml (1 keeps runs sequential).
+    // With -Dshard.count=N -Dshard.index=I only the scenarios of shard I are run.
+    @Override
+    @DataProvider(parallel = true)
+    public Object[][] scenarios() {
+        return SHARD_PLAN.select(IMPACT.select(super.scenarios()));
+    }
+
+    @BeforeSuite(alwaysRun = true)
+    public void startMetrics() throws IOException {
+        YamlRegistry registry = YamlRegistry.apiPaths();
+        Metrics.start(ShardPlan.outputFile(new File(registry.getString("metricsFile"))).toPath(),
+                TimeUnit.SECONDS.toMillis(Long.parseLong(registry.getString("metricsWriteIntervalSeconds"))),
+                Integer.parseInt(registry.getString("metricsPort")));
+    }
+
+    // -Dcassette.mode=record|replay overrides cassetteMode from apiPaths.yaml
+    @BeforeSuite(alwaysRun = true)
+    public void startCassettes() throws IOException {
+        YamlRegistry registry = YamlRegistry.apiPaths();
+        String mode = System.getProperty("cassette.mode", registry.getString("cassetteMode"));
+        // Every shard would rewrite the cassettes of the features it shares with the others with only its own scenarios
+        if ("record".equalsIgnoreCase(mode) && ShardPlan.isSharded()) {
+            throw new IllegalArgumentException("Cassettes cannot be recorded by a sharded run; record with shard.count=1");
+        }
+        Cassette.start(Cassette.Mode.valueOf(mode.toUpperCase(Locale.ROOT)), Paths.get(registry.getString("cassetteDirectory")),
+                Boolean.parseBoolean(System.getProperty("cassette.strict", registry.getString("cassetteStrict"))));
+    }
+
+    @AfterSuite(alwaysRun = true)
+    public void stopCassettes() {
+        // Writes the cassettes of a recording run
+        Cassette.stop();
+    }
+
+    @AfterSuite(alwaysRun = true)
+    public void stopMetrics() {
+        // Writes the metrics file one last time with the final counts
+        Metrics.stop();
+    }
+
+    @AfterSuite(alwaysRun = true)
+    public void closeConnectionPools() {
+        // Logs pool metrics and any connection that was never returned
+        ConnectionPool.closeAll();
+    }
+
+    @AfterSuite(alwaysRun = true)
+    public void shutdownHttpClientPool() {
+        // Logs request, connection reuse, pool and login statistics for the run
+        HttpClientPool.shutdownShared();
+        logger.info("Login token cache: {}", TokenCache.getStats());
     }
 }
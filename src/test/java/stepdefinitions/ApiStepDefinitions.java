@@ -1,9 +1,6 @@
 package stepdefinitions;
 
 import com.google.gson.Gson;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import common.Common;
 import io.cucumber.datatable.DataTable;
 import io.cucumber.java.en.Given;
@@ -11,21 +8,30 @@ import io.cucumber.java.en.Then;
 import io.cucumber.java.en.When;
 import io.restassured.path.xml.XmlPath;
 import io.restassured.response.Response;
-import org.testng.Assert;
 import utils.ApiTestHelper;
+import utils.DataDrivenRun;
+import utils.DownloadedBody;
+import utils.JsonStreamValidator;
+import utils.LoadTestResult;
+import utils.SoftAssertions;
 
 import java.io.File;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.StringJoiner;
-
-import static utils.ApiTestHelper.isJson;
+import java.util.Set;
 
 public class ApiStepDefinitions extends Common {
 
     private ApiTestHelper apiHelper = CucumberHooks.getApiHelper();
     private Response response;
     private String extractedValue;
+    private DataDrivenRun.Result dataRunResult;
+    private Map<String, Response> namedResponses = new LinkedHashMap<>();
+    private DownloadedBody download;
     public ApiStepDefinitions() {
 
     }
@@ -81,24 +87,8 @@ public class ApiStepDefinitions extends Common {
     @Given("I set complex request body with data:")
     public void iSetComplexRequestBodyWithData(DataTable bodyData) {
         Map<String, String> dataMap = bodyData.asMap(String.class, String.class);
-        JsonObject requestBody = new JsonObject();
-
-        dataMap.forEach((key, value) -> {
-            if (isJson(value)) {
-                JsonElement element = JsonParser.parseString(value);
-                requestBody.add(key, element);
-            } else if (isInteger(value)) {
-                requestBody.addProperty(key, Integer.parseInt(value));
-            } else if (isFloat(value)) {
-                requestBody.addProperty(key, Float.parseFloat(value));
-            } else if (isBoolean(value)) {
-                requestBody.addProperty(key, Boolean.parseBoolean(value));
-            } else {
-                requestBody.addProperty(key, value);
-            }
-        });
-        System.out.println(requestBody.toString());
-        apiHelper.setBody(requestBody.toString());
+        String requestBody = ApiTestHelper.toTypedJson(dataMap);
+        apiHelper.setBody(requestBody);
     }
 
     @Given("I set query parameters:")
@@ -131,49 +121,186 @@ public class ApiStepDefinitions extends Common {
 
     @When("I send a {string} request to {string}")
     public void iSendARequestTo(String method, String endpointPath) {
-        String endpoint = getApiPathFromYaml(endpointPath);
-        // Handling path parameters
-        if (!apiHelper.getPathParams().isEmpty()) {
-            for (Map.Entry<String, String> entry : apiHelper.getPathParams().entrySet()) {
-                endpoint = endpoint.replace("{" + entry.getKey() + "}", entry.getValue());
+        response = apiHelper.sendRequest(method, resolveEndpoint(endpointPath), endpointPath);
+    }
+
+    @When("I send {int} {string} requests to {string} with concurrency {int}")
+    public void iSendRequestsWithConcurrency(int requests, String method, String endpointPath, int concurrency) {
+        LoadTestResult result = apiHelper.sendLoad(method, resolveEndpoint(endpointPath), requests, concurrency, 0, concurrency);
+        ScenarioContext.current().setLoadTestResult(result);
+        ScenarioContext.current().getScenario().log("Load test: " + result);
+    }
+
+    @When("I send {int} {string} requests to {string} with concurrency {int} at {int} requests per second")
+    public void iSendRequestsAtRate(int requests, String method, String endpointPath, int concurrency, int requestsPerSecond) {
+        LoadTestResult result = apiHelper.sendLoad(method, resolveEndpoint(endpointPath), requests, concurrency, requestsPerSecond, concurrency);
+        ScenarioContext.current().setLoadTestResult(result);
+        ScenarioContext.current().getScenario().log("Load test: " + result);
+    }
+
+    @When("I stream a {string} request to {string} and expect every element of {string} to match JSON schema {string}")
+    public void iStreamARequestAndValidateElements(String method, String endpointPath, String arrayPath, String schemaPath) {
+        JsonStreamValidator validator = new JsonStreamValidator(arrayPath).expectSchema(schemaPath);
+        JsonStreamValidator.Result result = apiHelper.sendStreamingRequest(method, resolveEndpoint(endpointPath), endpointPath, validator);
+        ScenarioContext.current().getScenario().log("Streamed " + result);
+        SoftAssertions.check(result.isValid(), "{}", result);
+    }
+
+    @When("I send a {string} request to {string} for each row of {string} with concurrency {int}")
+    public void iSendARequestForEachRow(String method, String endpointPath, String dataFile, int concurrency) {
+        dataRunResult = apiHelper.sendForEachRow(method, resolveEndpoint(endpointPath), endpointPath, Paths.get(dataFile), concurrency);
+        ScenarioContext.current().getScenario().log("Data file " + dataFile + ": " + dataRunResult);
+    }
+
+    @When("I download a {string} request to {string}")
+    public void iDownloadARequestTo(String method, String endpointPath) {
+        download = apiHelper.download(method, resolveEndpoint(endpointPath), endpointPath);
+        ScenarioContext.current().getScenario().log("Downloaded " + download);
+    }
+
+    // Columns method, path and alias, plus an optional body sent with that request only
+    @When("I send the following requests concurrently:")
+    public void iSendTheFollowingRequestsConcurrently(DataTable requestsTable) {
+        List<String> columns = requestsTable.isEmpty() ? List.of() : requestsTable.row(0);
+        for (String required : List.of("alias", "method", "path")) {
+            if (!columns.contains(required)) {
+                SoftAssertions.abort("The concurrent requests table needs a '{}' column, it has {}", required, columns);
             }
         }
-
-        // Handling query parameters
-        if (!apiHelper.getQueryParams().isEmpty()) {
-            StringJoiner queryParamString = new StringJoiner("&", "?", "");
-            for (Map.Entry<String, String> entry : apiHelper.getQueryParams().entrySet()) {
-                queryParamString.add(entry.getKey() + "=" + entry.getValue());
+        Set<String> aliases = new HashSet<>();
+        int rowNumber = 0;
+        for (Map<String, String> row : requestsTable.asMaps()) {
+            rowNumber++;
+            for (String required : List.of("alias", "method", "path")) {
+                if (row.get(required) == null || row.get(required).isBlank()) {
+                    SoftAssertions.abort("Row {} of the concurrent requests table has no {}", rowNumber, required);
+                }
             }
-            endpoint += queryParamString.toString();
+            // Responses are kept by alias, so a repeated one would hide the response of an earlier row
+            if (!aliases.add(row.get("alias"))) {
+                SoftAssertions.abort("Alias '{}' is used by more than one row of the concurrent requests table", row.get("alias"));
+            }
+        }
+        List<ApiTestHelper.NamedRequest> requests = new ArrayList<>();
+        for (Map<String, String> row : requestsTable.asMaps()) {
+            String endpointPath = row.get("path");
+            requests.add(new ApiTestHelper.NamedRequest(row.get("alias"), row.get("method"), resolveEndpoint(endpointPath),
+                    endpointPath, row.get("body")));
         }
+        long start = System.nanoTime();
+        namedResponses.putAll(apiHelper.sendConcurrently(requests));
+        ScenarioContext.current().getScenario().log("Sent " + requests.size() + " requests concurrently in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+        for (ApiTestHelper.NamedRequest request : requests) {
+            Response named = namedResponses.get(request.getAlias());
+            ScenarioContext.current().getScenario().log(request.getAlias() + ": status " + named.getStatusCode()
+                    + " in " + named.getTime() + " ms");
+        }
+    }
 
-        response = apiHelper.sendRequest(method, endpoint);
+    // Makes a response of the concurrent requests the current one, for the other response steps
+    @Given("I use the response {string}")
+    public void iUseTheResponse(String alias) {
+        response = namedResponse(alias);
+    }
+
+    // Resolves the path name from apiPaths.yaml and applies the current path and query parameters
+    private String resolveEndpoint(String endpointPath) {
+        return ApiTestHelper.buildEndpoint(getApiPathFromYaml(endpointPath), apiHelper.getPathParams(), apiHelper.getQueryParams());
     }
 
     @Then("I expect the response status code to be {int}")
     public void iExpectTheResponseStatusCodeToBe(int statusCode) {
-        Assert.assertTrue(ApiTestHelper.verifyStatusCode(response, statusCode),"Status code is not as expected");
+        SoftAssertions.check(ApiTestHelper.verifyStatusCode(response, statusCode),
+                "Status code is {}, expected {}", response.getStatusCode(), statusCode);
     }
 
     @Then("I expect the response to contain field {string} with value {string}")
     public void iExpectTheResponseToContainFieldWithValue(String jsonPath, String expectedValue) {
-        Assert.assertTrue(ApiTestHelper.verifyResponseField(response, jsonPath, expectedValue),"Response field value is not as expected");
+        SoftAssertions.check(ApiTestHelper.verifyResponseField(response, jsonPath, expectedValue),
+                "Response field {} is not {}", jsonPath, expectedValue);
+    }
+
+    @Then("I expect the response {string} status code to be {int}")
+    public void iExpectTheNamedResponseStatusCodeToBe(String alias, int statusCode) {
+        Response named = namedResponse(alias);
+        SoftAssertions.check(ApiTestHelper.verifyStatusCode(named, statusCode),
+                "Status code of {} is {}, expected {}", alias, named.getStatusCode(), statusCode);
+    }
+
+    @Then("I expect the response {string} to contain field {string} with value {string}")
+    public void iExpectTheNamedResponseToContainFieldWithValue(String alias, String jsonPath, String expectedValue) {
+        SoftAssertions.check(ApiTestHelper.verifyResponseField(namedResponse(alias), jsonPath, expectedValue),
+                "Response field {} of {} is not {}", jsonPath, alias, expectedValue);
+    }
+
+    private Response namedResponse(String alias) {
+        Response named = namedResponses.get(alias);
+        if (named == null) {
+            SoftAssertions.abort("No response named {}; sent {}", alias, namedResponses.keySet());
+        }
+        return named;
+    }
+
+    @Then("I expect the download status code to be {int}")
+    public void iExpectTheDownloadStatusCodeToBe(int statusCode) {
+        SoftAssertions.checkEquals(download.getStatusCode(), statusCode, "Download status code is not as expected.");
+    }
+
+    @Then("I expect the download to contain {string}")
+    public void iExpectTheDownloadToContain(String content) {
+        SoftAssertions.check(ApiTestHelper.verifyDownloadContains(download, content), "Download does not contain {}", content);
+    }
+
+    @Then("I expect the download to contain field {string} with value {string}")
+    public void iExpectTheDownloadToContainFieldWithValue(String jsonPath, String expectedValue) {
+        SoftAssertions.check(ApiTestHelper.verifyDownloadField(download, jsonPath, expectedValue),
+                "Download field {} is not {}", jsonPath, expectedValue);
+    }
+
+    @Then("I expect every element of {string} in the download to match JSON schema {string}")
+    public void iExpectEveryElementOfTheDownloadToMatchJsonSchema(String arrayPath, String schemaPath) {
+        JsonStreamValidator.Result result = ApiTestHelper.validateElements(download, new JsonStreamValidator(arrayPath).expectSchema(schemaPath));
+        SoftAssertions.check(result.isValid(), "{}", result);
+    }
+
+    @Then("I expect the download SHA-256 checksum to be {string}")
+    public void iExpectTheDownloadChecksumToBe(String sha256) {
+        SoftAssertions.check(download.hasSha256(sha256), "Download SHA-256 is {}, expected {}", download.getSha256(), sha256);
+    }
+
+    @Then("I expect the download size to be {long} bytes")
+    public void iExpectTheDownloadSizeToBe(long size) {
+        SoftAssertions.checkEquals(download.getSize(), size, "Download size is not as expected.");
+    }
+
+    @Then("I expect the download time to first byte to be less than {long} milliseconds")
+    public void iExpectTheDownloadTimeToFirstByteToBeLessThan(long maxTimeMillis) {
+        SoftAssertions.check(download.getTimeToFirstByteMillis() < maxTimeMillis,
+                "Time to first byte {} ms is not less than {} ms", download.getTimeToFirstByteMillis(), maxTimeMillis);
+    }
+
+    @Then("I expect the download time to last byte to be less than {long} milliseconds")
+    public void iExpectTheDownloadTimeToLastByteToBeLessThan(long maxTimeMillis) {
+        SoftAssertions.check(download.getTimeToLastByteMillis() < maxTimeMillis,
+                "Time to last byte {} ms is not less than {} ms", download.getTimeToLastByteMillis(), maxTimeMillis);
     }
 
     @Then("I expect the response to contain {string}")
     public void iExpectTheResponseToContain(String content) {
-        Assert.assertTrue( ApiTestHelper.verifyResponseContains(response, content),"Response does not contain expected content");
+        SoftAssertions.check(ApiTestHelper.verifyResponseContains(response, content), "Response does not contain {}", content);
     }
 
     @Then("I expect the response time to be less than {long} milliseconds")
     public void iExpectTheResponseTimeToBeLessThan(long maxTimeMillis) {
-        Assert.assertTrue(ApiTestHelper.verifyResponseTime(response, maxTimeMillis),"Response time is greater than expected");
+        SoftAssertions.check(ApiTestHelper.verifyResponseTime(response, maxTimeMillis),
+                "Response time {} ms is greater than {} ms", response.getTime(), maxTimeMillis);
     }
 
     @Then("I expect the response header {string} to be {string}")
     public void iExpectTheResponseHeaderToBe(String header, String expectedValue) {
-        Assert.assertTrue(ApiTestHelper.verifyResponseHeader(response, header, expectedValue),"Response header value is not as expected");
+        SoftAssertions.check(ApiTestHelper.verifyResponseHeader(response, header, expectedValue),
+                "Response header {} is {}, expected {}", header, response.getHeader(header), expectedValue);
     }
 
     @Given("I extract value from response using JSON path {string}")
@@ -186,6 +313,46 @@ public class ApiStepDefinitions extends Common {
         ApiTestHelper.validateJsonSchema(response, schemaPath);
     }
 
+    @Then("I expect every element of {string} to match JSON schema {string}")
+    public void iExpectEveryElementToMatchJsonSchema(String arrayPath, String schemaPath) {
+        assertElements(new JsonStreamValidator(arrayPath).expectSchema(schemaPath));
+    }
+
+    @Then("I expect every element of {string} to have field {string}")
+    public void iExpectEveryElementToHaveField(String arrayPath, String fieldPath) {
+        assertElements(new JsonStreamValidator(arrayPath).expectField(fieldPath));
+    }
+
+    @Then("I expect every element of {string} to have field {string} with value {string}")
+    public void iExpectEveryElementToHaveFieldWithValue(String arrayPath, String fieldPath, String expectedValue) {
+        assertElements(new JsonStreamValidator(arrayPath).expectFieldValue(fieldPath, expectedValue));
+    }
+
+    @Then("I expect the array {string} to have {int} elements")
+    public void iExpectTheArrayToHaveElements(String arrayPath, int expectedElements) {
+        JsonStreamValidator.Result result = ApiTestHelper.validateElements(response, new JsonStreamValidator(arrayPath));
+        if (!result.isFound()) {
+            SoftAssertions.fail("{}", result);
+            return;
+        }
+        SoftAssertions.checkEquals(result.getElements(), (long) expectedElements, "Number of elements in '{}' is not as expected.", arrayPath);
+    }
+
+    private void assertElements(JsonStreamValidator validator) {
+        JsonStreamValidator.Result result = ApiTestHelper.validateElements(response, validator);
+        SoftAssertions.check(result.isValid(), "{}", result);
+    }
+
+    @Then("I expect every data row to pass")
+    public void iExpectEveryDataRowToPass() {
+        SoftAssertions.check(dataRunResult.allPassed(), "Data rows failed: {}", dataRunResult);
+    }
+
+    @Then("I expect at least {double} percent of data rows to pass")
+    public void iExpectAtLeastPercentOfDataRowsToPass(double percent) {
+        SoftAssertions.check(dataRunResult.getPassRate() * 100 >= percent, "Too many data rows failed: {}", dataRunResult);
+    }
+
     @Then("I extract XML from the response and store it")
     public void iExtractXmlFromTheResponse() {
         XmlPath xmlPath = ApiTestHelper.getXmlPath(response);
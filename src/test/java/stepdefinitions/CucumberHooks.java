@@ -1,53 +1,140 @@
 package stepdefinitions;
 
 import common.Common;
+import io.cucumber.java.After;
+import io.cucumber.java.AfterStep;
 import io.cucumber.java.Before;
-import io.restassured.response.Response;
+import io.cucumber.java.Scenario;
 import utils.ApiTestHelper;
+import utils.Cassette;
+import utils.ConnectionPool;
 import utils.DatabaseHelper;
+import utils.ParsedResponse;
+import utils.SoftAssertions;
+import utils.StepTimings;
+
+import java.util.concurrent.TimeUnit;
 
 public class CucumberHooks {
-    private static ApiTestHelper apiHelper;
-    private static DatabaseHelper databaseHelper;
-    public static String token;
     private Common common = new Common();
-    @Before
-    public void setupApiHelper() {
-        apiHelper = new ApiTestHelper();
+    @Before(order = 0)
+    public void setupApiHelper(Scenario scenario) {
+        ScenarioContext context = ScenarioContext.start(scenario);
+        // Checks fail at the end of the scenario instead of at the first broken one
+        SoftAssertions.begin(scenario.getSourceTagNames().contains("@SoftAssertions") || Boolean.getBoolean("assertions.soft"));
+        ApiTestHelper apiHelper = new ApiTestHelper();
         // Fetching base URL from YAML
         String baseUri = common.getApiPathFromYaml("testUrl");
         apiHelper.setBaseURI(baseUri);
+        apiHelper.useCassette(Cassette.nameOf(scenario.getUri()));
+        context.setApiHelper(apiHelper);
     }
-    @Before(value = "@DatabaseSetup")
+    @Before(value = "@DatabaseSetup", order = 1)
     public void setupDatabaseHelper() {
         // Fetching database configuration from YAML
         String url = common.getQueryFromYaml("databaseUrl");
         String username = common.getQueryFromYaml("databaseUsername");
         String password = common.getQueryFromYaml("databasePassword");
-        databaseHelper = new DatabaseHelper(url, username, password);
+        ConnectionPool pool = ConnectionPool.getOrCreate(url, username, password,
+                Integer.parseInt(common.getQueryFromYaml("databasePoolSize")),
+                Long.parseLong(common.getQueryFromYaml("databasePoolMaxWaitMillis")),
+                Long.parseLong(common.getQueryFromYaml("databaseLeakThresholdMillis")),
+                Integer.parseInt(common.getQueryFromYaml("databaseStatementCacheSize")));
+        ScenarioContext context = ScenarioContext.current();
+        DatabaseHelper databaseHelper = new DatabaseHelper(pool, context.getScenario().getName());
+        databaseHelper.setStreamingFetchSize(Integer.parseInt(common.getQueryFromYaml("databaseStreamingFetchSize")));
+        databaseHelper.setBulkInsertOptions(Integer.parseInt(common.getQueryFromYaml("databaseBulkChunkSize")),
+                Integer.parseInt(common.getQueryFromYaml("databaseBulkRowsPerStatement")),
+                Boolean.parseBoolean(common.getQueryFromYaml("databaseBulkLoadLocalInfile")));
+        context.setDatabaseHelper(databaseHelper);
+
+        // none keeps the old behaviour; transaction rolls every scenario back; schema additionally gives
+        // each worker thread its own copy of the template schema for scenarios that change tables
+        long start = System.nanoTime();
+        String isolation = common.getQueryFromYaml("databaseIsolation");
+        if ("schema".equalsIgnoreCase(isolation)) {
+            databaseHelper.useSchemaClone(common.getQueryFromYaml("databaseTemplateSchema"));
+        }
+        if ("transaction".equalsIgnoreCase(isolation) || "schema".equalsIgnoreCase(isolation)) {
+            databaseHelper.beginIsolation();
+            context.getScenario().log("Database isolation (" + isolation + ") ready in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        }
+    }
+    @After(value = "@DatabaseSetup", order = 1)
+    public void returnDatabaseConnection() {
+        ScenarioContext context = ScenarioContext.current();
+        DatabaseHelper databaseHelper = context.getDatabaseHelper();
+        if (databaseHelper != null) {
+            context.getScenario().log("Prepared statement cache: " + databaseHelper.getStatementCacheStats());
+            long start = System.nanoTime();
+            databaseHelper.endIsolation();
+            String isolation = common.getQueryFromYaml("databaseIsolation");
+            if ("schema".equalsIgnoreCase(isolation)
+                    && (databaseHelper.isSchemaChanged() || context.getScenario().getSourceTagNames().contains("@SchemaReset"))) {
+                databaseHelper.rebuildSchemaClone(common.getQueryFromYaml("databaseTemplateSchema"));
+            }
+            if (!"none".equalsIgnoreCase(isolation)) {
+                context.getScenario().log("Database reset in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+            }
+            databaseHelper.closeConnection();
+        }
     }
     public static DatabaseHelper getDatabaseHelper() {
-        return databaseHelper;
+        return ScenarioContext.current().getDatabaseHelper();
     }
     public static ApiTestHelper getApiHelper() {
-        return apiHelper;
+        return ScenarioContext.current().getApiHelper();
     }
-    @Before(value = "@Login")
-    public void loginAndSetToken() {
-        // Fetching login path and body from YAML
+    public static String getToken() {
+        return ScenarioContext.current().getToken();
+    }
+    @Before(value = "@Login", order = 2)
+    public void loginAndSetToken(Scenario scenario) {
+        ApiTestHelper apiHelper = getApiHelper();
+        // Fetching login path and credentials from YAML
         String loginPath = common.getApiPathFromYaml("loginPath");
         String email = common.getApiPathFromYaml("email");
         String password = common.getApiPathFromYaml("password");
+        long tokenTtlMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(common.getApiPathFromYaml("tokenTtlSeconds")));
 
-        String body = "{\"email\": \"" + email + "\", \"password\": \"" + password + "\"}";
-        apiHelper.setBody(body);
+        // The token is shared across scenarios until it expires; @FreshLogin forces a new login
+        boolean fresh = scenario.getSourceTagNames().contains("@FreshLogin");
+        String token = apiHelper.login(loginPath, email, password, tokenTtlMillis, fresh);
+        ScenarioContext.current().setToken(token);
+    }
 
-        Response response = apiHelper.sendRequest("POST", loginPath);
+    // Attaches the phase timings of the step that just ran, if it sent requests or queries
+    @AfterStep
+    public void attachStepTimings(Scenario scenario) {
+        StepTimings.StepReport timings = StepTimings.takeLastStep();
+        if (timings != null) {
+            scenario.attach(timings.toString(), "text/plain", "Step timings");
+        }
+    }
+
+    // Runs before the other After hooks, which still run when it fails the scenario
+    @After(order = 2)
+    public void assertSoftAssertions(Scenario scenario) {
+        SoftAssertions assertions = SoftAssertions.end();
+        if (assertions != null && !assertions.getFailures().isEmpty()) {
+            scenario.log("Soft assertion failures:\n" + String.join("\n", assertions.getFailures()));
+            assertions.assertAll();
+        }
+    }
 
-        // Extract the token from the response
-        token = response.jsonPath().get("token");
+    // After the soft assertions, so the files of a scenario that failed on them are kept too
+    @After(order = 1)
+    public void deleteDownloads(Scenario scenario) {
+        ApiTestHelper apiHelper = ScenarioContext.current().getApiHelper();
+        if (apiHelper != null) {
+            apiHelper.deleteDownloads(scenario.isFailed());
+        }
+    }
 
-        // Set the bearer token to be used in subsequent requests
-        apiHelper.setBearerToken(token);
+    @After(order = 0)
+    public void tearDownScenarioContext() {
+        ParsedResponse.clear();
+        ScenarioContext.end();
     }
 }
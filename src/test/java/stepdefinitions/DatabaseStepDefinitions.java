@@ -1,16 +1,24 @@
 package stepdefinitions;
 
 import common.Common;
+import io.cucumber.datatable.DataTable;
 import io.cucumber.java.en.Given;
 import io.cucumber.java.en.Then;
 import org.testng.Assert;
+import utils.BulkInsert;
 import utils.DatabaseHelper;
-
+import utils.LoadTestResult;
+import utils.NamedQuery;
+import utils.RowVisitor;
+import utils.SoftAssertions;
+import utils.TableDiff;
+
+import java.math.BigDecimal;
+import java.nio.file.Paths;
 import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
-import java.sql.SQLException;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -34,7 +42,7 @@ public class DatabaseStepDefinitions extends Common {
     public void iExpectTheQueryResultToBeNonEmpty() {
         Assert.assertNotNull(currentResultSet, "Result set is null");
         try {
-            Assert.assertTrue(currentResultSet.next(), "Result set is empty");
+            SoftAssertions.check(currentResultSet.next(), "Result set is empty");
         } catch (Exception e) {
             throw new AssertionError("Error while asserting result set: " + e.getMessage(), e);
         }
@@ -61,54 +69,102 @@ public class DatabaseStepDefinitions extends Common {
         updateResult = dbHelper.executeUpdate(query);
         Assert.assertTrue(updateResult, "Expected update to be successful, but it was not.");
     }
+    @Given("I execute the query named {string} with parameters:")
+    public void iExecuteTheQueryNamedWithParameters(String queryName, DataTable parameters) {
+        String query = getQueryFromYaml(queryName);
+        Map<String, Object> values = NamedQuery.convertValues(parameters.asMap(String.class, String.class));
+        this.currentQueryResults = dbHelper.executeNamedQuery(query, values);
+        Assert.assertNotNull(this.currentQueryResults, "Results should not be null.");
+    }
+
+    @Given("I execute an update named {string} with parameters:")
+    public void iExecuteUpdateNamedWithParameters(String updateName, DataTable parameters) {
+        String query = getQueryFromYaml(updateName);
+        Map<String, Object> values = NamedQuery.convertValues(parameters.asMap(String.class, String.class));
+        updateResult = dbHelper.executeNamedUpdate(query, values);
+        Assert.assertTrue(updateResult, "Expected update to be successful, but it was not.");
+    }
     @Then("I expect the update to be successful")
     public void iExpectTheUpdateToBeSuccessful() {
-        Assert.assertTrue(updateResult, "Update was not successful");
+        SoftAssertions.check(updateResult, "Update was not successful");
     }
     @Given("I execute the query named {string} and expect {int} rows")
     public void iExecuteTheQueryAndExpectRows(String queryName, int expectedRowCount) {
         String query = getQueryFromYaml(queryName);
-        List<Object[]> results = dbHelper.executeQueryAndGetResults(query);
-        Assert.assertEquals(results.size(), expectedRowCount, "Row count does not match expected value.");
+        int rowCount = dbHelper.getRowCount(query);
+        SoftAssertions.checkEquals(rowCount, expectedRowCount, "Row count of query {} does not match.", queryName);
     }
 
     @Given("I check if row exists for query named {string}")
     public void iCheckIfRowExistsForQuery(String queryName) {
         String query = getQueryFromYaml(queryName);
         boolean exists = dbHelper.checkIfRowExists(query);
-        Assert.assertTrue(exists, "Expected row to exist, but it does not.");
+        SoftAssertions.check(exists, "Expected a row for query {}, but there is none.", queryName);
     }
 
     @Given("I verify table {string} exists")
     public void iVerifyTableExists(String tableName) {
         boolean exists = dbHelper.verifyTableExistence(tableName);
-        Assert.assertTrue(exists, "Expected table to exist, but it does not.");
+        SoftAssertions.check(exists, "Expected table {} to exist, but it does not.", tableName);
     }
 
     @Given("I verify column {string} in table {string} has data type {string}")
     public void iVerifyColumnDataType(String columnName, String tableName, String expectedDataType) {
         String dataType = dbHelper.getColumnDataType(tableName, columnName);
         Assert.assertNotNull(dataType, "Data type is null for the specified column.");
-        Assert.assertEquals(dataType, expectedDataType, "Data type does not match expected value.");
+        SoftAssertions.checkEquals(dataType, expectedDataType, "Data type of {}.{} does not match.", tableName, columnName);
     }
     @Then("I verify that the query named {string} results in {int} rows")
     public void iVerifyRowCount(String queryName, int expectedRowCount) {
         String query = getQueryFromYaml(queryName);
         int rowCount = dbHelper.getRowCount(query);
-        Assert.assertEquals(rowCount, expectedRowCount, "The number of rows returned by the query does not match the expected count.");
+        SoftAssertions.checkEquals(rowCount, expectedRowCount, "The number of rows returned by query {} does not match.", queryName);
+    }
+
+    @Then("I verify that every row of the query named {string} has column {string} equal to {string}")
+    public void iVerifyEveryRowHasColumnValue(String queryName, String columnName, String expectedValue) {
+        String query = getQueryFromYaml(queryName);
+        RowVisitor.ColumnMatcher matcher = RowVisitor.columnEquals(columnName, expectedValue);
+        dbHelper.streamQuery(query, Map.of(), matcher);
+        SoftAssertions.check(matcher.allMatch(), "Not every row has {}={}: {}", columnName, expectedValue, matcher.getFirstMismatch());
+    }
+
+    @Then("I verify that the query named {string} has {int} rows where column {string} equals {string}")
+    public void iVerifyMatchingRowCount(String queryName, int expectedRowCount, String columnName, String expectedValue) {
+        String query = getQueryFromYaml(queryName);
+        RowVisitor.ColumnMatcher matcher = RowVisitor.columnEquals(columnName, expectedValue);
+        dbHelper.streamQuery(query, Map.of(), matcher);
+        SoftAssertions.checkEquals(matcher.getMatches(), (long) expectedRowCount, "Number of rows with {}={} does not match.", columnName, expectedValue);
+    }
+
+    @Then("I verify that the sum of column {string} for the query named {string} is {string}")
+    public void iVerifyColumnSum(String columnName, String queryName, String expectedSum) {
+        String query = getQueryFromYaml(queryName);
+        RowVisitor.ColumnAggregate aggregate = RowVisitor.aggregate(columnName);
+        dbHelper.streamQuery(query, Map.of(), aggregate);
+        SoftAssertions.check(aggregate.getSum().compareTo(new BigDecimal(expectedSum)) == 0,
+                "Sum of column {} is {} but expected {}", columnName, aggregate.getSum(), expectedSum);
+    }
+
+    @Given("I fetch the first {int} rows of the query named {string}")
+    public void iFetchTheFirstRows(int rowLimit, String queryName) {
+        String query = getQueryFromYaml(queryName);
+        RowVisitor.FirstRows firstRows = RowVisitor.firstRows(rowLimit);
+        dbHelper.streamQuery(query, Map.of(), firstRows, rowLimit);
+        this.currentQueryResults = firstRows.getRows();
     }
 
     @Then("I verify that the query named {string} results in column {string} having value {string}")
     public void iVerifyColumnValue(String queryName, String columnName, String expectedValue) {
         String query = getQueryFromYaml(queryName);
         boolean columnValueMatches = dbHelper.verifyColumnValue(query, columnName, expectedValue);
-        Assert.assertTrue(columnValueMatches, "The value of column '" + columnName + "' does not match the expected value '" + expectedValue + "'.");
+        SoftAssertions.check(columnValueMatches, "The value of column '{}' does not match the expected value '{}'.", columnName, expectedValue);
     }
 
     @Given("I verify column {string} is a primary key in table {string}")
     public void iVerifyPrimaryKey(String columnName, String tableName) {
         boolean isPrimaryKey = dbHelper.verifyPrimaryKey(tableName, columnName);
-        Assert.assertTrue(isPrimaryKey, "Column is not a primary key as expected.");
+        SoftAssertions.check(isPrimaryKey, "Column {} is not a primary key of {} as expected.", columnName, tableName);
     }
 
     @Given("I list unique constraint columns for table {string}")
@@ -128,7 +184,7 @@ public class DatabaseStepDefinitions extends Common {
     public void iCloseDatabaseConnection() {
         dbHelper.closeConnection();
         boolean isValid = dbHelper.isConnectionValid();
-        Assert.assertFalse(isValid, "Database connection did not close as expected.");
+        SoftAssertions.check(!isValid, "Database connection did not close as expected.");
     }
 
     @Then("I verify the database metadata")
@@ -141,7 +197,7 @@ public class DatabaseStepDefinitions extends Common {
     public void iListAllTablesAndExpectMinimum(int expectedTableCount) {
         List<String> tables = dbHelper.listAllTables();
         Assert.assertNotNull(tables, "Failed to retrieve list of tables.");
-        Assert.assertTrue(tables.size() >= expectedTableCount, "Number of tables is less than expected.");
+        SoftAssertions.check(tables.size() >= expectedTableCount, "Found {} tables, expected at least {}.", tables.size(), expectedTableCount);
     }
 
     @Given("I execute a prepared query named {string} with parameters {string}")
@@ -155,7 +211,7 @@ public class DatabaseStepDefinitions extends Common {
 
     @Then("I expect the result to have {int} rows")
     public void iExpectResultToHaveRows(int expectedRowCount) {
-        Assert.assertEquals(this.currentQueryResults.size(), expectedRowCount, "Result row count does not match expected value.");
+        SoftAssertions.checkEquals(this.currentQueryResults.size(), expectedRowCount, "Result row count does not match.");
     }
 
     @Then("I expect row {int} in the result to contain {string}")
@@ -163,7 +219,7 @@ public class DatabaseStepDefinitions extends Common {
         Assert.assertTrue(rowIndex >= 0 && rowIndex < this.currentQueryResults.size(), "Row index is out of bounds.");
         Object[] row = this.currentQueryResults.get(rowIndex);
         for (int i = 0; i < expectedValues.size(); i++) {
-            Assert.assertEquals(row[i].toString(), expectedValues.get(i), "Mismatch in row " + rowIndex + " at column " + i);
+            SoftAssertions.checkEquals(String.valueOf(row[i]), expectedValues.get(i), "Mismatch in row {} at column {}.", rowIndex, i);
         }
     }
     @Given("I execute a callable statement {string} with parameters {string}")
@@ -182,13 +238,31 @@ public class DatabaseStepDefinitions extends Common {
     public void iExecutePerformanceTestForQuery(String queryName, int maxExecutionTime) {
         String query = getQueryFromYaml(queryName);
         long executionTime = dbHelper.getExecutionTimeForQuery(query);
-        Assert.assertTrue(executionTime < maxExecutionTime, "Query execution time should be less than " + maxExecutionTime + " milliseconds.");
+        SoftAssertions.check(executionTime < maxExecutionTime, "Query execution time {} ms is not below {} ms.", executionTime, maxExecutionTime);
     }
 
     @Given("I run a load test with query {string} for {int} executions")
     public void iRunLoadTest(String queryName, int numberOfExecutions) {
         String query = getQueryFromYaml(queryName);
-        dbHelper.runLoadTest(query, numberOfExecutions);
+        LoadTestResult loadTestResult = dbHelper.runLoadTest(query, numberOfExecutions);
+        ScenarioContext.current().setLoadTestResult(loadTestResult);
+        SoftAssertions.check(loadTestResult.getErrors() == 0, "Load test had errors: {}", loadTestResult);
+    }
+
+    @Given("I run a load test with query {string} for {int} executions with {int} workers")
+    public void iRunConcurrentLoadTest(String queryName, int numberOfExecutions, int workers) {
+        String query = getQueryFromYaml(queryName);
+        LoadTestResult loadTestResult = dbHelper.runLoadTest(query, numberOfExecutions, 0, workers, 0, workers);
+        ScenarioContext.current().setLoadTestResult(loadTestResult);
+        ScenarioContext.current().getScenario().log("Load test: " + loadTestResult);
+    }
+
+    @Given("I run a load test with query {string} for {int} seconds with {int} workers at {int} qps")
+    public void iRunRateLimitedLoadTest(String queryName, int seconds, int workers, int queriesPerSecond) {
+        String query = getQueryFromYaml(queryName);
+        LoadTestResult loadTestResult = dbHelper.runLoadTest(query, 0, seconds * 1000L, workers, queriesPerSecond, workers);
+        ScenarioContext.current().setLoadTestResult(loadTestResult);
+        ScenarioContext.current().getScenario().log("Load test: " + loadTestResult);
     }
 
     @Given("I truncate table {string}")
@@ -201,30 +275,63 @@ public class DatabaseStepDefinitions extends Common {
         dbHelper.insertTestData(tableName, data);
     }
 
-    @Given("I delete test data from table {string} with condition {string}")
-    public void iDeleteTestData(String tableName, String condition) {
-        dbHelper.deleteTestData(tableName, condition);
+    @Given("I bulk insert into table {string}:")
+    public void iBulkInsertIntoTable(String tableName, DataTable rows) {
+        List<List<String>> cells = rows.asLists();
+        List<Object[]> values = new ArrayList<>();
+        for (List<String> row : cells.subList(1, cells.size())) {
+            values.add(row.stream().map(NamedQuery::convertValue).toArray());
+        }
+        logBulkInsert(dbHelper.bulkInsert(tableName, cells.get(0), values));
+    }
+
+    @Given("I bulk insert into table {string} from file {string}")
+    public void iBulkInsertIntoTableFromFile(String tableName, String dataFile) {
+        logBulkInsert(dbHelper.bulkInsertFromFile(tableName, Paths.get(dataFile)));
+    }
+
+    @Given("I load database fixture {string}")
+    public void iLoadDatabaseFixture(String fixtureFile) {
+        dbHelper.loadFixture(Paths.get(fixtureFile)).forEach(this::logBulkInsert);
+    }
+
+    private void logBulkInsert(BulkInsert.Result result) {
+        ScenarioContext.current().getScenario().log("Bulk insert " + result);
+    }
+
+    @Given("I delete test data from table {string} where {string} is {string}")
+    public void iDeleteTestData(String tableName, String column, String value) {
+        dbHelper.deleteTestData(tableName, column, NamedQuery.convertValue(value));
+    }
+
+    @Given("I delete test data from table {string} where:")
+    public void iDeleteTestDataWhere(String tableName, DataTable keyValues) {
+        Map<String, Object> values = NamedQuery.convertValues(keyValues.asMap(String.class, String.class));
+        dbHelper.deleteTestData(tableName, values);
     }
 
     @Then("I verify that result sets {string} and {string} are equal")
-    public void iVerifyResultSetsEquality(String queryName1, String queryName2) throws SQLException {
+    public void iVerifyResultSetsEquality(String queryName1, String queryName2) {
         String query1 = getQueryFromYaml(queryName1);
         String query2 = getQueryFromYaml(queryName2);
 
-        List<Object[]> results1 = dbHelper.executeQueryAndGetResults(query1);
-        List<Object[]> results2 = dbHelper.executeQueryAndGetResults(query2);
-
-        Assert.assertEquals(results1.size(), results2.size(), "Result sets should have the same size.");
-
-        for (int i = 0; i < results1.size(); i++) {
-            Assert.assertTrue(Arrays.equals(results1.get(i), results2.get(i)), "Mismatch found in row " + i);
-        }
+        TableDiff.Result result = dbHelper.diffQueries(query1, query2);
+        ScenarioContext.current().getScenario().log("Result set comparison: " + result);
+        SoftAssertions.check(result.isEqual(), "Result sets should be equal: {}", result);
     }
 
     @Then("I verify that table data between {string} and {string} are equal")
     public void iVerifyTableDataEquality(String tableName1, String tableName2) {
-        boolean isEqual = dbHelper.compareTableData(tableName1, tableName2);
-        Assert.assertTrue(isEqual, "Table data should be equal.");
+        TableDiff.Result result = dbHelper.diffTables(tableName1, tableName2, TableDiff.Mode.MERGE);
+        ScenarioContext.current().getScenario().log("Table comparison: " + result);
+        SoftAssertions.check(result.isEqual(), "Table data should be equal: {}", result);
+    }
+
+    @Then("I verify that table data between {string} and {string} are equal using hash partitions")
+    public void iVerifyTableDataEqualityUsingHashPartitions(String tableName1, String tableName2) {
+        TableDiff.Result result = dbHelper.diffTables(tableName1, tableName2, TableDiff.Mode.HASH);
+        ScenarioContext.current().getScenario().log("Table comparison: " + result);
+        SoftAssertions.check(result.isEqual(), "Table data should be equal: {}", result);
     }
 
 }
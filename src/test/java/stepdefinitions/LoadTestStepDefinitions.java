@@ -0,0 +1,41 @@
+package stepdefinitions;
+
+import io.cucumber.java.en.Then;
+import org.testng.Assert;
+import utils.LoadTestResult;
+import utils.SoftAssertions;
+
+// Assertions on the last database or API load test of the scenario
+public class LoadTestStepDefinitions {
+
+    private LoadTestResult loadTestResult() {
+        LoadTestResult result = ScenarioContext.current().getLoadTestResult();
+        Assert.assertNotNull(result, "No load test has been run in this scenario.");
+        return result;
+    }
+
+    @Then("I expect the load test {word} latency to be below {double} milliseconds")
+    public void iExpectLoadTestLatencyBelow(String statistic, double maxMillis) {
+        LoadTestResult result = loadTestResult();
+        double actual = result.getLatencyMillis(statistic);
+        SoftAssertions.check(actual < maxMillis, "Load test {} latency {} ms is not below {} ms: {}", statistic, actual, maxMillis, result);
+    }
+
+    @Then("I expect the load test throughput to be at least {double} queries/requests per second")
+    public void iExpectLoadTestThroughputAtLeast(double minThroughput) {
+        LoadTestResult result = loadTestResult();
+        SoftAssertions.check(result.getThroughputPerSecond() >= minThroughput, "Load test throughput is below {}/s: {}", minThroughput, result);
+    }
+
+    @Then("I expect the load test to have no errors")
+    public void iExpectLoadTestToHaveNoErrors() {
+        LoadTestResult result = loadTestResult();
+        SoftAssertions.check(result.getErrors() == 0, "Load test had errors: {}", result);
+    }
+
+    @Then("I expect the load test error rate to be below {double} percent")
+    public void iExpectLoadTestErrorRateBelow(double maxPercent) {
+        LoadTestResult result = loadTestResult();
+        SoftAssertions.check(result.getErrorRate() * 100 < maxPercent, "Load test error rate is not below {}%: {}", maxPercent, result);
+    }
+}
@@ -0,0 +1,80 @@
+package stepdefinitions;
+
+import io.cucumber.java.Scenario;
+import utils.ApiTestHelper;
+import utils.DatabaseHelper;
+import utils.LoadTestResult;
+
+/**
+ * Holds the mutable state of the scenario running on the current thread.
+ * Cucumber runs every scenario start to finish on a single thread, so a thread-local
+ * that is replaced in a Before hook and cleared in an After hook is effectively
+ * scenario scoped, including when scenarios run in parallel.
+ */
+public class ScenarioContext {
+    private static final ThreadLocal<ScenarioContext> CURRENT = new ThreadLocal<>();
+
+    private final Scenario scenario;
+    private ApiTestHelper apiHelper;
+    private DatabaseHelper databaseHelper;
+    private String token;
+    private LoadTestResult loadTestResult;
+
+    private ScenarioContext(Scenario scenario) {
+        this.scenario = scenario;
+    }
+
+    public static ScenarioContext start(Scenario scenario) {
+        ScenarioContext context = new ScenarioContext(scenario);
+        CURRENT.set(context);
+        return context;
+    }
+
+    public static ScenarioContext current() {
+        ScenarioContext context = CURRENT.get();
+        if (context == null) {
+            throw new IllegalStateException("No scenario is running on thread " + Thread.currentThread().getName());
+        }
+        return context;
+    }
+
+    public static void end() {
+        CURRENT.remove();
+    }
+
+    public Scenario getScenario() {
+        return scenario;
+    }
+
+    public ApiTestHelper getApiHelper() {
+        return apiHelper;
+    }
+
+    public void setApiHelper(ApiTestHelper apiHelper) {
+        this.apiHelper = apiHelper;
+    }
+
+    public DatabaseHelper getDatabaseHelper() {
+        return databaseHelper;
+    }
+
+    public void setDatabaseHelper(DatabaseHelper databaseHelper) {
+        this.databaseHelper = databaseHelper;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public void setToken(String token) {
+        this.token = token;
+    }
+
+    public LoadTestResult getLoadTestResult() {
+        return loadTestResult;
+    }
+
+    public void setLoadTestResult(LoadTestResult loadTestResult) {
+        this.loadTestResult = loadTestResult;
+    }
+}
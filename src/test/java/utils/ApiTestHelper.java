@@ -1,43 +1,94 @@
 package utils;
 
-import com.google.gson.JsonElement;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
-import com.google.gson.JsonSyntaxException;
+import com.github.fge.jsonschema.core.report.ProcessingReport;
+import common.Common;
 import io.restassured.RestAssured;
+import io.restassured.authentication.AuthenticationScheme;
+import io.restassured.authentication.ExplicitNoAuthScheme;
+import io.restassured.authentication.NoAuthScheme;
 import io.restassured.builder.RequestSpecBuilder;
 import io.restassured.http.ContentType;
 import io.restassured.path.xml.XmlPath;
 import io.restassured.response.Response;
+import io.restassured.specification.FilterableRequestSpecification;
 import io.restassured.specification.RequestSpecification;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.testng.Assert;
 
 import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-
-import static io.restassured.module.jsv.JsonSchemaValidator.matchesJsonSchemaInClasspath;
+import java.util.StringJoiner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 public class ApiTestHelper {
 
     private RequestSpecification request;
     private Map<String, String> currentPathParams = new HashMap<>();
     private Map<String, String> currentQueryParams = new HashMap<>();
+    private String baseUri;
+    private String bearerToken;
+    // Set by login(); lets sendRequest renew the token once when a request sent with it comes back 401
+    private String loginKey;
+    private String loginToken;
+    private Supplier<Response> loginCall;
+    private long loginTtlMillis;
+    // Size of the body set with setBody, for the request metrics; -1 when it is not a string or bytes
+    private long requestBodyBytes;
+    // Cassette the exchanges are recorded to or replayed from, null when cassettes are off
+    private String cassetteName;
+    // Files written by download(), removed by deleteDownloads() when the scenario ends
+    private final List<Path> downloads = new ArrayList<>();
     private static final Logger logger = LogManager.getLogger(ApiTestHelper.class);
+    private static final String EXPECT_PREFIX = "expect.";
+    private static final int MAX_CONCURRENT_REQUESTS = 32;
+    private static final Path DOWNLOAD_DIRECTORY = Paths.get("target", "downloads");
 
     public ApiTestHelper() {
-        this.request = new RequestSpecBuilder().setContentType(ContentType.JSON).build();
+        this.request = new RequestSpecBuilder()
+                .setContentType(ContentType.JSON)
+                .setConfig(HttpClientPool.getShared().getConfig())
+                .build();
     }
 
     public void setBaseURI(String baseUri) {
         try {
             this.request.baseUri(baseUri);
+            this.baseUri = baseUri;
         } catch (Exception e) {
-            logger.error("Error setting base URI: " + baseUri, e);
-            Assert.fail("Error setting base URI: " + baseUri);
+            logger.error("Error setting base URI: {}", baseUri, e);
+            SoftAssertions.abort("Error setting base URI: {}", baseUri);
+        }
+    }
+
+    // Points the base URI at the replay server, or records the exchanges, depending on the cassette mode.
+    // Call after setBaseURI.
+    public void useCassette(String cassetteName) {
+        if (Cassette.getMode() == Cassette.Mode.OFF) {
+            return;
         }
+        this.cassetteName = cassetteName;
+        Cassette.record(this.request, cassetteName);
+        setBaseURI(Cassette.baseUri(this.baseUri, cassetteName));
     }
 
     public void setHeaders(Map<String, String> headers) {
@@ -45,7 +96,7 @@ public class ApiTestHelper {
             this.request.headers(headers);
         } catch (Exception e) {
             logger.error("Error setting headers", e);
-            Assert.fail("Error setting headers");
+            SoftAssertions.abort("Error setting headers");
         }
     }
 
@@ -54,16 +105,17 @@ public class ApiTestHelper {
             this.request.auth().preemptive().basic(username, password);
         } catch (Exception e) {
             logger.error("Error setting basic auth", e);
-            Assert.fail("Error setting basic auth");
+            SoftAssertions.abort("Error setting basic auth");
         }
     }
 
     public void setBearerToken(String token) {
         try {
             this.request.auth().preemptive().oauth2(token);
+            this.bearerToken = token;
         } catch (Exception e) {
             logger.error("Error setting bearer token", e);
-            Assert.fail("Error setting bearer token");
+            SoftAssertions.abort("Error setting bearer token");
         }
     }
 
@@ -72,7 +124,7 @@ public class ApiTestHelper {
             this.request.header(headerName, apiKey);
         } catch (Exception e) {
             logger.error("Error setting API key", e);
-            Assert.fail("Error setting API key");
+            SoftAssertions.abort("Error setting API key");
         }
     }
 
@@ -81,25 +133,29 @@ public class ApiTestHelper {
             this.request.auth().digest(username, password);
         } catch (Exception e) {
             logger.error("Error setting digest auth", e);
-            Assert.fail("Error setting digest auth");
+            SoftAssertions.abort("Error setting digest auth");
         }
     }
 
     public void setOAuth1(String consumerKey, String consumerSecret, String accessToken, String secretToken) {
         try {
+            // The OAuth signer is installed on the HTTP client, so this scenario gets a client of its own
+            this.request.config(HttpClientPool.getShared().newIsolatedConfig());
             this.request.auth().oauth(consumerKey, consumerSecret, accessToken, secretToken);
         } catch (Exception e) {
             logger.error("Error setting OAuth1", e);
-            Assert.fail("Error setting OAuth1");
+            SoftAssertions.abort("Error setting OAuth1");
         }
     }
 
     public void setBody(Object body) {
         try {
             this.request.body(body);
+            requestBodyBytes = body instanceof String ? ((String) body).getBytes(StandardCharsets.UTF_8).length
+                    : body instanceof byte[] ? ((byte[]) body).length : -1;
         } catch (Exception e) {
             logger.error("Error setting request body", e);
-            Assert.fail("Error setting request body");
+            SoftAssertions.abort("Error setting request body");
         }
     }
 
@@ -109,7 +165,7 @@ public class ApiTestHelper {
             this.currentQueryParams = new HashMap<>(queryParams);
         } catch (Exception e) {
             logger.error("Error setting query params", e);
-            Assert.fail("Error setting query params");
+            SoftAssertions.abort("Error setting query params");
         }
     }
 
@@ -119,9 +175,47 @@ public class ApiTestHelper {
             this.currentPathParams = new HashMap<>(pathParams);
         } catch (Exception e) {
             logger.error("Error setting path params", e);
-            Assert.fail("Error setting path params");
+            SoftAssertions.abort("Error setting path params");
         }
     }
+    public String getBearerToken() {
+        return bearerToken;
+    }
+
+    // Sets the bearer token from the shared TokenCache, logging in only when no valid token is cached.
+    // The login request is sent on its own so its body does not end up in the scenario's request.
+    public String login(String loginPath, String email, String password, long defaultTtlMillis, boolean fresh) {
+        try {
+            Map<String, String> credentials = new LinkedHashMap<>();
+            credentials.put("email", email);
+            credentials.put("password", password);
+            String loginBaseUri = this.baseUri;
+            String loginCassette = this.cassetteName;
+            this.loginCall = () -> {
+                Response response = Cassette.record(RestAssured.given(), loginCassette)
+                        .config(HttpClientPool.getShared().getConfig())
+                        .baseUri(loginBaseUri)
+                        .contentType(ContentType.JSON)
+                        .body(credentials)
+                        .post(loginPath);
+                response.asByteArray();
+                return response;
+            };
+            this.loginKey = TokenCache.key(loginBaseUri, loginPath, email);
+            this.loginTtlMillis = defaultTtlMillis;
+            String token = fresh
+                    ? TokenCache.refresh(loginKey, null, defaultTtlMillis, loginCall)
+                    : TokenCache.getToken(loginKey, defaultTtlMillis, loginCall);
+            setBearerToken(token);
+            this.loginToken = token;
+            return token;
+        } catch (Exception e) {
+            logger.error("Error logging in at: {}", loginPath, e);
+            SoftAssertions.abort("Error logging in at: {}: {}", loginPath, e.getMessage());
+            return null;
+        }
+    }
+
     public Map<String, String> getPathParams() {
         return new HashMap<>(this.currentPathParams);
     }
@@ -135,7 +229,7 @@ public class ApiTestHelper {
             this.request.multiPart(file);
         } catch (Exception e) {
             logger.error("Error adding multipart file", e);
-            Assert.fail("Error adding multipart file");
+            SoftAssertions.abort("Error adding multipart file");
         }
     }
 
@@ -144,7 +238,7 @@ public class ApiTestHelper {
             this.request.formParams(formParams);
         } catch (Exception e) {
             logger.error("Error setting form params", e);
-            Assert.fail("Error setting form params");
+            SoftAssertions.abort("Error setting form params");
         }
     }
 
@@ -153,49 +247,393 @@ public class ApiTestHelper {
             this.request.cookie(name, value);
         } catch (Exception e) {
             logger.error("Error adding cookie", e);
-            Assert.fail("Error adding cookie");
+            SoftAssertions.abort("Error adding cookie");
         }
     }
 
     public Response sendRequest(String method, String endpoint) {
+        return sendRequest(method, endpoint, null);
+    }
+
+    // endpointName is the apiPaths.yaml key the endpoint came from; it labels the request in the run metrics
+    public Response sendRequest(String method, String endpoint, String endpointName) {
+        try {
+            return send(endpoint, spec -> exchange(spec, method, endpoint, endpointName, requestBodyBytes));
+        } catch (Exception e) {
+            logger.error("Error sending request to endpoint: {}", endpoint, e);
+            SoftAssertions.abort("Error sending request to endpoint: {}", endpoint);
+            return null;
+        }
+    }
+
+    // Sends the requests in parallel with the current request settings, one worker per request, and returns
+    // the responses by alias in the given order. Requests that get a 401 are sent again after one token refresh.
+    public Map<String, Response> sendConcurrently(List<NamedRequest> requests) {
+        Map<String, Response> responses = new LinkedHashMap<>();
+        if (requests.isEmpty()) {
+            return responses;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(requests.size(), MAX_CONCURRENT_REQUESTS), runnable -> {
+            Thread thread = new Thread(runnable, "concurrent-request-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            responses.putAll(sendAll(executor, requests));
+            List<NamedRequest> rejected = new ArrayList<>();
+            for (NamedRequest namedRequest : requests) {
+                if (responses.get(namedRequest.alias).getStatusCode() == 401) {
+                    rejected.add(namedRequest);
+                }
+            }
+            if (!rejected.isEmpty() && usesLoginToken()) {
+                // Refreshed once on this thread, so the workers never change the shared request settings
+                logger.info("Got 401 for {} concurrent requests, refreshing login token", rejected.size());
+                refreshLoginToken();
+                responses.putAll(sendAll(executor, rejected));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return responses;
+    }
+
+    private Map<String, Response> sendAll(ExecutorService executor, List<NamedRequest> requests) {
+        List<Future<Response>> futures = new ArrayList<>();
+        for (NamedRequest namedRequest : requests) {
+            futures.add(executor.submit(() -> {
+                RequestSpecification spec = RestAssured.given(this.request);
+                long bodyBytes = requestBodyBytes;
+                if (namedRequest.body != null) {
+                    spec.body(namedRequest.body);
+                    bodyBytes = namedRequest.body.getBytes(StandardCharsets.UTF_8).length;
+                }
+                return exchange(spec, namedRequest.method, namedRequest.endpoint, namedRequest.endpointName, bodyBytes);
+            }));
+        }
+        Map<String, Response> responses = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            NamedRequest namedRequest = requests.get(i);
+            try {
+                responses.put(namedRequest.alias, futures.get(i).get());
+            } catch (ExecutionException e) {
+                logger.error("Error sending concurrent request {} to endpoint: {}", namedRequest.alias, namedRequest.endpoint, e.getCause());
+                SoftAssertions.abort("Error sending concurrent request {} to endpoint: {}: {}", namedRequest.alias,
+                        namedRequest.endpoint, e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                SoftAssertions.abort("Interrupted while waiting for concurrent request {}", namedRequest.alias);
+            }
+        }
+        return responses;
+    }
+
+    // True when the request authenticates with the token login() issued. A 401 then means that token went
+    // stale; with any other credentials the 401 is the response the scenario asked for and is kept.
+    private boolean usesLoginToken() {
+        if (loginCall == null || loginToken == null) {
+            return false;
+        }
+        FilterableRequestSpecification spec = (FilterableRequestSpecification) this.request;
+        // setBearerToken writes the token as the Authorization header; basic, digest and OAuth 1 are schemes
+        AuthenticationScheme scheme = spec.getAuthenticationScheme();
+        if (!(scheme instanceof NoAuthScheme || scheme instanceof ExplicitNoAuthScheme)) {
+            return false;
+        }
+        List<String> authorization = spec.getHeaders().getValues("Authorization");
+        return !authorization.isEmpty() && authorization.stream().allMatch(("Bearer " + loginToken)::equals);
+    }
+
+    private void refreshLoginToken() {
+        loginToken = TokenCache.refresh(loginKey, loginToken, loginTtlMillis, loginCall);
+        setBearerToken(loginToken);
+    }
+
+    // The path of every single request of the scenario: clears the credentials a previous scenario left on
+    // the pooled client, sends, and when the login token was rejected refreshes it and sends once more.
+    // sender may leave the body unread, so streamed and downloaded responses go through here as well.
+    private Response send(String endpoint, Function<RequestSpecification, Response> sender) {
+        HttpClientPool.clearThreadCredentials();
+        Response response = sender.apply(RestAssured.given(this.request));
+        if (response.getStatusCode() == 401 && usesLoginToken()) {
+            // The cached token was revoked or expired early: log in once more and retry
+            logger.info("Got 401 from {}, refreshing login token", endpoint);
+            // Reading the rejected body hands its connection back to the pool
+            response.asByteArray();
+            refreshLoginToken();
+            response = sender.apply(RestAssured.given(this.request));
+        }
+        return response;
+    }
+
+    private Response exchange(RequestSpecification spec, String method, String endpoint, String endpointName, long bodyBytes) {
+        String upperMethod = method.toUpperCase(Locale.ROOT);
+        StepTimings.Operation timing = StepTimings.beginRequest(upperMethod, endpoint);
+        long start = System.nanoTime();
+        try {
+            Response response = spec.request(upperMethod, endpoint);
+            // Reading the body completes the exchange and returns the connection to the shared pool
+            byte[] body = response.asByteArray();
+            timing.lap("transfer");
+            Metrics.recordRequest(endpointName, upperMethod, response.getStatusCode(), System.nanoTime() - start,
+                    bodyBytes, body == null ? 0 : body.length);
+            if (Cassette.isStrict() && Cassette.isMiss(response)) {
+                SoftAssertions.abort("No recorded response in cassette {} for {} {}", cassetteName, upperMethod, endpoint);
+            }
+            return response;
+        } catch (RuntimeException e) {
+            Metrics.recordRequest(endpointName, upperMethod, 0, System.nanoTime() - start, bodyBytes, 0);
+            throw e;
+        } finally {
+            timing.end();
+        }
+    }
+
+    // Sends the current request repeatedly from concurrent workers that share one pooled HTTP client,
+    // so connections are kept alive and reused. targetRate 0 sends back to back (closed loop).
+    // Responses with a 4xx or 5xx status count as errors, grouped by status code.
+    public LoadTestResult sendLoad(String method, String endpoint, long requests, int concurrency,
+                                   double targetRate, long warmupRequests) {
+        HttpClientPool loadPool = HttpClientPool.fromConfig(concurrency, concurrency);
+        try {
+            LoadGenerator generator = new LoadGenerator(concurrency, targetRate, warmupRequests);
+            LoadTestResult result = generator.run(workerIndex -> () -> {
+                Response response = RestAssured.given(this.request).config(loadPool.getConfig()).request(method, endpoint);
+                // Reading the body completes the transfer and hands the connection back to the pool
+                response.asByteArray();
+                if (response.getStatusCode() >= 400) {
+                    throw new IllegalStateException("HTTP " + response.getStatusCode());
+                }
+            }, requests, 0);
+            logger.info("Load test {} {}: {}, {}", method, endpoint, result, loadPool.getStats());
+            return result;
+        } catch (Exception e) {
+            logger.error("Error running load test against endpoint: {}", endpoint, e);
+            SoftAssertions.abort("Error running load test against endpoint: {}", endpoint);
+            return null;
+        } finally {
+            loadPool.shutdown();
+        }
+    }
+
+    // Sends the current request and validates the body while it is being received, without buffering it,
+    // so responses far larger than the heap can be checked
+    public JsonStreamValidator.Result sendStreamingRequest(String method, String endpoint, String endpointName,
+                                                           JsonStreamValidator validator) {
+        String upperMethod = method.toUpperCase(Locale.ROOT);
+        StepTimings.Operation timing = StepTimings.beginRequest(upperMethod, endpoint);
+        long start = System.nanoTime();
+        try {
+            Response response = send(endpoint, spec -> spec.request(upperMethod, endpoint));
+            try (CountingInputStream body = new CountingInputStream(response.asInputStream())) {
+                if (response.getStatusCode() >= 400) {
+                    Metrics.recordRequest(endpointName, upperMethod, response.getStatusCode(), System.nanoTime() - start,
+                            requestBodyBytes, 0);
+                    SoftAssertions.abort("Streaming request failed with HTTP {}", response.getStatusCode());
+                }
+                // Validation runs while the body is received, so it is part of the transfer phase
+                JsonStreamValidator.Result result = validator.validate(body);
+                timing.lap("transfer");
+                Metrics.recordRequest(endpointName, upperMethod, response.getStatusCode(), System.nanoTime() - start,
+                        requestBodyBytes, body.getCount());
+                return result;
+            }
+        } catch (Exception e) {
+            Metrics.recordRequest(endpointName, upperMethod, 0, System.nanoTime() - start, requestBodyBytes, 0);
+            logger.error("Error streaming response from endpoint: {}", endpoint, e);
+            SoftAssertions.abort("Error streaming response from endpoint: {}: {}", endpoint, e.getMessage());
+            return null;
+        } finally {
+            timing.end();
+        }
+    }
+
+    // Sends the request and writes the body to a file in target/downloads while it arrives, instead of
+    // buffering it in memory. Any status is accepted; the download step checks it like a response.
+    public DownloadedBody download(String method, String endpoint, String endpointName) {
+        String upperMethod = method.toUpperCase(Locale.ROOT);
+        StepTimings.Operation timing = StepTimings.beginRequest(upperMethod, endpoint);
+        long start = System.nanoTime();
+        try {
+            Files.createDirectories(DOWNLOAD_DIRECTORY);
+            Path file = Files.createTempFile(DOWNLOAD_DIRECTORY, "download-", ".body");
+            downloads.add(file);
+            Response response = send(endpoint, spec -> spec.request(upperMethod, endpoint));
+            DownloadedBody download;
+            try (InputStream body = response.asInputStream()) {
+                download = DownloadedBody.receive(body, file, response.getStatusCode(), response.getContentType(), start);
+            }
+            timing.lap("transfer");
+            Metrics.recordRequest(endpointName, upperMethod, download.getStatusCode(), System.nanoTime() - start,
+                    requestBodyBytes, download.getSize());
+            return download;
+        } catch (Exception e) {
+            Metrics.recordRequest(endpointName, upperMethod, 0, System.nanoTime() - start, requestBodyBytes, 0);
+            logger.error("Error downloading response from endpoint: {}", endpoint, e);
+            SoftAssertions.abort("Error downloading response from endpoint: {}: {}", endpoint, e.getMessage());
+            return null;
+        } finally {
+            timing.end();
+        }
+    }
+
+    // Deletes the files of this scenario's downloads; keep is for failed scenarios, whose files are left for a look
+    public void deleteDownloads(boolean keep) {
+        for (Path file : downloads) {
+            try {
+                if (keep) {
+                    logger.info("Kept download {}", file);
+                } else {
+                    Files.deleteIfExists(file);
+                }
+            } catch (IOException e) {
+                logger.warn("Could not delete download {}", file, e);
+            }
+        }
+        downloads.clear();
+    }
+
+    // Sends one request per row of a CSV or XLSX file from a pool of workers sharing the current request
+    // settings. {column} placeholders in the endpoint take the row's value; expect.status and
+    // expect.<json path> columns hold the row's expectations (any status below 400 passes by default);
+    // the other non-empty columns become typed JSON body fields, or query parameters for GET and DELETE.
+    // Rows go through exchange like every other request; a 401 on the login token defers the rows, which are
+    // sent again after one token refresh on this thread, as sendConcurrently does.
+    public DataDrivenRun.Result sendForEachRow(String method, String endpointTemplate, String endpointName, Path dataFile,
+                                               int concurrency) {
         try {
-//            // Ensure request is built with all previously set configurations
-            RequestSpecification builtRequest = RestAssured.given(this.request);
-            return builtRequest.request(method, endpoint);
+            boolean refreshable = usesLoginToken();
+            DataDrivenRun.Result result = new DataDrivenRun(concurrency).run(dataFile, (rowNumber, row) -> {
+                Map<String, String> pathParams = new LinkedHashMap<>();
+                Map<String, String> fields = new LinkedHashMap<>();
+                Map<String, String> expectations = new LinkedHashMap<>();
+                for (Map.Entry<String, String> column : row.entrySet()) {
+                    String name = column.getKey();
+                    if (name.startsWith(EXPECT_PREFIX)) {
+                        expectations.put(name.substring(EXPECT_PREFIX.length()), column.getValue());
+                    } else if (endpointTemplate.contains("{" + name + "}")) {
+                        pathParams.put(name, column.getValue());
+                    } else if (!column.getValue().isEmpty()) {
+                        fields.put(name, column.getValue());
+                    }
+                }
+                // Path parameters are URL-encoded by Rest Assured, so a value with a slash or space stays one segment
+                RequestSpecification rowRequest = RestAssured.given(this.request).pathParams(pathParams);
+                long bodyBytes = 0;
+                if (method.equalsIgnoreCase("GET") || method.equalsIgnoreCase("DELETE")) {
+                    rowRequest.queryParams(fields);
+                } else {
+                    String body = toTypedJson(fields);
+                    rowRequest.body(body);
+                    bodyBytes = body.getBytes(StandardCharsets.UTF_8).length;
+                }
+                HttpClientPool.clearThreadCredentials();
+                Response response = exchange(rowRequest, method, endpointTemplate, endpointName, bodyBytes);
+                if (response.getStatusCode() == 401 && refreshable) {
+                    throw new DataDrivenRun.RetryAfterRefresh("status 401 after refreshing the login token");
+                }
+                return checkRowExpectations(response, expectations);
+            }, refreshable ? () -> {
+                logger.info("Got 401 for data rows of {}, refreshing login token", dataFile);
+                refreshLoginToken();
+            } : null);
+            logger.info("Data file {} against {} {}: {}", dataFile, method, endpointTemplate, result);
+            return result;
         } catch (Exception e) {
-            logger.error("Error sending request to endpoint: " + endpoint, e);
-            Assert.fail("Error sending request to endpoint: " + endpoint);
+            logger.error("Error running data file: {}", dataFile, e);
+            SoftAssertions.abort("Error running data file: {}: {}", dataFile, e.getMessage());
             return null;
         }
     }
 
+    private static String checkRowExpectations(Response response, Map<String, String> expectations) {
+        String expectedStatus = expectations.remove("status");
+        if (expectedStatus == null || expectedStatus.isEmpty()) {
+            if (response.getStatusCode() >= 400) {
+                return "status " + response.getStatusCode();
+            }
+        } else if (response.getStatusCode() != Integer.parseInt(expectedStatus)) {
+            return "expected status " + expectedStatus + " but was " + response.getStatusCode();
+        }
+        ParsedResponse parsed = new ParsedResponse(response);
+        for (Map.Entry<String, String> expectation : expectations.entrySet()) {
+            Object actual = parsed.get(expectation.getKey());
+            String actualText = actual == null ? "" : actual.toString();
+            if (!actualText.equals(expectation.getValue())) {
+                return "expected " + expectation.getKey() + "=" + expectation.getValue() + " but was " + actualText;
+            }
+        }
+        return null;
+    }
+
+    // Substitutes {name} path parameters and appends the query string, as the request steps do
+    public static String buildEndpoint(String path, Map<String, String> pathParams, Map<String, String> queryParams) {
+        String endpoint = path;
+        for (Map.Entry<String, String> entry : pathParams.entrySet()) {
+            endpoint = endpoint.replace("{" + entry.getKey() + "}", entry.getValue());
+        }
+        if (!queryParams.isEmpty()) {
+            StringJoiner queryParamString = new StringJoiner("&", "?", "");
+            for (Map.Entry<String, String> entry : queryParams.entrySet()) {
+                queryParamString.add(entry.getKey() + "=" + entry.getValue());
+            }
+            endpoint += queryParamString.toString();
+        }
+        return endpoint;
+    }
+
+    // Builds a JSON object from text values: embedded JSON, integers, floats and booleans keep their type
+    public static String toTypedJson(Map<String, String> values) {
+        JsonObject json = new JsonObject();
+        values.forEach((key, value) -> {
+            if (isJson(value)) {
+                json.add(key, JsonParser.parseString(value));
+            } else if (Common.isInteger(value)) {
+                json.addProperty(key, Integer.parseInt(value));
+            } else if (Common.isFloat(value)) {
+                json.addProperty(key, Float.parseFloat(value));
+            } else if (Common.isBoolean(value)) {
+                json.addProperty(key, Boolean.parseBoolean(value));
+            } else {
+                json.addProperty(key, value);
+            }
+        });
+        return json.toString();
+    }
+
     public static boolean verifyStatusCode(Response response, int expectedStatusCode) {
         try {
             return response.getStatusCode() == expectedStatusCode;
         } catch (Exception e) {
             logger.error("Error verifying status code", e);
-            Assert.fail("Error verifying status code");
+            SoftAssertions.abort("Error verifying status code");
             return false;
         }
     }
 
     public static boolean verifyResponseField(Response response, String jsonPath, Object expectedValue) {
+        long assertStart = StepTimings.startAssert();
         try {
-            return response.jsonPath().get(jsonPath).toString().equals(expectedValue);
+            return ParsedResponse.of(response).get(jsonPath).toString().equals(expectedValue);
         } catch (Exception e) {
-            logger.error("Error verifying response field", e);
-            Assert.fail("Error verifying response field");
+            logger.error("Error verifying response field {}", jsonPath, e);
+            SoftAssertions.abort("Error verifying response field {}: {}", jsonPath, e.getMessage());
             return false;
+        } finally {
+            StepTimings.endAssert(assertStart);
         }
     }
 
     public static boolean verifyResponseContains(Response response, String content) {
+        long assertStart = StepTimings.startAssert();
         try {
-            return response.asString().contains(content);
+            return ParsedResponse.of(response).asString().contains(content);
         } catch (Exception e) {
             logger.error("Error verifying response content", e);
-            Assert.fail("Error verifying response content");
+            SoftAssertions.abort("Error verifying response content");
             return false;
+        } finally {
+            StepTimings.endAssert(assertStart);
         }
     }
 
@@ -204,7 +642,7 @@ public class ApiTestHelper {
             return response.getTime() <= expectedMaxTimeMillis;
         } catch (Exception e) {
             logger.error("Error verifying response time", e);
-            Assert.fail("Error verifying response time");
+            SoftAssertions.abort("Error verifying response time");
             return false;
         }
     }
@@ -214,58 +652,174 @@ public class ApiTestHelper {
             return expectedValue.equals(response.getHeader(header));
         } catch (Exception e) {
             logger.error("Error verifying response header", e);
-            Assert.fail("Error verifying response header");
+            SoftAssertions.abort("Error verifying response header");
             return false;
         }
     }
 
     public static String extractValueFromResponse(Response response, String jsonPath) {
+        long assertStart = StepTimings.startAssert();
         try {
-            return response.jsonPath().get(jsonPath);
+            return ParsedResponse.of(response).get(jsonPath);
         } catch (Exception e) {
-            logger.error("Error extracting value from response", e);
-            Assert.fail("Error extracting value from response");
+            logger.error("Error extracting value {} from response", jsonPath, e);
+            SoftAssertions.abort("Error extracting value {} from response: {}", jsonPath, e.getMessage());
             return null;
+        } finally {
+            StepTimings.endAssert(assertStart);
         }
     }
 
     public static void validateJsonSchema(Response response, String schemaPath) {
+        long assertStart = StepTimings.startAssert();
+        try {
+            // The schema is compiled once per run and the body tree is shared with the other assertions
+            JsonNode body = ParsedResponse.of(response).tree();
+            if (body == null) {
+                SoftAssertions.fail("Response body is not JSON, cannot validate it against {}", schemaPath);
+                return;
+            }
+            ProcessingReport report = JsonStreamValidator.compiledSchema(schemaPath).validate(body);
+            if (!report.isSuccess()) {
+                SoftAssertions.fail("Response does not match JSON schema {}: {}", schemaPath, JsonStreamValidator.firstMessage(report));
+            }
+        } catch (Exception e) {
+            logger.error("Error validating JSON schema {}", schemaPath, e);
+            SoftAssertions.fail("Error validating JSON schema {}: {}", schemaPath, e.getMessage());
+        } finally {
+            StepTimings.endAssert(assertStart);
+        }
+    }
+
+    // Checks the elements of an array in the response body with a streaming parser, one element at a time
+    public static JsonStreamValidator.Result validateElements(Response response, JsonStreamValidator validator) {
+        long assertStart = StepTimings.startAssert();
+        try (InputStream body = response.asInputStream()) {
+            return validator.validate(body);
+        } catch (Exception e) {
+            logger.error("Error validating response elements", e);
+            SoftAssertions.abort("Error validating response elements: {}", e.getMessage());
+            return null;
+        } finally {
+            StepTimings.endAssert(assertStart);
+        }
+    }
+
+    public static boolean verifyDownloadContains(DownloadedBody download, String content) {
+        long assertStart = StepTimings.startAssert();
         try {
-            response.then().assertThat().body(matchesJsonSchemaInClasspath(schemaPath));
+            return download.contains(content);
         } catch (Exception e) {
-            logger.error("Error validating JSON schema", e);
-            Assert.fail("Error validating JSON schema");
+            logger.error("Error searching download {}", download.getFile(), e);
+            SoftAssertions.abort("Error searching download {}: {}", download.getFile(), e.getMessage());
+            return false;
+        } finally {
+            StepTimings.endAssert(assertStart);
+        }
+    }
+
+    public static boolean verifyDownloadField(DownloadedBody download, String jsonPath, String expectedValue) {
+        long assertStart = StepTimings.startAssert();
+        try {
+            return expectedValue.equals(download.readJsonValue(jsonPath));
+        } catch (Exception e) {
+            logger.error("Error reading {} from download {}", jsonPath, download.getFile(), e);
+            SoftAssertions.abort("Error reading {} from download {}: {}", jsonPath, download.getFile(), e.getMessage());
+            return false;
+        } finally {
+            StepTimings.endAssert(assertStart);
+        }
+    }
+
+    public static JsonStreamValidator.Result validateElements(DownloadedBody download, JsonStreamValidator validator) {
+        long assertStart = StepTimings.startAssert();
+        try {
+            return download.validate(validator);
+        } catch (Exception e) {
+            logger.error("Error validating download elements", e);
+            SoftAssertions.abort("Error validating download elements: {}", e.getMessage());
+            return null;
+        } finally {
+            StepTimings.endAssert(assertStart);
         }
     }
 
     public static XmlPath getXmlPath(Response response) {
         try {
-            return new XmlPath(response.asString());
+            return ParsedResponse.of(response).xmlPath();
         } catch (Exception e) {
             logger.error("Error getting XML path", e);
-            Assert.fail("Error getting XML path");
+            SoftAssertions.abort("Error getting XML path");
             return null;
         }
     }
 
     public static <T> List<T> extractValuesFromResponse(Response response, String jsonPath) {
+        long assertStart = StepTimings.startAssert();
         try {
-            return response.jsonPath().getList(jsonPath);
+            return ParsedResponse.of(response).getList(jsonPath);
         } catch (Exception e) {
-            logger.error("Error extracting values list from response", e);
-            Assert.fail("Error extracting values list from response");
+            logger.error("Error extracting values list {} from response", jsonPath, e);
+            SoftAssertions.abort("Error extracting values list {} from response: {}", jsonPath, e.getMessage());
             return null;
+        } finally {
+            StepTimings.endAssert(assertStart);
         }
     }
 
     public static boolean isJson(String value) {
-        try {
-            JsonElement element = JsonParser.parseString(value);
-            return element.isJsonObject() || element.isJsonArray();
-        } catch (JsonSyntaxException ex) {
-            return false;
+        return JsonStreamValidator.isJsonDocument(value);
+    }
+
+    // One request of sendConcurrently; body is sent instead of the current request body when not null
+    public static final class NamedRequest {
+        private final String alias;
+        private final String method;
+        private final String endpoint;
+        private final String endpointName;
+        private final String body;
+
+        public NamedRequest(String alias, String method, String endpoint, String endpointName, String body) {
+            this.alias = alias;
+            this.method = method;
+            this.endpoint = endpoint;
+            this.endpointName = endpointName;
+            this.body = body;
+        }
+
+        public String getAlias() {
+            return alias;
         }
     }
-}
 
+    // Counts the body bytes the streaming validator reads, for the run metrics
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
 
+        private long getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package utils;
+
+import com.sun.net.httpserver.HttpServer;
+import io.restassured.response.Response;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+public class ApiTestHelperTest {
+    private HttpServer server;
+    private String baseUri;
+    // Authorization header of each request the server received, in order
+    private final List<String> authorizations = new CopyOnWriteArrayList<>();
+    private final AtomicInteger logins = new AtomicInteger();
+    // The only token /secure accepts; each login issues a new one
+    private volatile String validToken;
+    // When above zero, the token is revoked as /secure gets its request number revokeAt
+    private final AtomicInteger revokeAt = new AtomicInteger();
+
+    @BeforeClass
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            authorizations.add(authorization);
+            String path = exchange.getRequestURI().getPath();
+            if (path.startsWith("/secure") && revokeAt.get() > 0 && revokeAt.decrementAndGet() == 0) {
+                validToken = "revoked";
+            }
+            int status = 200;
+            String body = "{}";
+            if (path.equals("/login-without-token")) {
+                body = "{\"user\": \"someone\", \"session\": \"s3cr3t\"}";
+            } else if (path.equals("/login")) {
+                validToken = "token" + logins.incrementAndGet();
+                body = "{\"token\": \"" + validToken + "\"}";
+            } else if (path.startsWith("/secure") && !("Bearer " + validToken).equals(authorization)) {
+                status = 401;
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        server.start();
+        baseUri = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @BeforeMethod
+    public void clearRequests() {
+        authorizations.clear();
+        logins.set(0);
+        validToken = null;
+        revokeAt.set(0);
+        TokenCache.invalidateAll();
+    }
+
+    @Test
+    public void oauth1DoesNotSignLaterRequestsOfOtherScenarios() {
+        ApiTestHelper signed = helper();
+        signed.setOAuth1("consumer", "consumerSecret", "token", "tokenSecret");
+        Response signedResponse = signed.sendRequest("GET", "/users");
+        ApiTestHelper plain = helper();
+        Response plainResponse = plain.sendRequest("GET", "/users");
+
+        assertEquals(signedResponse.getStatusCode(), 200);
+        assertEquals(plainResponse.getStatusCode(), 200);
+        assertTrue(authorizations.get(0).startsWith("OAuth "), authorizations.get(0));
+        assertNull(authorizations.get(1));
+    }
+
+    @Test
+    public void oauth1KeepsSigningRequestsOfItsOwnScenario() {
+        ApiTestHelper signed = helper();
+        signed.setOAuth1("consumer", "consumerSecret", "token", "tokenSecret");
+        signed.sendRequest("GET", "/users");
+        signed.sendRequest("GET", "/users");
+
+        assertEquals(authorizations.size(), 2);
+        assertTrue(authorizations.get(1).startsWith("OAuth "), authorizations.get(1));
+    }
+
+    @Test
+    public void revokedLoginTokenIsRefreshedOnce() {
+        ApiTestHelper helper = helper();
+        helper.login("/login", "user@example.com", "secret", 60_000, false);
+        validToken = "revoked";
+
+        Response response = helper.sendRequest("GET", "/secure");
+
+        assertEquals(response.getStatusCode(), 200);
+        assertEquals(logins.get(), 2);
+        assertEquals(helper.getBearerToken(), "token2");
+    }
+
+    @Test
+    public void revokedLoginTokenIsRefreshedForStreamingRequests() {
+        ApiTestHelper helper = helper();
+        helper.login("/login", "user@example.com", "secret", 60_000, false);
+        validToken = "revoked";
+
+        JsonStreamValidator.Result result = helper.sendStreamingRequest("get", "/secure", "secureStream", new JsonStreamValidator("data"));
+
+        assertNotNull(result);
+        assertEquals(logins.get(), 2);
+        assertEquals(authorizations.get(authorizations.size() - 1), "Bearer token2");
+        String metrics = Metrics.scrape();
+        assertTrue(metrics.contains("api_requests_total{endpoint=\"secureStream\",method=\"GET\",code=\"200\"} 1\n"), metrics);
+        assertTrue(metrics.contains("api_response_bytes_total{endpoint=\"secureStream\",method=\"GET\"} 2\n"), metrics);
+    }
+
+    @Test
+    public void revokedLoginTokenIsRefreshedForDownloads() {
+        ApiTestHelper helper = helper();
+        helper.login("/login", "user@example.com", "secret", 60_000, false);
+        validToken = "revoked";
+
+        DownloadedBody download = helper.download("GET", "/secure", null);
+        helper.deleteDownloads(false);
+
+        assertEquals(download.getStatusCode(), 200);
+        assertEquals(logins.get(), 2);
+    }
+
+    @Test
+    public void tokenRevokedDuringADataFileIsRefreshedOnce() throws IOException {
+        Path rows = Files.createTempFile("rows-", ".csv");
+        StringBuilder csv = new StringBuilder("id\n");
+        for (int id = 1; id <= 200; id++) {
+            csv.append(id).append('\n');
+        }
+        Files.writeString(rows, csv);
+        ApiTestHelper helper = helper();
+        helper.login("/login", "user@example.com", "secret", 60_000, false);
+        revokeAt.set(80);
+
+        DataDrivenRun.Result result;
+        try {
+            result = helper.sendForEachRow("GET", "/secure/{id}", "secureRows", rows, 4);
+        } finally {
+            Files.delete(rows);
+        }
+
+        assertTrue(result.allPassed(), result.toString());
+        assertEquals(result.getRows(), 200);
+        assertEquals(logins.get(), 2);
+        // Every row is counted in the run metrics once it got through
+        assertTrue(Metrics.scrape().contains("api_requests_total{endpoint=\"secureRows\",method=\"GET\",code=\"200\"} 200\n"));
+    }
+
+    @Test
+    public void tokensLivingShorterThanTheRenewalMarginAreReused() {
+        helper().login("/login", "user@example.com", "secret", 20_000, false);
+        String token = helper().login("/login", "user@example.com", "secret", 20_000, false);
+
+        assertEquals(token, "token1");
+        assertEquals(logins.get(), 1);
+    }
+
+    @Test
+    public void loginWithoutTokenReportsOnlyTheFieldNames() {
+        AssertionError error = expectThrows(AssertionError.class,
+                () -> helper().login("/login-without-token", "user@example.com", "secret", 60_000, false));
+
+        assertTrue(error.getMessage().contains("[user, session]"), error.getMessage());
+        assertFalse(error.getMessage().contains("s3cr3t"), error.getMessage());
+    }
+
+    @Test
+    public void expected401WithAnotherTokenIsKept() {
+        ApiTestHelper helper = helper();
+        helper.login("/login", "user@example.com", "secret", 60_000, false);
+        helper.setBearerToken("not-the-login-token");
+
+        Response response = helper.sendRequest("GET", "/secure");
+
+        assertEquals(response.getStatusCode(), 401);
+        assertEquals(logins.get(), 1);
+    }
+
+    @Test
+    public void expected401WithAnAddedAuthorizationHeaderIsKept() {
+        ApiTestHelper helper = helper();
+        helper.login("/login", "user@example.com", "secret", 60_000, false);
+        validToken = "revoked";
+        helper.setHeaders(Map.of("Authorization", "Bearer not-the-login-token"));
+
+        Response response = helper.sendRequest("GET", "/secure");
+
+        assertEquals(response.getStatusCode(), 401);
+        assertEquals(logins.get(), 1);
+    }
+
+    @Test
+    public void expected401WithOtherCredentialsIsKept() {
+        ApiTestHelper helper = helper();
+        helper.login("/login", "user@example.com", "secret", 60_000, false);
+        helper.setBasicAuth("user", "wrong");
+
+        Map<String, Response> responses = helper.sendConcurrently(List.of(
+                new ApiTestHelper.NamedRequest("first", "GET", "/secure", null, null),
+                new ApiTestHelper.NamedRequest("second", "GET", "/secure", null, null)));
+
+        assertEquals(responses.get("first").getStatusCode(), 401);
+        assertEquals(responses.get("second").getStatusCode(), 401);
+        assertEquals(logins.get(), 1);
+    }
+
+    private ApiTestHelper helper() {
+        ApiTestHelper helper = new ApiTestHelper();
+        helper.setBaseURI(baseUri);
+        return helper;
+    }
+}
@@ -0,0 +1,270 @@
+package utils;
+
+import com.mysql.cj.jdbc.JdbcStatement;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads rows into one table in chunks, each chunk in its own transaction. Rows are sent with
+ * parameterized batches of multi-row INSERT statements (rowsPerStatement rows per statement), so
+ * a chunk of 1000 rows is a handful of round trips instead of 1000. For MySQL, LOAD DATA LOCAL
+ * INFILE can be used instead; it needs allowLoadLocalInfile=true in the connection URL and
+ * local_infile enabled on the server. Rows are added one at a time and only the current chunk
+ * is held in memory. When the connection is already inside a transaction (for example scenario
+ * isolation), chunks are sent without committing and the caller's transaction decides.
+ */
+public class BulkInsert implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(BulkInsert.class);
+    // MySQL allows at most 65535 placeholders per statement
+    private static final int MAX_PARAMETERS = 65535;
+
+    private final Connection connection;
+    private final String table;
+    private final List<String> columns;
+    private final int chunkSize;
+    private final int rowsPerStatement;
+    private final boolean loadDataLocalInfile;
+    private final boolean autoCommitBefore;
+    private final List<Object[]> chunk = new ArrayList<>();
+    // Prepared once and reused for every chunk
+    private PreparedStatement fullStatement;
+    private final long start = System.nanoTime();
+    private long rows;
+    private long chunks;
+    private boolean finished;
+
+    // Table and column names must already be validated identifiers
+    public BulkInsert(Connection connection, String table, List<String> columns, int chunkSize,
+                      int rowsPerStatement, boolean loadDataLocalInfile) throws SQLException {
+        if (columns.isEmpty()) {
+            throw new IllegalArgumentException("A bulk insert needs at least one column");
+        }
+        this.connection = connection;
+        this.table = table;
+        this.columns = new ArrayList<>(columns);
+        this.chunkSize = Math.max(1, chunkSize);
+        this.rowsPerStatement = Math.max(1, Math.min(rowsPerStatement, MAX_PARAMETERS / columns.size()));
+        this.loadDataLocalInfile = loadDataLocalInfile;
+        this.autoCommitBefore = connection.getAutoCommit();
+        if (autoCommitBefore) {
+            connection.setAutoCommit(false);
+        }
+    }
+
+    public void add(Object... values) throws SQLException {
+        if (values.length != columns.size()) {
+            throw new IllegalArgumentException("Row " + (rows + chunk.size() + 1) + " has " + values.length
+                    + " values for " + columns.size() + " columns of " + table);
+        }
+        chunk.add(values);
+        if (chunk.size() >= chunkSize) {
+            flush();
+        }
+    }
+
+    public Result finish() throws SQLException {
+        if (!finished) {
+            flush();
+            finished = true;
+            closeStatement();
+            if (autoCommitBefore) {
+                connection.setAutoCommit(true);
+            }
+        }
+        return new Result(table, rows, chunks, System.nanoTime() - start, loadDataLocalInfile);
+    }
+
+    // Rolls back the chunk in progress when finish was not reached
+    @Override
+    public void close() throws SQLException {
+        if (!finished) {
+            finished = true;
+            chunk.clear();
+            closeStatement();
+            if (autoCommitBefore) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    private void closeStatement() throws SQLException {
+        if (fullStatement != null) {
+            fullStatement.close();
+            fullStatement = null;
+        }
+    }
+
+    private void flush() throws SQLException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        try {
+            if (loadDataLocalInfile) {
+                loadChunk();
+            } else {
+                insertChunk();
+            }
+            if (autoCommitBefore) {
+                connection.commit();
+            }
+        } catch (SQLException e) {
+            if (autoCommitBefore) {
+                connection.rollback();
+            }
+            throw new SQLException("Bulk insert into " + table + " failed in the chunk starting at row " + (rows + 1)
+                    + ": " + e.getMessage(), e.getSQLState(), e.getErrorCode(), e);
+        }
+        rows += chunk.size();
+        chunks++;
+        chunk.clear();
+        logger.debug("Inserted {} rows into {}", rows, table);
+    }
+
+    private void insertChunk() throws SQLException {
+        int full = chunk.size() / rowsPerStatement;
+        int remainder = chunk.size() % rowsPerStatement;
+        if (full > 0) {
+            if (fullStatement == null) {
+                fullStatement = connection.prepareStatement(insertSql(rowsPerStatement));
+            }
+            for (int group = 0; group < full; group++) {
+                bindRows(fullStatement, group * rowsPerStatement, rowsPerStatement);
+                fullStatement.addBatch();
+            }
+            fullStatement.executeBatch();
+        }
+        if (remainder > 0) {
+            try (PreparedStatement statement = connection.prepareStatement(insertSql(remainder))) {
+                bindRows(statement, full * rowsPerStatement, remainder);
+                statement.executeUpdate();
+            }
+        }
+    }
+
+    private void bindRows(PreparedStatement statement, int from, int count) throws SQLException {
+        int index = 1;
+        for (int row = from; row < from + count; row++) {
+            for (Object value : chunk.get(row)) {
+                statement.setObject(index++, value);
+            }
+        }
+    }
+
+    private String insertSql(int rowCount) {
+        StringBuilder rowPlaceholders = new StringBuilder("(");
+        for (int i = 0; i < columns.size(); i++) {
+            rowPlaceholders.append(i == 0 ? "?" : ",?");
+        }
+        rowPlaceholders.append(')');
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table)
+                .append(" (").append(String.join(",", columns)).append(") VALUES ");
+        for (int i = 0; i < rowCount; i++) {
+            sql.append(i == 0 ? "" : ",").append(rowPlaceholders);
+        }
+        return sql.toString();
+    }
+
+    // Sends the chunk as tab-separated text through the driver instead of a file on disk
+    private void loadChunk() throws SQLException {
+        StringBuilder data = new StringBuilder();
+        for (Object[] row : chunk) {
+            for (int i = 0; i < row.length; i++) {
+                if (i > 0) {
+                    data.append('\t');
+                }
+                appendInfileValue(data, row[i]);
+            }
+            data.append('\n');
+        }
+        String sql = "LOAD DATA LOCAL INFILE 'bulk-insert' INTO TABLE " + table
+                + " CHARACTER SET utf8mb4 FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\' LINES TERMINATED BY '\\n' ("
+                + String.join(",", columns) + ")";
+        try (Statement statement = connection.createStatement()) {
+            if (!statement.isWrapperFor(JdbcStatement.class)) {
+                throw new SQLException("LOAD DATA LOCAL INFILE is only supported with the MySQL driver");
+            }
+            statement.unwrap(JdbcStatement.class).setLocalInfileInputStream(
+                    new ByteArrayInputStream(data.toString().getBytes(StandardCharsets.UTF_8)));
+            statement.execute(sql);
+        }
+    }
+
+    private static void appendInfileValue(StringBuilder data, Object value) {
+        if (value == null) {
+            data.append("\\N");
+            return;
+        }
+        String text = value instanceof Boolean ? ((Boolean) value ? "1" : "0")
+                : value instanceof BigDecimal ? ((BigDecimal) value).toPlainString()
+                : value.toString();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '\\':
+                    data.append("\\\\");
+                    break;
+                case '\t':
+                    data.append("\\t");
+                    break;
+                case '\n':
+                    data.append("\\n");
+                    break;
+                case '\r':
+                    data.append("\\r");
+                    break;
+                default:
+                    data.append(c);
+            }
+        }
+    }
+
+    public static class Result {
+        private final String table;
+        private final long rows;
+        private final long chunks;
+        private final long elapsedNanos;
+        private final boolean loadDataLocalInfile;
+
+        public Result(String table, long rows, long chunks, long elapsedNanos, boolean loadDataLocalInfile) {
+            this.table = table;
+            this.rows = rows;
+            this.chunks = chunks;
+            this.elapsedNanos = elapsedNanos;
+            this.loadDataLocalInfile = loadDataLocalInfile;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getChunks() {
+            return chunks;
+        }
+
+        public double getRowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : rows / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d rows in %d chunks, %.0f rows/s%s", table, rows, chunks, getRowsPerSecond(),
+                    loadDataLocalInfile ? " (LOAD DATA LOCAL INFILE)" : "");
+        }
+    }
+}
@@ -0,0 +1,436 @@
+package utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.restassured.filter.Filter;
+import io.restassured.http.Header;
+import io.restassured.response.Response;
+import io.restassured.specification.RequestSpecification;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Record and replay of the HTTP exchanges of a feature file. In record mode every request sent
+ * through an ApiTestHelper is captured, keyed by method, path, sorted query and normalized body, and
+ * written at the end of the run to one JSON Lines cassette per feature. In replay mode the cassettes
+ * are served by an in-process HTTP server on 127.0.0.1 that the base URI is redirected to, so a run
+ * needs no network. Requests without a recording get a 404; in strict mode they also fail the step.
+ * Repeated requests are answered in recorded order, and the last answer is repeated after that.
+ * Credentials never reach a cassette: password, token and secret fields of request and response
+ * bodies, query strings and forms, and credential headers of the answers, are redacted before a
+ * request is keyed or an answer is kept.
+ */
+public final class Cassette {
+    private static final Logger logger = LogManager.getLogger(Cassette.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final ObjectMapper SORTED = new ObjectMapper().configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+    private static final String EXTENSION = ".cassette.jsonl";
+    public static final String MISS_HEADER = "X-Cassette-Miss";
+    // Set by the HTTP layer for the body that was received, not by the recorded server
+    private static final Set<String> SKIPPED_HEADERS = Set.of("content-length", "transfer-encoding", "connection",
+            "content-encoding", "date", "keep-alive");
+    // Compared with '_' and '-' removed, so access_token and client-secret match too
+    private static final Set<String> SECRET_FIELDS = Set.of("password", "passwd", "secret", "clientsecret", "token",
+            "accesstoken", "refreshtoken", "idtoken", "apikey", "authorization");
+    private static final Set<String> SECRET_HEADERS = Set.of("authorization", "proxy-authorization", "cookie",
+            "set-cookie", "x-api-key");
+    static final String REDACTED = "[redacted]";
+
+    public enum Mode { OFF, RECORD, REPLAY }
+
+    private static volatile Mode mode = Mode.OFF;
+    private static volatile boolean strict;
+    private static Path directory;
+    private static HttpServer server;
+    private static ExecutorService serverThreads;
+    private static final Map<String, Cassette> CASSETTES = new ConcurrentHashMap<>();
+    private static final AtomicInteger MISSES = new AtomicInteger();
+
+    private final String name;
+    private final Map<String, List<Interaction>> interactions = new LinkedHashMap<>();
+    private final Map<String, AtomicInteger> replayed = new ConcurrentHashMap<>();
+
+    private Cassette(String name) {
+        this.name = name;
+    }
+
+    // Replay loads every cassette in the directory and starts the server on an ephemeral port
+    public static synchronized void start(Mode newMode, Path cassetteDirectory, boolean strictReplay) throws IOException {
+        stop();
+        mode = newMode;
+        directory = cassetteDirectory;
+        strict = strictReplay;
+        if (mode == Mode.REPLAY) {
+            if (Files.isDirectory(directory)) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+                    for (Path file : files) {
+                        Cassette cassette = load(file);
+                        CASSETTES.put(cassette.name, cassette);
+                    }
+                }
+            }
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            server.createContext("/", Cassette::replay);
+            serverThreads = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "cassette-server");
+                thread.setDaemon(true);
+                return thread;
+            });
+            server.setExecutor(serverThreads);
+            server.start();
+            logger.info("Replaying {} cassettes from {} on port {}{}", CASSETTES.size(), directory,
+                    server.getAddress().getPort(), strict ? " (strict)" : "");
+        } else if (mode == Mode.RECORD) {
+            logger.info("Recording cassettes to {}", directory);
+        }
+    }
+
+    // Writes the recorded cassettes, or stops the replay server
+    public static synchronized void stop() {
+        if (mode == Mode.RECORD) {
+            for (Cassette cassette : CASSETTES.values()) {
+                try {
+                    cassette.save(directory.resolve(cassette.name + EXTENSION));
+                } catch (IOException e) {
+                    logger.error("Error writing cassette {}", cassette.name, e);
+                }
+            }
+            logger.info("Recorded {} cassettes to {}", CASSETTES.size(), directory);
+        }
+        if (server != null) {
+            server.stop(0);
+            serverThreads.shutdownNow();
+            server = null;
+            if (MISSES.get() > 0) {
+                logger.warn("{} requests had no recording; record the cassettes again", MISSES.get());
+            }
+        }
+        CASSETTES.clear();
+        MISSES.set(0);
+        mode = Mode.OFF;
+    }
+
+    public static Mode getMode() {
+        return mode;
+    }
+
+    public static boolean isStrict() {
+        return mode == Mode.REPLAY && strict;
+    }
+
+    // Cassette name for a feature file: its file name without the extension
+    public static String nameOf(URI featureUri) {
+        String path = featureUri.getSchemeSpecificPart();
+        String file = path.substring(path.lastIndexOf('/') + 1);
+        return file.endsWith(".feature") ? file.substring(0, file.length() - ".feature".length()) : file;
+    }
+
+    // In replay the base URI points at the local server, with the cassette name as the first path segment
+    public static String baseUri(String baseUri, String cassetteName) {
+        if (mode != Mode.REPLAY || server == null) {
+            return baseUri;
+        }
+        String path = URI.create(baseUri).getRawPath();
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/" + encode(cassetteName)
+                + (path == null ? "" : path);
+    }
+
+    // Adds the recording filter to a request in record mode
+    public static RequestSpecification record(RequestSpecification request, String cassetteName) {
+        if (mode == Mode.RECORD && cassetteName != null) {
+            request.filter(recorder(cassetteName));
+        }
+        return request;
+    }
+
+    public static boolean isMiss(Response response) {
+        return response.getHeader(MISS_HEADER) != null;
+    }
+
+    private static Filter recorder(String cassetteName) {
+        return (requestSpec, responseSpec, context) -> {
+            Response response = context.next(requestSpec, responseSpec);
+            // The body is buffered here, also for streamed responses, so recording runs hold it in memory
+            URI uri = URI.create(requestSpec.getURI());
+            Object body = requestSpec.getBody();
+            String requestBody;
+            if (body instanceof byte[]) {
+                requestBody = new String((byte[]) body, StandardCharsets.UTF_8);
+            } else if (body != null) {
+                requestBody = body.toString();
+            } else if (!requestSpec.getFormParams().isEmpty()) {
+                requestBody = requestSpec.getFormParams().entrySet().stream()
+                        .map(param -> encode(param.getKey()) + "=" + encode(param.getValue()))
+                        .collect(Collectors.joining("&"));
+            } else {
+                requestBody = "";
+            }
+            boolean multipart = !requestSpec.getMultiPartParams().isEmpty();
+            String key = key(requestSpec.getMethod(), uri.getRawPath(), uri.getRawQuery(),
+                    multipart ? "" : requestBody, requestSpec.getContentType());
+            Map<String, String> headers = new LinkedHashMap<>();
+            for (Header header : response.getHeaders()) {
+                String name = header.getName().toLowerCase(Locale.ROOT);
+                if (!SKIPPED_HEADERS.contains(name)) {
+                    headers.putIfAbsent(header.getName(), SECRET_HEADERS.contains(name) ? REDACTED : header.getValue());
+                }
+            }
+            CASSETTES.computeIfAbsent(cassetteName, Cassette::new)
+                    .add(key, new Interaction(response.getStatusCode(), headers, redactBody(response.asByteArray())));
+            return response;
+        };
+    }
+
+    private static void replay(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String rawPath = exchange.getRequestURI().getRawPath();
+            int slash = rawPath.indexOf('/', 1);
+            String cassetteName = URLDecoder.decode(rawPath.substring(1, slash < 0 ? rawPath.length() : slash), StandardCharsets.UTF_8);
+            String path = slash < 0 ? "/" : rawPath.substring(slash);
+            byte[] body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = in.readAllBytes();
+            }
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            boolean multipart = contentType != null && contentType.toLowerCase(Locale.ROOT).startsWith("multipart/");
+            String key = key(exchange.getRequestMethod(), path, exchange.getRequestURI().getRawQuery(),
+                    multipart ? "" : new String(body, StandardCharsets.UTF_8), contentType);
+
+            Interaction interaction = find(cassetteName, key);
+            if (interaction == null) {
+                MISSES.incrementAndGet();
+                logger.warn("No recording in cassette {} for {}", cassetteName, key);
+                byte[] message = ("No recording in cassette " + cassetteName + " for " + key).getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set(MISS_HEADER, cassetteName);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                exchange.sendResponseHeaders(404, message.length);
+                exchange.getResponseBody().write(message);
+                return;
+            }
+            interaction.headers.forEach((header, value) -> exchange.getResponseHeaders().set(header, value));
+            exchange.sendResponseHeaders(interaction.status, interaction.body.length == 0 ? -1 : interaction.body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(interaction.body);
+            }
+        }
+    }
+
+    // The feature's own cassette first, then any other; a login is recorded only by the feature that ran it first
+    private static Interaction find(String cassetteName, String key) {
+        Cassette own = CASSETTES.get(cassetteName);
+        Interaction interaction = own == null ? null : own.next(key);
+        if (interaction != null) {
+            return interaction;
+        }
+        for (Cassette cassette : CASSETTES.values()) {
+            if (cassette != own && (interaction = cassette.next(key)) != null) {
+                return interaction;
+            }
+        }
+        return null;
+    }
+
+    // Method, path, sorted query and body; JSON bodies with their keys sorted and form bodies with their fields sorted.
+    // Secret values are redacted, which keeps replay working since the requests it answers are keyed the same way.
+    static String key(String method, String path, String rawQuery, String body, String contentType) {
+        StringBuilder key = new StringBuilder(method.toUpperCase(Locale.ROOT)).append(' ').append(path);
+        String query = sortedParams(rawQuery);
+        if (!query.isEmpty()) {
+            key.append('?').append(query);
+        }
+        String normalized = body == null ? "" : body.trim();
+        if (contentType != null && contentType.toLowerCase(Locale.ROOT).startsWith("application/x-www-form-urlencoded")) {
+            normalized = sortedParams(normalized);
+        } else if (ApiTestHelper.isJson(normalized)) {
+            try {
+                JsonNode json = MAPPER.readTree(normalized);
+                redact(json);
+                normalized = SORTED.writeValueAsString(MAPPER.treeToValue(json, Object.class));
+            } catch (IOException e) {
+                // Kept as sent
+            }
+        }
+        return normalized.isEmpty() ? key.toString() : key.append(' ').append(normalized).toString();
+    }
+
+    private static String sortedParams(String raw) {
+        if (raw == null || raw.isEmpty()) {
+            return "";
+        }
+        List<String> params = new ArrayList<>();
+        for (String param : raw.split("&")) {
+            if (param.isEmpty()) {
+                continue;
+            }
+            String decoded = URLDecoder.decode(param, StandardCharsets.UTF_8);
+            int equals = decoded.indexOf('=');
+            params.add(equals >= 0 && isSecret(decoded.substring(0, equals)) ? decoded.substring(0, equals + 1) + REDACTED : decoded);
+        }
+        params.sort(null);
+        return String.join("&", params);
+    }
+
+    static boolean isSecret(String name) {
+        return SECRET_FIELDS.contains(name.toLowerCase(Locale.ROOT).replace("_", "").replace("-", ""));
+    }
+
+    // Replaces the text of every secret field, at any depth; true when something was replaced
+    private static boolean redact(JsonNode node) {
+        boolean redacted = false;
+        if (node instanceof ObjectNode) {
+            ObjectNode object = (ObjectNode) node;
+            List<String> names = new ArrayList<>();
+            object.fieldNames().forEachRemaining(names::add);
+            for (String name : names) {
+                JsonNode value = object.get(name);
+                if (isSecret(name) && value.isValueNode() && !value.isNull()) {
+                    object.put(name, REDACTED);
+                    redacted = true;
+                } else {
+                    redacted |= redact(value);
+                }
+            }
+        } else if (node.isArray()) {
+            for (JsonNode element : node) {
+                redacted |= redact(element);
+            }
+        }
+        return redacted;
+    }
+
+    // A JSON answer with its secret fields redacted, such as the token of a login; other bodies are kept as received
+    static byte[] redactBody(byte[] body) {
+        String text = body == null ? null : utf8(body);
+        if (text == null || !ApiTestHelper.isJson(text.trim())) {
+            return body;
+        }
+        try {
+            JsonNode json = MAPPER.readTree(text);
+            return redact(json) ? MAPPER.writeValueAsBytes(json) : body;
+        } catch (IOException e) {
+            return body;
+        }
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private synchronized void add(String key, Interaction interaction) {
+        List<Interaction> recorded = interactions.computeIfAbsent(key, k -> new ArrayList<>());
+        // Load tests send the same request many times; only a changed answer is worth another entry
+        if (recorded.isEmpty() || !recorded.get(recorded.size() - 1).sameAs(interaction)) {
+            recorded.add(interaction);
+        }
+    }
+
+    private Interaction next(String key) {
+        List<Interaction> recorded = interactions.get(key);
+        if (recorded == null) {
+            return null;
+        }
+        int index = replayed.computeIfAbsent(key, k -> new AtomicInteger()).getAndIncrement();
+        return recorded.get(Math.min(index, recorded.size() - 1));
+    }
+
+    private static Cassette load(Path file) throws IOException {
+        Cassette cassette = new Cassette(file.getFileName().toString().replace(EXTENSION, ""));
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.isBlank()) {
+                continue;
+            }
+            JsonNode entry = MAPPER.readTree(line);
+            Map<String, String> headers = new LinkedHashMap<>();
+            entry.path("headers").fields().forEachRemaining(header -> headers.put(header.getKey(), header.getValue().asText()));
+            byte[] body = entry.has("bodyBase64") ? Base64.getDecoder().decode(entry.get("bodyBase64").asText())
+                    : entry.path("body").asText("").getBytes(StandardCharsets.UTF_8);
+            cassette.interactions.computeIfAbsent(entry.get("request").asText(), k -> new ArrayList<>())
+                    .add(new Interaction(entry.get("status").asInt(), headers, body));
+        }
+        return cassette;
+    }
+
+    private synchronized void save(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, List<Interaction>> entry : interactions.entrySet()) {
+                for (Interaction interaction : entry.getValue()) {
+                    ObjectNode line = MAPPER.createObjectNode();
+                    line.put("request", entry.getKey());
+                    line.put("status", interaction.status);
+                    ObjectNode headers = line.putObject("headers");
+                    interaction.headers.forEach(headers::put);
+                    String text = utf8(interaction.body);
+                    if (text != null) {
+                        line.put("body", text);
+                    } else {
+                        line.put("bodyBase64", Base64.getEncoder().encodeToString(interaction.body));
+                    }
+                    writer.write(MAPPER.writeValueAsString(line));
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
+    // The body as text, or null when it is not valid UTF-8
+    private static String utf8(byte[] body) {
+        try {
+            return StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(body)).toString();
+        } catch (CharacterCodingException e) {
+            return null;
+        }
+    }
+
+    private static final class Interaction {
+        private final int status;
+        private final Map<String, String> headers;
+        private final byte[] body;
+
+        private Interaction(int status, Map<String, String> headers, byte[] body) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body == null ? new byte[0] : body;
+        }
+
+        private boolean sameAs(Interaction other) {
+            return status == other.status && Arrays.equals(body, other.body);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package utils;
+
+import com.sun.net.httpserver.HttpServer;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class CassetteTest {
+    private HttpServer server;
+    private String baseUri;
+
+    @BeforeClass
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            byte[] body = "{\"token\": \"live-token\", \"user\": {\"id\": 7}}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.getResponseHeaders().set("Set-Cookie", "session=live-session");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        baseUri = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void stopCassettes() {
+        Cassette.stop();
+        TokenCache.invalidateAll();
+    }
+
+    @Test
+    public void keyHasMethodPathAndSortedQuery() {
+        assertEquals(Cassette.key("get", "/users", "page=2&a=1&page=1", null, null), "GET /users?a=1&page=1&page=2");
+        assertEquals(Cassette.key("GET", "/users", "", "  ", null), "GET /users");
+        assertEquals(Cassette.key("GET", "/users", "name=a%20b", null, null), "GET /users?name=a b");
+    }
+
+    @Test
+    public void jsonAndFormBodiesAreNormalized() {
+        String sorted = "POST /users {\"job\":\"leader\",\"name\":\"morpheus\",\"tags\":[\"b\",\"a\"]}";
+
+        assertEquals(Cassette.key("POST", "/users", null, "{\"name\": \"morpheus\", \"job\": \"leader\", \"tags\": [\"b\", \"a\"]}",
+                "application/json"), sorted);
+        assertEquals(Cassette.key("POST", "/users", null, "{\n  \"tags\": [\"b\",\"a\"],\n  \"job\":\"leader\", \"name\":\"morpheus\"\n}\n",
+                "application/json"), sorted);
+        assertEquals(Cassette.key("POST", "/users", null, "name=morpheus&job=leader", "application/x-www-form-urlencoded; charset=UTF-8"),
+                "POST /users job=leader&name=morpheus");
+        // Other bodies are only trimmed
+        assertEquals(Cassette.key("PUT", "/notes/1", null, " b=2&a=1 ", "text/plain"), "PUT /notes/1 b=2&a=1");
+    }
+
+    @Test
+    public void secretFieldsAreRedactedInTheKey() {
+        String key = Cassette.key("POST", "/login", "api_key=abc&page=2",
+                "{\"email\": \"user@example.com\", \"password\": \"hunter2\", \"client\": {\"client_secret\": \"s3\"}}",
+                "application/json");
+
+        assertEquals(key, "POST /login?api_key=[redacted]&page=2"
+                + " {\"client\":{\"client_secret\":\"[redacted]\"},\"email\":\"user@example.com\",\"password\":\"[redacted]\"}");
+        assertEquals(Cassette.key("POST", "/login", null, "password=hunter2&email=a%40b.c", "application/x-www-form-urlencoded"),
+                "POST /login email=a@b.c&password=[redacted]");
+    }
+
+    @Test
+    public void recordedLoginKeepsNoCredentials() throws IOException {
+        Path directory = Files.createTempDirectory("cassettes");
+        Cassette.start(Cassette.Mode.RECORD, directory, true);
+        ApiTestHelper helper = new ApiTestHelper();
+        helper.setBaseURI(baseUri);
+        helper.useCassette("login");
+        helper.login("/login", "user@example.com", "hunter2", 60_000, true);
+        Cassette.stop();
+
+        String cassette = Files.readString(directory.resolve("login.cassette.jsonl"));
+        assertFalse(cassette.contains("hunter2"), cassette);
+        assertFalse(cassette.contains("live-token"), cassette);
+        assertFalse(cassette.contains("live-session"), cassette);
+        assertTrue(cassette.contains("\\\"id\\\":7"), cassette);
+    }
+
+    @Test
+    public void redactedRecordingIsReplayedForTheRealCredentials() throws IOException {
+        Path directory = Files.createTempDirectory("cassettes");
+        Cassette.start(Cassette.Mode.RECORD, directory, true);
+        ApiTestHelper recording = new ApiTestHelper();
+        recording.setBaseURI(baseUri);
+        recording.useCassette("login");
+        recording.login("/login", "user@example.com", "hunter2", 60_000, true);
+        Cassette.start(Cassette.Mode.REPLAY, directory, true);
+        TokenCache.invalidateAll();
+
+        ApiTestHelper replaying = new ApiTestHelper();
+        replaying.setBaseURI(baseUri);
+        replaying.useCassette("login");
+        String token = replaying.login("/login", "user@example.com", "hunter2", 60_000, true);
+
+        assertEquals(token, Cassette.REDACTED);
+    }
+
+    @Test
+    public void bodiesWithoutSecretsAreKeptAsReceived() {
+        byte[] body = "{ \"id\" : 7 }".getBytes(StandardCharsets.UTF_8);
+
+        assertSame(Cassette.redactBody(body), body);
+    }
+}
@@ -0,0 +1,286 @@
+package utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded JDBC connection pool shared by every scenario of the suite. Scenarios borrow a
+ * connection in a Before hook and return it in an After hook; connections are validated on
+ * borrow and reset (rolled back, autocommit restored) on return. Connections held longer than
+ * the leak threshold are reported together with the scenario that borrowed them.
+ */
+public class ConnectionPool implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(ConnectionPool.class);
+    private static final Map<String, ConnectionPool> POOLS = new ConcurrentHashMap<>();
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final int maxSize;
+    private final long maxWaitMillis;
+    private final long leakThresholdMillis;
+    private final int statementCacheSize;
+    private final Semaphore permits;
+    private final BlockingDeque<Connection> idle = new LinkedBlockingDeque<>();
+    private final Map<Connection, Lease> leased = new ConcurrentHashMap<>();
+    private final Map<Connection, StatementCache> statementCaches = new ConcurrentHashMap<>();
+
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder invalidCount = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public ConnectionPool(String url, String username, String password, int maxSize,
+                          long maxWaitMillis, long leakThresholdMillis, int statementCacheSize) {
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.maxWaitMillis = maxWaitMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    // Returns the suite-wide pool for the given database, creating it on first use
+    public static ConnectionPool getOrCreate(String url, String username, String password, int maxSize,
+                                             long maxWaitMillis, long leakThresholdMillis, int statementCacheSize) {
+        return POOLS.computeIfAbsent(url + "|" + username, key -> new ConnectionPool(url, username, password,
+                maxSize, maxWaitMillis, leakThresholdMillis, statementCacheSize));
+    }
+
+    public static void closeAll() {
+        for (ConnectionPool pool : POOLS.values()) {
+            pool.close();
+        }
+        POOLS.clear();
+        logger.info("Prepared statement cache totals: {}", StatementCache.getTotalStats());
+    }
+
+    public Connection borrow(String owner) throws SQLException {
+        reportLeaks();
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out after " + maxWaitMillis + " ms waiting for a connection to " + url
+                        + "; connections are held by " + describeLeases());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection to " + url, e);
+        }
+        try {
+            Connection connection = takeValidIdleConnection();
+            if (connection == null) {
+                connection = DriverManager.getConnection(url, username, password);
+                statementCaches.put(connection, new StatementCache(connection, statementCacheSize));
+                createdCount.increment();
+            }
+            leased.put(connection, new Lease(owner, System.currentTimeMillis()));
+            recordWait(System.nanoTime() - start);
+            return connection;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public void release(Connection connection) {
+        if (connection == null || leased.remove(connection) == null) {
+            return;
+        }
+        try {
+            if (connection.isClosed()) {
+                statementCaches.remove(connection);
+                permits.release();
+                return;
+            }
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            idle.offerFirst(connection);
+        } catch (SQLException e) {
+            logger.warn("Discarding connection that could not be reset: {}", url, e);
+            discard(connection);
+        }
+        permits.release();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public Stats getStats() {
+        long borrows = borrowCount.sum();
+        return new Stats(leased.size(), idle.size(), maxSize, borrows, createdCount.sum(), invalidCount.sum(),
+                borrows == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalWaitNanos.sum() / borrows),
+                TimeUnit.NANOSECONDS.toMicros(maxWaitNanos.get()));
+    }
+
+    // Logs every connection that has been held for longer than the leak threshold
+    public List<String> reportLeaks() {
+        List<String> leaks = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (Lease lease : leased.values()) {
+            long heldMillis = now - lease.borrowedAt;
+            if (heldMillis > leakThresholdMillis) {
+                leaks.add(lease.owner);
+                if (!lease.reported) {
+                    lease.reported = true;
+                    logger.warn("Possible connection leak: scenario '{}' has held a connection to {} for {} ms without returning it",
+                            lease.owner, url, heldMillis);
+                }
+            }
+        }
+        return leaks;
+    }
+
+    @Override
+    public void close() {
+        for (Lease lease : leased.values()) {
+            logger.warn("Connection to {} was never returned by scenario '{}'", url, lease.owner);
+        }
+        logger.info("Connection pool {}: {}", url, getStats());
+        Connection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            discard(connection);
+        }
+    }
+
+    // The statement cache that lives as long as the given pooled connection
+    public StatementCache getStatementCache(Connection connection) {
+        return statementCaches.get(connection);
+    }
+
+    private Connection takeValidIdleConnection() {
+        Connection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            try {
+                if (connection.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+                    return connection;
+                }
+            } catch (SQLException e) {
+                logger.debug("Connection validation failed: {}", url, e);
+            }
+            invalidCount.increment();
+            discard(connection);
+        }
+        return null;
+    }
+
+    private void recordWait(long waitNanos) {
+        borrowCount.increment();
+        totalWaitNanos.add(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    private String describeLeases() {
+        long now = System.currentTimeMillis();
+        StringBuilder description = new StringBuilder();
+        for (Lease lease : leased.values()) {
+            if (description.length() > 0) {
+                description.append(", ");
+            }
+            description.append('\'').append(lease.owner).append("' (").append(now - lease.borrowedAt).append(" ms)");
+        }
+        return description.length() == 0 ? "nobody" : description.toString();
+    }
+
+    private void discard(Connection connection) {
+        StatementCache statementCache = statementCaches.remove(connection);
+        if (statementCache != null) {
+            statementCache.close();
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.debug("Error closing pooled connection", e);
+        }
+    }
+
+    private static final class Lease {
+        private final String owner;
+        private final long borrowedAt;
+        private volatile boolean reported;
+
+        private Lease(String owner, long borrowedAt) {
+            this.owner = owner;
+            this.borrowedAt = borrowedAt;
+        }
+    }
+
+    public static final class Stats {
+        private final int active;
+        private final int idle;
+        private final int maxSize;
+        private final long borrows;
+        private final long created;
+        private final long invalidated;
+        private final long averageWaitMicros;
+        private final long maxWaitMicros;
+
+        private Stats(int active, int idle, int maxSize, long borrows, long created, long invalidated,
+                      long averageWaitMicros, long maxWaitMicros) {
+            this.active = active;
+            this.idle = idle;
+            this.maxSize = maxSize;
+            this.borrows = borrows;
+            this.created = created;
+            this.invalidated = invalidated;
+            this.averageWaitMicros = averageWaitMicros;
+            this.maxWaitMicros = maxWaitMicros;
+        }
+
+        public int getActive() {
+            return active;
+        }
+
+        public int getIdle() {
+            return idle;
+        }
+
+        public long getBorrows() {
+            return borrows;
+        }
+
+        public long getCreated() {
+            return created;
+        }
+
+        public long getInvalidated() {
+            return invalidated;
+        }
+
+        public long getAverageWaitMicros() {
+            return averageWaitMicros;
+        }
+
+        public long getMaxWaitMicros() {
+            return maxWaitMicros;
+        }
+
+        @Override
+        public String toString() {
+            return "active=" + active + ", idle=" + idle + ", max=" + maxSize + ", borrows=" + borrows
+                    + ", created=" + created + ", invalidated=" + invalidated
+                    + ", avgWait=" + averageWaitMicros + "us, maxWait=" + maxWaitMicros + "us";
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package utils;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+public class ConnectionPoolTest {
+    private static final String URL = "jdbc:h2:mem:connection_pool;DB_CLOSE_DELAY=-1";
+    private ConnectionPool pool;
+
+    @AfterMethod(alwaysRun = true)
+    public void closePool() throws SQLException {
+        if (pool != null) {
+            Connection connection = pool.borrow("cleanup");
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("DROP ALL OBJECTS");
+            }
+            pool.release(connection);
+            pool.close();
+            pool = null;
+        }
+    }
+
+    @Test
+    public void borrowTimesOutWhenThePoolIsExhausted() throws SQLException {
+        pool = pool(1, 60_000);
+        Connection held = pool.borrow("Scenario A");
+
+        long start = System.nanoTime();
+        SQLException timeout = expectThrows(SQLException.class, () -> pool.borrow("Scenario B"));
+
+        assertTrue(System.nanoTime() - start >= 100_000_000L, "returned before the wait was over");
+        assertTrue(timeout.getMessage().contains("Timed out after 100 ms"), timeout.getMessage());
+        assertTrue(timeout.getMessage().contains("'Scenario A'"), timeout.getMessage());
+        pool.release(held);
+        pool.release(pool.borrow("Scenario B"));
+    }
+
+    @Test
+    public void invalidIdleConnectionIsReplacedOnBorrow() throws SQLException {
+        pool = pool(2, 60_000);
+        Connection first = pool.borrow("Scenario A");
+        pool.release(first);
+        // Closed while idle, as when the server drops it
+        first.close();
+
+        Connection second = pool.borrow("Scenario B");
+
+        assertNotSame(second, first);
+        assertTrue(second.isValid(1));
+        assertEquals(pool.getStats().getInvalidated(), 1);
+        assertEquals(pool.getStats().getCreated(), 2);
+        pool.release(second);
+    }
+
+    @Test
+    public void leaksAreReportedWithTheScenarioThatHoldsThem() throws Exception {
+        pool = pool(2, 50);
+        Connection leaked = pool.borrow("Scenario that leaks");
+        Connection returned = pool.borrow("Scenario that returns");
+        pool.release(returned);
+        Thread.sleep(100);
+
+        List<String> leaks = pool.reportLeaks();
+
+        assertEquals(leaks, List.of("Scenario that leaks"));
+        pool.release(leaked);
+        assertTrue(pool.reportLeaks().isEmpty());
+    }
+
+    @Test
+    public void releaseRollsBackAndRestoresAutocommit() throws SQLException {
+        pool = pool(1, 60_000);
+        Connection connection = pool.borrow("Scenario A");
+        execute(connection, "CREATE TABLE items (id INT)");
+        connection.setAutoCommit(false);
+        execute(connection, "INSERT INTO items VALUES (1)");
+        pool.release(connection);
+
+        Connection again = pool.borrow("Scenario B");
+
+        assertSame(again, connection);
+        assertTrue(again.getAutoCommit());
+        try (Statement statement = again.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT COUNT(*) FROM items")) {
+            rows.next();
+            assertEquals(rows.getInt(1), 0);
+        }
+        assertEquals(pool.getStats().getActive(), 1);
+        pool.release(again);
+        assertEquals(pool.getStats().getActive(), 0);
+        assertEquals(pool.getStats().getIdle(), 1);
+        assertFalse(again.isClosed());
+    }
+
+    private static ConnectionPool pool(int maxSize, long leakThresholdMillis) {
+        return new ConnectionPool(URL, "sa", "", maxSize, 100, leakThresholdMillis, 4);
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+}
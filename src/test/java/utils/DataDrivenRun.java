@@ -0,0 +1,257 @@
+package utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs one check per row of a CSV or XLSX data file on a pool of workers and aggregates the
+ * outcome. The calling thread streams rows into a bounded queue, so a slow check holds back
+ * reading instead of the whole file piling up in memory. A check can ask for its row to be sent
+ * again after a refresh, such as a new login token: reading stops, the calling thread runs the
+ * refresh once, and the run goes on with the deferred rows and then the rest of the file.
+ */
+public class DataDrivenRun {
+    private static final Logger logger = LogManager.getLogger(DataDrivenRun.class);
+    private static final Row END = new Row(-1, Collections.emptyMap());
+    private static final int MAX_SAMPLES = 10;
+    private static final long OFFER_WAIT_MILLIS = 100;
+
+    public interface RowCheck {
+        // Returns null when the row passes, otherwise the reason it failed
+        String check(long rowNumber, Map<String, String> row) throws Exception;
+    }
+
+    // Thrown by a check whose row should run again after the refresh; after the refresh it fails the row
+    public static final class RetryAfterRefresh extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public RetryAfterRefresh(String message) {
+            super(message);
+        }
+    }
+
+    private final int concurrency;
+
+    public DataDrivenRun(int concurrency) {
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    public Result run(Path file, RowCheck rowCheck) {
+        return run(file, rowCheck, null);
+    }
+
+    // refresh runs on the calling thread, at most once, so the checks never see it half done
+    public Result run(Path file, RowCheck rowCheck, Runnable refresh) {
+        Result result = new Result();
+        long start = System.nanoTime();
+        Pass pass = new Pass(refresh != null);
+        pass.run(file, rowCheck, result, List.of(), 0);
+        if (!pass.deferred.isEmpty()) {
+            logger.info("Refreshing after {} deferred data rows, then reading {} from row {}", pass.deferred.size(), file,
+                    pass.resumeFrom == Long.MAX_VALUE ? "the end" : pass.resumeFrom);
+            refresh.run();
+            new Pass(false).run(file, rowCheck, result, pass.deferred, pass.resumeFrom);
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private final class Pass {
+        private final boolean canDefer;
+        private final List<Row> deferred = Collections.synchronizedList(new ArrayList<>());
+        private volatile boolean stopReading;
+        // First row that was not handed to a worker; Long.MAX_VALUE once the whole file was read
+        private long resumeFrom = Long.MAX_VALUE;
+
+        private Pass(boolean canDefer) {
+            this.canDefer = canDefer;
+        }
+
+        // Runs the replayed rows, then the rows of the file from readFrom on
+        private void run(Path file, RowCheck rowCheck, Result result, List<Row> replay, long readFrom) {
+            BlockingQueue<Row> queue = new ArrayBlockingQueue<>(concurrency * 64);
+            ExecutorService executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+                Thread thread = new Thread(runnable, "data-row-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+            // Set by the first worker that stops on something other than a row failure
+            AtomicReference<Throwable> workerFailure = new AtomicReference<>();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < concurrency; i++) {
+                futures.add(executor.submit(() -> {
+                    try {
+                        Row row;
+                        while ((row = queue.take()) != END) {
+                            if (canDefer && stopReading) {
+                                // Queued behind a deferred row, so it would only be rejected the same way
+                                deferred.add(row);
+                                continue;
+                            }
+                            long rowStart = System.nanoTime();
+                            String failure;
+                            try {
+                                failure = rowCheck.check(row.number, row.values);
+                            } catch (RetryAfterRefresh e) {
+                                if (canDefer) {
+                                    deferred.add(row);
+                                    stopReading = true;
+                                    continue;
+                                }
+                                failure = e.getMessage();
+                            } catch (Exception | AssertionError e) {
+                                // A hard assertion in the check fails the row, not the run
+                                failure = e.getClass().getSimpleName() + ": " + e.getMessage();
+                            }
+                            result.record(row.number, System.nanoTime() - rowStart, failure);
+                        }
+                        return null;
+                    } catch (Throwable t) {
+                        workerFailure.compareAndSet(null, t);
+                        throw t;
+                    }
+                }));
+            }
+            try {
+                for (Row row : replay) {
+                    if (!offer(queue, row, workerFailure)) {
+                        break;
+                    }
+                }
+                if (readFrom != Long.MAX_VALUE) {
+                    DataFileReader.read(file, (rowNumber, values) -> {
+                        if (rowNumber < readFrom) {
+                            return true;
+                        }
+                        if (stopReading) {
+                            resumeFrom = rowNumber;
+                            return false;
+                        }
+                        return offer(queue, new Row(rowNumber, values), workerFailure);
+                    });
+                }
+            } catch (Exception e) {
+                executor.shutdownNow();
+                throw new IllegalStateException("Error reading data file " + file + ": " + e.getMessage(), e);
+            }
+            try {
+                for (int i = 0; i < concurrency; i++) {
+                    while (!queue.offer(END, OFFER_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                        if (workerFailure.get() != null) {
+                            // Rows a dead worker will never take would keep the END markers of the others out
+                            queue.clear();
+                        }
+                    }
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (ExecutionException e) {
+                logger.error("Data row worker failed", e.getCause());
+                throw new IllegalStateException("Data row worker failed: " + e.getCause().getMessage(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while running data file " + file, e);
+            } finally {
+                executor.shutdownNow();
+            }
+            // Deferred rows run again in file order
+            deferred.sort(Comparator.comparingLong(row -> row.number));
+        }
+    }
+
+    // Waits for room in the queue, but gives up and stops the reading once a worker has died, since the
+    // queue may never drain then. Returns false to stop reading.
+    private static boolean offer(BlockingQueue<Row> queue, Row row, AtomicReference<Throwable> workerFailure)
+            throws InterruptedException {
+        while (workerFailure.get() == null) {
+            if (queue.offer(row, OFFER_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Row {
+        private final long number;
+        private final Map<String, String> values;
+
+        Row(long number, Map<String, String> values) {
+            this.number = number;
+            this.values = values;
+        }
+    }
+
+    public static class Result {
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final LongAdder failed = new LongAdder();
+        private final List<String> failureSamples = Collections.synchronizedList(new ArrayList<>());
+        private volatile long elapsedNanos;
+
+        void record(long rowNumber, long latencyNanos, String failure) {
+            latencies.record(latencyNanos);
+            if (failure != null) {
+                failed.increment();
+                if (failureSamples.size() < MAX_SAMPLES) {
+                    failureSamples.add("row " + rowNumber + ": " + failure);
+                }
+            }
+        }
+
+        public long getRows() {
+            return latencies.getCount();
+        }
+
+        public long getFailed() {
+            return failed.sum();
+        }
+
+        public long getPassed() {
+            return getRows() - getFailed();
+        }
+
+        public double getPassRate() {
+            long rows = getRows();
+            return rows == 0 ? 0 : (double) getPassed() / rows;
+        }
+
+        public boolean allPassed() {
+            return getRows() > 0 && getFailed() == 0;
+        }
+
+        public List<String> getFailureSamples() {
+            return failureSamples;
+        }
+
+        public LatencyHistogram getLatencies() {
+            return latencies;
+        }
+
+        public double getRowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : getRows() / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+        }
+
+        @Override
+        public String toString() {
+            String summary = String.format("rows=%d, passed=%d, failed=%d, %.1f rows/s, %s",
+                    getRows(), getPassed(), getFailed(), getRowsPerSecond(), latencies);
+            return failureSamples.isEmpty() ? summary : summary + "; " + String.join("; ", failureSamples);
+        }
+    }
+}
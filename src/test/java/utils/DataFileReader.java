@@ -0,0 +1,208 @@
+package utils;
+
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams the rows of a CSV or XLSX data file as column name to value maps, using the first row
+ * as the header. XLSX files are read with POI's SAX event API and CSV files line by line, so only
+ * the current row is held in memory however large the file is. Cell values are read as they are
+ * displayed, so an Excel number shown as 1 arrives as "1", not "1.0".
+ */
+public final class DataFileReader {
+
+    public interface RowHandler {
+        // Return false to stop reading
+        boolean row(long rowNumber, Map<String, String> values) throws Exception;
+    }
+
+    private DataFileReader() {
+    }
+
+    public static void read(Path file, RowHandler handler) throws Exception {
+        String name = file.getFileName().toString().toLowerCase();
+        if (name.endsWith(".xlsx")) {
+            readXlsx(file, handler);
+        } else if (name.endsWith(".csv")) {
+            readCsv(file, handler);
+        } else {
+            throw new IllegalArgumentException("Unsupported data file, expected .csv or .xlsx: " + file);
+        }
+    }
+
+    private static void readCsv(Path file, RowHandler handler) throws Exception {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            List<String> header = readCsvRecord(reader);
+            if (header == null) {
+                return;
+            }
+            // Spreadsheet exports often start with a byte order mark
+            if (!header.isEmpty() && header.get(0).startsWith("\uFEFF")) {
+                header.set(0, header.get(0).substring(1));
+            }
+            List<String> record;
+            long rowNumber = 1;
+            while ((record = readCsvRecord(reader)) != null) {
+                rowNumber++;
+                if (record.size() == 1 && record.get(0).isEmpty()) {
+                    continue;
+                }
+                if (!handler.row(rowNumber, toRow(header, record))) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // One RFC 4180 record; quoted fields may contain commas, doubled quotes and line breaks
+    private static List<String> readCsvRecord(BufferedReader reader) throws IOException {
+        String line = reader.readLine();
+        if (line == null) {
+            return null;
+        }
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while (true) {
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quoted) {
+                    if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else if (c == '"') {
+                        quoted = false;
+                    } else {
+                        field.append(c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            if (!quoted) {
+                break;
+            }
+            line = reader.readLine();
+            if (line == null) {
+                throw new IOException("Unterminated quoted field in CSV data file");
+            }
+            field.append('\n');
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static void readXlsx(Path file, RowHandler handler) throws Exception {
+        try (OPCPackage pkg = OPCPackage.open(file.toFile(), PackageAccess.READ)) {
+            XSSFReader xssfReader = new XSSFReader(pkg);
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+            StylesTable styles = xssfReader.getStylesTable();
+            Iterator<InputStream> sheets = xssfReader.getSheetsData();
+            if (!sheets.hasNext()) {
+                return;
+            }
+            SheetRowCollector collector = new SheetRowCollector(handler);
+            XMLReader parser = XMLHelper.newXMLReader();
+            parser.setContentHandler(new XSSFSheetXMLHandler(styles, strings, collector, new DataFormatter(), false));
+            // Only the first sheet is read
+            try (InputStream sheet = sheets.next()) {
+                parser.parse(new InputSource(sheet));
+            } catch (StopReading e) {
+                // The handler asked to stop
+            }
+            if (collector.failure != null) {
+                throw collector.failure;
+            }
+        }
+    }
+
+    private static Map<String, String> toRow(List<String> header, List<String> values) {
+        Map<String, String> row = new LinkedHashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+            row.put(header.get(i), i < values.size() ? values.get(i) : "");
+        }
+        return row;
+    }
+
+    private static final class StopReading extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        StopReading() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final class SheetRowCollector implements XSSFSheetXMLHandler.SheetContentsHandler {
+        private final RowHandler handler;
+        private List<String> header;
+        private final List<String> values = new ArrayList<>();
+        private Exception failure;
+
+        SheetRowCollector(RowHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            values.clear();
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            if (header == null) {
+                header = new ArrayList<>(values);
+                return;
+            }
+            if (values.stream().allMatch(String::isEmpty)) {
+                return;
+            }
+            try {
+                if (!handler.row(rowNum + 1, toRow(header, values))) {
+                    throw new StopReading();
+                }
+            } catch (StopReading e) {
+                throw e;
+            } catch (Exception e) {
+                failure = e;
+                throw new StopReading();
+            }
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            // Blank cells are not reported, so pad up to this cell's column
+            int column = new CellReference(cellReference).getCol();
+            while (values.size() < column) {
+                values.add("");
+            }
+            values.add(formattedValue == null ? "" : formattedValue);
+        }
+    }
+}
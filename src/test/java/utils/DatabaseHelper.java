@@ -2,91 +2,278 @@ package utils;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.testng.Assert;
+import org.yaml.snakeyaml.Yaml;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.*;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 public class DatabaseHelper {
     private static final Logger logger = LogManager.getLogger(DatabaseHelper.class);
+    private static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+    private static final int DEFAULT_STREAMING_FETCH_SIZE = 1000;
+    private static final int DEFAULT_TIMING_SAMPLES = 5;
+    private static final int DEFAULT_BULK_CHUNK_SIZE = 1000;
+    private static final int DEFAULT_BULK_ROWS_PER_STATEMENT = 100;
+    private static final Pattern DDL = Pattern.compile("\\s*(CREATE|ALTER|DROP|RENAME|TRUNCATE)\\b", Pattern.CASE_INSENSITIVE);
+    // Marks a transaction level opened by switching autocommit off rather than by a savepoint
+    private static final Savepoint OUTERMOST = new Savepoint() {
+        @Override
+        public int getSavepointId() {
+            return 0;
+        }
+
+        @Override
+        public String getSavepointName() {
+            return "outermost";
+        }
+    };
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_$]*(\\.[A-Za-z_][A-Za-z0-9_$]*)?");
     private Connection connection;
+    private ConnectionPool pool;
+    private String owner = "unpooled";
+    private StatementCache statementCache;
+    private ResultSet openResultSet;
+    private long statementCacheHitsAtStart;
+    private long statementCacheMissesAtStart;
+    private int streamingFetchSize = DEFAULT_STREAMING_FETCH_SIZE;
+    private Boolean mysqlRowStreaming;
+    private int bulkChunkSize = DEFAULT_BULK_CHUNK_SIZE;
+    private int bulkRowsPerStatement = DEFAULT_BULK_ROWS_PER_STATEMENT;
+    private boolean bulkLoadDataLocalInfile;
+    // One entry per open transaction level: null for the outermost one started here, else its savepoint
+    private final Deque<Savepoint> transactionLevels = new ArrayDeque<>();
+    private boolean isolated;
+    private boolean schemaChanged;
+    // True once the connection works on a clone of the template schema, which is rebuilt after DDL
+    private boolean schemaCloned;
+    private String originalCatalog;
 
     public DatabaseHelper(String url, String username, String password) {
         try {
             connection = DriverManager.getConnection(url, username, password);
+            statementCache = new StatementCache(connection, DEFAULT_STATEMENT_CACHE_SIZE);
+        } catch (SQLException e) {
+            logger.error("Database connection failed: {}", url, e);
+            SoftAssertions.abort("Database connection failed: {}", url);
+        }
+    }
+
+    // Borrows a connection from the suite pool; closeConnection returns it instead of closing it
+    public DatabaseHelper(ConnectionPool pool, String owner) {
+        try {
+            this.pool = pool;
+            this.owner = owner;
+            StepTimings.Operation timing = StepTimings.beginStatement("connection pool borrow");
+            this.connection = pool.borrow(owner);
+            timing.lap("borrow");
+            timing.end();
+            this.statementCache = pool.getStatementCache(connection);
+            this.statementCacheHitsAtStart = statementCache.getHits();
+            this.statementCacheMissesAtStart = statementCache.getMisses();
         } catch (SQLException e) {
-            logger.error("Database connection failed: " + url, e);
-            Assert.fail("Database connection failed: " + url);
+            logger.error("Borrowing a pooled database connection failed for: {}", owner, e);
+            SoftAssertions.abort("Borrowing a pooled database connection failed for: {}", owner);
         }
     }
 
+    // The returned result set stays open until the next executeQuery call or until the connection is closed.
+    // It runs on its own statement rather than a cached one, so running the same SQL again elsewhere
+    // cannot close a result set the caller still reads.
     public ResultSet executeQuery(String query) {
+        long start = System.nanoTime();
         try {
+            closeOpenResultSet();
+            checkSchemaChange(query);
             Statement statement = connection.createStatement();
-            return statement.executeQuery(query);
+            statement.closeOnCompletion();
+            openResultSet = statement.executeQuery(query);
+            recordQuery(query, start, 0, false);
+            return openResultSet;
         } catch (SQLException e) {
-            logger.error("Error executing query: " + query, e);
-            Assert.fail("Error executing query: " + query);
+            recordQuery(query, start, 0, true);
+            logger.error("Error executing query: {}", query, e);
+            SoftAssertions.abort("Error executing query: {}", query);
             return null;
         }
     }
 
     public boolean executeUpdate(String query) {
+        StepTimings.Operation timing = StepTimings.beginStatement(query);
+        long start = System.nanoTime();
         try {
-            Statement statement = connection.createStatement();
-            int result = statement.executeUpdate(query);
+            checkSchemaChange(query);
+            int result;
+            if (DDL.matcher(query).lookingAt()) {
+                // DDL is not worth caching and some drivers cannot prepare it
+                try (Statement statement = connection.createStatement()) {
+                    result = statement.executeUpdate(query);
+                }
+            } else {
+                result = statementCache.prepare(query).executeUpdate();
+            }
+            timing.lap("execute");
+            recordQuery(query, start, result, false);
             return result > 0;
         } catch (SQLException e) {
-            logger.error("Error executing update: " + query, e);
-            Assert.fail("Error executing update: " + query);
+            recordQuery(query, start, 0, true);
+            logger.error("Error executing update: {}", query, e);
+            SoftAssertions.abort("Error executing update: {}", query);
             return false;
+        } finally {
+            timing.end();
         }
     }
 
+    // Nested calls open savepoints, so an inner rollback only undoes the work since the matching start.
+    // Under scenario isolation the outermost level is the scenario transaction, which is never committed.
     public void startTransaction() {
         try {
             if (connection != null) {
-                connection.setAutoCommit(false);
+                if (connection.getAutoCommit()) {
+                    connection.setAutoCommit(false);
+                    transactionLevels.push(OUTERMOST);
+                } else {
+                    transactionLevels.push(connection.setSavepoint());
+                }
             }
         } catch (SQLException e) {
             logger.error("Error starting a transaction.", e);
-            Assert.fail("Error starting a transaction.");
+            SoftAssertions.abort("Error starting a transaction.");
         }
     }
 
     public void commitTransaction() {
         try {
             if (connection != null) {
-                connection.commit();
+                Savepoint level = transactionLevels.poll();
+                if (level == null && isolated) {
+                    logger.debug("Commit ignored: scenario changes are rolled back at the end of the scenario");
+                } else if (level == null || level == OUTERMOST) {
+                    connection.commit();
+                    if (level == OUTERMOST) {
+                        connection.setAutoCommit(true);
+                    }
+                } else {
+                    connection.releaseSavepoint(level);
+                }
             }
         } catch (SQLException e) {
             logger.error("Error committing transaction.", e);
-            Assert.fail("Error committing transaction.");
+            SoftAssertions.abort("Error committing transaction.");
         }
     }
 
     public void rollbackTransaction() {
         try {
             if (connection != null) {
-                connection.rollback();
+                Savepoint level = transactionLevels.poll();
+                if (level == null || level == OUTERMOST) {
+                    connection.rollback();
+                    if (level == OUTERMOST) {
+                        connection.setAutoCommit(true);
+                    }
+                } else {
+                    connection.rollback(level);
+                }
             }
         } catch (SQLException e) {
             logger.error("Error rolling back transaction.", e);
-            Assert.fail("Error rolling back transaction.");
+            SoftAssertions.abort("Error rolling back transaction.");
+        }
+    }
+
+    // Runs the rest of the scenario in one transaction that endIsolation always rolls back
+    public void beginIsolation() {
+        try {
+            closeOpenResultSet();
+            connection.setAutoCommit(false);
+            transactionLevels.clear();
+            isolated = true;
+            schemaChanged = false;
+        } catch (SQLException e) {
+            logger.error("Error starting scenario isolation.", e);
+            SoftAssertions.abort("Error starting scenario isolation.");
         }
     }
 
+    public void endIsolation() {
+        try {
+            closeOpenResultSet();
+            transactionLevels.clear();
+            if (isolated) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+                isolated = false;
+            }
+        } catch (SQLException e) {
+            logger.error("Error rolling back scenario isolation.", e);
+            SoftAssertions.abort("Error rolling back scenario isolation.");
+        }
+    }
+
+    // Points the connection at the calling thread's clone of the template schema
+    public String useSchemaClone(String templateSchema) {
+        try {
+            String clone = SchemaCloner.cloneForCurrentThread(connection, templateSchema);
+            if (originalCatalog == null) {
+                originalCatalog = connection.getCatalog();
+            }
+            connection.setCatalog(clone);
+            schemaCloned = true;
+            return clone;
+        } catch (SQLException | IllegalArgumentException e) {
+            logger.error("Error preparing a clone of schema: {}", templateSchema, e);
+            SoftAssertions.abort("Error preparing a clone of schema: {}: {}", templateSchema, e.getMessage());
+            return null;
+        }
+    }
+
+    public void rebuildSchemaClone(String templateSchema) {
+        try {
+            SchemaCloner.rebuild(connection, templateSchema, connection.getCatalog());
+            schemaChanged = false;
+        } catch (SQLException | IllegalArgumentException e) {
+            logger.error("Error rebuilding the clone of schema: {}", templateSchema, e);
+            SoftAssertions.abort("Error rebuilding the clone of schema: {}: {}", templateSchema, e.getMessage());
+        }
+    }
+
+    // True when DDL ran through this helper; DDL commits implicitly, so rolling back cannot undo it
+    public boolean isSchemaChanged() {
+        return schemaChanged;
+    }
+
     public void closeConnection() {
         try {
-            if (connection != null && !connection.isClosed()) {
+            closeOpenResultSet();
+            if (originalCatalog != null && connection != null && !connection.isClosed()) {
+                connection.setCatalog(originalCatalog);
+                originalCatalog = null;
+            }
+            if (pool != null) {
+                pool.release(connection);
+                connection = null;
+            } else if (connection != null && !connection.isClosed()) {
+                statementCache.close();
                 connection.close();
             }
         } catch (SQLException e) {
             logger.error("Error closing the database connection.", e);
-            Assert.fail("Error closing the database connection.");
+            SoftAssertions.abort("Error closing the database connection.");
         }
     }
 
@@ -95,15 +282,16 @@ public class DatabaseHelper {
             return connection != null && !connection.isClosed();
         } catch (SQLException e) {
             logger.error("Error checking if connection is valid.", e);
-            Assert.fail("Error checking if connection is valid.");
+            SoftAssertions.abort("Error checking if connection is valid.");
             return false;
         }
     }
 
     public List<Object[]> executeQueryAndGetResults(String query) {
-        try {
-            Statement statement = connection.createStatement();
-            ResultSet rs = statement.executeQuery(query);
+        StepTimings.Operation timing = StepTimings.beginStatement(query);
+        long start = System.nanoTime();
+        try (ResultSet rs = statementCache.prepare(query).executeQuery()) {
+            timing.lap("execute");
             ResultSetMetaData metaData = rs.getMetaData();
             int columns = metaData.getColumnCount();
             List<Object[]> results = new ArrayList<>();
@@ -115,69 +303,131 @@ public class DatabaseHelper {
                 }
                 results.add(row);
             }
+            timing.lap("fetch");
+            recordQuery(query, start, results.size(), false);
             return results;
         } catch (SQLException e) {
-            logger.error("Error executing query and retrieving results: " + query, e);
-            Assert.fail("Error executing query and retrieving results: " + query);
+            recordQuery(query, start, 0, true);
+            logger.error("Error executing query and retrieving results: {}", query, e);
+            SoftAssertions.abort("Error executing query and retrieving results: {}", query);
             return null;
+        } finally {
+            timing.end();
         }
     }
 
     public boolean checkIfRowExists(String query) {
-        try {
-            Statement statement = connection.createStatement();
-            ResultSet rs = statement.executeQuery(query);
-            return rs.next();
+        long start = System.nanoTime();
+        try (ResultSet rs = statementCache.prepare(query).executeQuery()) {
+            boolean exists = rs.next();
+            recordQuery(query, start, exists ? 1 : 0, false);
+            return exists;
         } catch (SQLException e) {
-            logger.error("Error checking if row exists for query: " + query, e);
-            Assert.fail("Error checking if row exists for query: " + query);
+            recordQuery(query, start, 0, true);
+            logger.error("Error checking if row exists for query: {}", query, e);
+            SoftAssertions.abort("Error checking if row exists for query: {}", query);
             return false;
         }
     }
 
+    // Counts on the server with COUNT(*) when the query allows it, otherwise streams and counts the rows
     public int getRowCount(String query) {
-        try {
-            Statement statement = connection.createStatement();
-            ResultSet rs = statement.executeQuery(query);
-            int rowCount = 0;
-            while (rs.next()) {
-                rowCount++;
+        String countQuery = toCountQuery(query);
+        if (countQuery != null) {
+            long start = System.nanoTime();
+            try (ResultSet rs = statementCache.prepare(countQuery).executeQuery()) {
+                if (rs.next()) {
+                    recordQuery(query, start, 1, false);
+                    return rs.getInt(1);
+                }
+            } catch (SQLException e) {
+                recordQuery(query, start, 0, true);
+                logger.error("Error counting rows of query: {}", query, e);
+                SoftAssertions.abort("Error counting rows of query: {}: {}", query, e.getMessage());
             }
-            return rowCount;
+        }
+        RowVisitor.Counter counter = RowVisitor.count();
+        streamQuery(query, Map.of(), counter);
+        return (int) counter.getRows();
+    }
+
+    public long streamQuery(String query, Map<String, ?> parameters, RowVisitor visitor) {
+        return streamQuery(query, parameters, visitor, 0);
+    }
+
+    // Runs a forward-only, read-only query and hands each row to the visitor without keeping it;
+    // maxRows limits the rows the server sends (0 means no limit)
+    public long streamQuery(String query, Map<String, ?> parameters, RowVisitor visitor, int maxRows) {
+        NamedQuery namedQuery = NamedQuery.compile(query);
+        closeOpenResultSet();
+        StepTimings.Operation timing = StepTimings.beginStatement(query);
+        long start = System.nanoTime();
+        try (PreparedStatement preparedStatement = connection.prepareStatement(namedQuery.getSql(),
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            preparedStatement.setFetchSize(getStreamingFetchSize());
+            preparedStatement.setMaxRows(maxRows);
+            namedQuery.bind(preparedStatement, parameters);
+            long rows = 0;
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                timing.lap("execute");
+                while (rs.next()) {
+                    rows++;
+                    if (!visitor.visit(rs)) {
+                        break;
+                    }
+                }
+                timing.lap("fetch");
+            }
+            recordQuery(query, start, rows, false);
+            return rows;
         } catch (SQLException e) {
-            logger.error("Error getting row count for query: " + query, e);
-            Assert.fail("Error getting row count for query: " + query);
+            recordQuery(query, start, 0, true);
+            logger.error("Error streaming query: {}", query, e);
+            SoftAssertions.abort("Error streaming query: {}", query);
             return -1;
+        } finally {
+            timing.end();
         }
     }
 
+    // Fetch size used when the driver supports cursor based fetching
+    public void setStreamingFetchSize(int streamingFetchSize) {
+        this.streamingFetchSize = streamingFetchSize;
+    }
+
     public boolean executeBatchUpdate(List<String> queries) {
-        try {
-            Statement statement = connection.createStatement();
+        long start = System.nanoTime();
+        try (Statement statement = connection.createStatement()) {
+            int batched = 0;
             for (String query : queries) {
+                checkSchemaChange(query);
                 statement.addBatch(query);
+                // Long batches are sent in chunks so the driver never buffers all of them at once
+                if (++batched % bulkChunkSize == 0) {
+                    statement.executeBatch();
+                }
             }
             statement.executeBatch();
+            recordQuery(queries, start, 0, false);
             return true;
         } catch (SQLException e) {
+            recordQuery(queries, start, 0, true);
             logger.error("Error executing batch update", e);
-            Assert.fail("Error executing batch update");
+            SoftAssertions.abort("Error executing batch update");
             return false;
         }
     }
 
     public boolean verifyColumnValue(String query, String columnName, Object expectedValue) {
-        try {
-            Statement statement = connection.createStatement();
-            ResultSet rs = statement.executeQuery(query);
+        try (ResultSet rs = statementCache.prepare(query).executeQuery()) {
             if (rs.next()) {
                 Object actualValue = rs.getObject(columnName);
                 return expectedValue.equals(actualValue);
             }
             return false;
         } catch (SQLException e) {
-            logger.error("Error verifying column value for query: " + query, e);
-            Assert.fail("Error verifying column value for query: " + query);
+            logger.error("Error verifying column value for query: {}", query, e);
+            SoftAssertions.abort("Error verifying column value for query: {}", query);
             return false;
         }
     }
@@ -185,13 +435,15 @@ public class DatabaseHelper {
     // Method to check if a specific table exists in the database
     public boolean verifyTableExistence(String tableName) {
         String query = "SELECT * FROM information_schema.tables WHERE table_name = ?";
-        try (PreparedStatement preparedStatement = connection.prepareStatement(query)) {
+        try {
+            PreparedStatement preparedStatement = statementCache.prepare(query);
             preparedStatement.setString(1, tableName);
-            ResultSet rs = preparedStatement.executeQuery();
-            return rs.next();
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                return rs.next();
+            }
         } catch (SQLException e) {
-            logger.error("Error verifying table existence: " + tableName, e);
-            Assert.fail("Error verifying table existence: " + tableName);
+            logger.error("Error verifying table existence: {}", tableName, e);
+            SoftAssertions.abort("Error verifying table existence: {}", tableName);
             return false;
         }
     }
@@ -199,18 +451,20 @@ public class DatabaseHelper {
     // Method to retrieve the data type of specific column in a table
     public String getColumnDataType(String tableName, String columnName) {
         String query = "SELECT DATA_TYPE FROM information_schema.COLUMNS WHERE TABLE_NAME = ? AND COLUMN_NAME = ?";
-        try (PreparedStatement preparedStatement = connection.prepareStatement(query)) {
+        try {
+            PreparedStatement preparedStatement = statementCache.prepare(query);
             preparedStatement.setString(1, tableName);
             preparedStatement.setString(2, columnName);
-            ResultSet rs = preparedStatement.executeQuery();
-            if (rs.next()) {
-                return rs.getString("DATA_TYPE");
-            } else {
-                return null;
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getString("DATA_TYPE");
+                } else {
+                    return null;
+                }
             }
         } catch (SQLException e) {
-            logger.error("Error getting column data type for " + columnName + " in " + tableName, e);
-            Assert.fail("Error getting column data type for " + columnName + " in " + tableName);
+            logger.error("Error getting column data type for {} in {}", columnName, tableName, e);
+            SoftAssertions.abort("Error getting column data type for {} in {}", columnName, tableName);
             return null;
         }
     }
@@ -220,14 +474,16 @@ public class DatabaseHelper {
         String query = "SELECT * FROM information_schema.table_constraints tc INNER JOIN " +
                 "information_schema.key_column_usage kcu ON tc.constraint_name = kcu.constraint_name " +
                 "WHERE tc.table_name = ? AND kcu.column_name = ? AND tc.constraint_type = 'PRIMARY KEY'";
-        try (PreparedStatement preparedStatement = connection.prepareStatement(query)) {
+        try {
+            PreparedStatement preparedStatement = statementCache.prepare(query);
             preparedStatement.setString(1, tableName);
             preparedStatement.setString(2, columnName);
-            ResultSet rs = preparedStatement.executeQuery();
-            return rs.next();
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                return rs.next();
+            }
         } catch (SQLException e) {
-            logger.error("Error verifying primary key for " + columnName + " in " + tableName, e);
-            Assert.fail("Error verifying primary key for " + columnName + " in " + tableName);
+            logger.error("Error verifying primary key for {} in {}", columnName, tableName, e);
+            SoftAssertions.abort("Error verifying primary key for {} in {}", columnName, tableName);
             return false;
         }
     }
@@ -238,52 +494,121 @@ public class DatabaseHelper {
                 "information_schema.key_column_usage kcu ON tc.constraint_name = kcu.constraint_name " +
                 "WHERE tc.table_name = ? AND tc.constraint_type = 'UNIQUE'";
         List<String> columns = new ArrayList<>();
-        try (PreparedStatement preparedStatement = connection.prepareStatement(query)) {
+        try {
+            PreparedStatement preparedStatement = statementCache.prepare(query);
             preparedStatement.setString(1, tableName);
-            ResultSet rs = preparedStatement.executeQuery();
-            while (rs.next()) {
-                columns.add(rs.getString("column_name"));
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                while (rs.next()) {
+                    columns.add(rs.getString("column_name"));
+                }
             }
         } catch (SQLException e) {
-            logger.error("Error getting unique constraint columns for table: " + tableName, e);
-            Assert.fail("Error getting unique constraint columns for table: " + tableName);
+            logger.error("Error getting unique constraint columns for table: {}", tableName, e);
+            SoftAssertions.abort("Error getting unique constraint columns for table: {}", tableName);
         }
         return columns;
     }
 
+    // Positional parameters are bound to named placeholders in order of their first appearance
     public List<Object[]> executePreparedQuery(String query, Object... parameters) {
+        NamedQuery namedQuery = NamedQuery.compile(query);
+        if (!namedQuery.getParameterNames().isEmpty()) {
+            return executeNamedQuery(query, namedQuery.toNamedValues(parameters));
+        }
         List<Object[]> results = new ArrayList<>();
-        try (PreparedStatement preparedStatement = connection.prepareStatement(query)) {
+        StepTimings.Operation timing = StepTimings.beginStatement(query);
+        long start = System.nanoTime();
+        try {
+            PreparedStatement preparedStatement = statementCache.prepare(query);
             for (int i = 0; i < parameters.length; i++) {
                 preparedStatement.setObject(i + 1, parameters[i]);
             }
-            ResultSet rs = preparedStatement.executeQuery();
-            ResultSetMetaData metaData = rs.getMetaData();
-            int columns = metaData.getColumnCount();
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                timing.lap("execute");
+                ResultSetMetaData metaData = rs.getMetaData();
+                int columns = metaData.getColumnCount();
 
-            while (rs.next()) {
-                Object[] row = new Object[columns];
-                for (int i = 1; i <= columns; i++) {
-                    row[i - 1] = rs.getObject(i);
+                while (rs.next()) {
+                    Object[] row = new Object[columns];
+                    for (int i = 1; i <= columns; i++) {
+                        row[i - 1] = rs.getObject(i);
+                    }
+                    results.add(row);
                 }
-                results.add(row);
+                timing.lap("fetch");
             }
+            recordQuery(query, start, results.size(), false);
         } catch (SQLException e) {
-            logger.error("Error executing prepared query: " + query, e);
-            Assert.fail("Error executing prepared query: " + query);
+            recordQuery(query, start, 0, true);
+            logger.error("Error executing prepared query: {}", query, e);
+            SoftAssertions.abort("Error executing prepared query: {}", query);
+        } finally {
+            timing.end();
         }
         return results;
     }
 
+    public List<Object[]> executeNamedQuery(String query, Map<String, ?> parameters) {
+        NamedQuery namedQuery = NamedQuery.compile(query);
+        StepTimings.Operation timing = StepTimings.beginStatement(query);
+        long start = System.nanoTime();
+        try {
+            PreparedStatement preparedStatement = statementCache.prepare(namedQuery.getSql());
+            namedQuery.bind(preparedStatement, parameters);
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                timing.lap("execute");
+                List<Object[]> rows = readRows(rs);
+                timing.lap("fetch");
+                recordQuery(query, start, rows.size(), false);
+                return rows;
+            }
+        } catch (SQLException e) {
+            recordQuery(query, start, 0, true);
+            logger.error("Error executing named query: {} with parameters {}", query, parameters, e);
+            SoftAssertions.abort("Error executing named query: {} with parameters {}", query, parameters);
+            return null;
+        } finally {
+            timing.end();
+        }
+    }
+
+    public boolean executeNamedUpdate(String query, Map<String, ?> parameters) {
+        NamedQuery namedQuery = NamedQuery.compile(query);
+        StepTimings.Operation timing = StepTimings.beginStatement(query);
+        long start = System.nanoTime();
+        try {
+            checkSchemaChange(query);
+            PreparedStatement preparedStatement = statementCache.prepare(namedQuery.getSql());
+            namedQuery.bind(preparedStatement, parameters);
+            int updated = preparedStatement.executeUpdate();
+            timing.lap("execute");
+            recordQuery(query, start, updated, false);
+            return updated > 0;
+        } catch (SQLException e) {
+            recordQuery(query, start, 0, true);
+            logger.error("Error executing named update: {} with parameters {}", query, parameters, e);
+            SoftAssertions.abort("Error executing named update: {} with parameters {}", query, parameters);
+            return false;
+        } finally {
+            timing.end();
+        }
+    }
+
+    // Only DDL written in the call itself is seen by checkSchemaChange, not DDL inside a procedure body
     public boolean executeCallableStatement(String procedureCall, Object... parameters) {
+        checkSchemaChange(procedureCall);
+        long start = System.nanoTime();
         try (CallableStatement callableStatement = connection.prepareCall(procedureCall)) {
             for (int i = 0; i < parameters.length; i++) {
                 callableStatement.setObject(i + 1, parameters[i]);
             }
-            return callableStatement.execute();
+            boolean hasResultSet = callableStatement.execute();
+            recordQuery(procedureCall, start, 0, false);
+            return hasResultSet;
         } catch (SQLException e) {
-            logger.error("Error executing callable statement: " + procedureCall, e);
-            Assert.fail("Error executing callable statement: " + procedureCall);
+            recordQuery(procedureCall, start, 0, true);
+            logger.error("Error executing callable statement: {}", procedureCall, e);
+            SoftAssertions.abort("Error executing callable statement: {}", procedureCall);
             return false;
         }
     }
@@ -293,7 +618,7 @@ public class DatabaseHelper {
             return connection.getMetaData();
         } catch (SQLException e) {
             logger.error("Error retrieving database metadata", e);
-            Assert.fail("Error retrieving database metadata");
+            SoftAssertions.abort("Error retrieving database metadata");
             return null;
         }
     }
@@ -304,8 +629,8 @@ public class DatabaseHelper {
              ResultSet rs = statement.executeQuery(query)) {
             return rs.getMetaData();
         } catch (SQLException e) {
-            logger.error("Error retrieving metadata for table: " + tableName, e);
-            Assert.fail("Error retrieving metadata for table: " + tableName);
+            logger.error("Error retrieving metadata for table: {}", tableName, e);
+            SoftAssertions.abort("Error retrieving metadata for table: {}", tableName);
             return null;
         }
     }
@@ -318,44 +643,121 @@ public class DatabaseHelper {
             }
         } catch (SQLException e) {
             logger.error("Error listing all tables", e);
-            Assert.fail("Error listing all tables");
+            SoftAssertions.abort("Error listing all tables");
         }
         return tables;
     }
 
     public long getExecutionTimeForQuery(String query) {
-        long startTime = System.currentTimeMillis();
-        try (Statement statement = connection.createStatement()) {
-            statement.execute(query);
+        return getExecutionTimeForQuery(query, DEFAULT_TIMING_SAMPLES);
+    }
+
+    // Median execution time in milliseconds over several runs, after one unmeasured warmup run;
+    // each run includes fetching every row
+    public long getExecutionTimeForQuery(String query, int samples) {
+        long[] timings = new long[Math.max(1, samples)];
+        try {
+            PreparedStatement preparedStatement = statementCache.prepare(query);
+            executeAndDrain(preparedStatement);
+            for (int i = 0; i < timings.length; i++) {
+                long start = System.nanoTime();
+                executeAndDrain(preparedStatement);
+                timings[i] = System.nanoTime() - start;
+            }
         } catch (SQLException e) {
-            logger.error("Error executing query for performance testing: " + query, e);
-            Assert.fail("Error executing query for performance testing: " + query);
+            logger.error("Error executing query for performance testing: {}", query, e);
+            SoftAssertions.abort("Error executing query for performance testing: {}", query);
         }
-        return System.currentTimeMillis() - startTime;
+        Arrays.sort(timings);
+        return TimeUnit.NANOSECONDS.toMillis(timings[timings.length / 2]);
     }
 
-    public void runLoadTest(String query, int numberOfExecutions) {
-        try (Statement statement = connection.createStatement()) {
-            for (int i = 0; i < numberOfExecutions; i++) {
-                statement.execute(query);
+    public LoadTestResult runLoadTest(String query, int numberOfExecutions) {
+        return runLoadTest(query, numberOfExecutions, 0, 1, 0, 0);
+    }
+
+    // Runs the query from concurrent workers, each on its own pooled connection. targetRate 0 means
+    // closed loop (every worker runs back to back); executions or durationMillis 0 means no limit
+    public LoadTestResult runLoadTest(String query, long executions, long durationMillis,
+                                      int workers, double targetRate, long warmupExecutions) {
+        if (pool == null && workers > 1) {
+            logger.error("A load test with {} workers needs a pooled DatabaseHelper", workers);
+            SoftAssertions.abort("A load test with {} workers needs a pooled DatabaseHelper", workers);
+            return null;
+        }
+        if (pool != null) {
+            // This scenario already holds one connection of the pool
+            int available = pool.getMaxSize() - 1;
+            if (workers > available) {
+                logger.error("A load test with {} workers needs more connections than the pool has ({} of {} are free for workers)",
+                        workers, available, pool.getMaxSize());
+                SoftAssertions.abort("A load test with {} workers needs more connections than the pool has ({} of {} are free for workers)",
+                        workers, available, pool.getMaxSize());
+                return null;
             }
-        } catch (SQLException e) {
-            logger.error("Error running load test with query: " + query, e);
-            Assert.fail("Error running load test with query: " + query);
+            int idle = pool.getMaxSize() - pool.getStats().getActive();
+            if (workers > idle) {
+                logger.warn("Load test workers will wait for connections: {} workers, {} connections free", workers, idle);
+            }
+        }
+        closeOpenResultSet();
+        LoadGenerator generator = new LoadGenerator(workers, targetRate, warmupExecutions);
+        try {
+            LoadTestResult result = generator.run(workerIndex -> {
+                Connection workerConnection = pool == null ? connection : pool.borrow(owner + " [load worker " + workerIndex + "]");
+                PreparedStatement preparedStatement;
+                try {
+                    preparedStatement = workerConnection.prepareStatement(query);
+                } catch (SQLException | RuntimeException e) {
+                    // The worker is never created, so nothing else would return its connection
+                    if (pool != null) {
+                        pool.release(workerConnection);
+                    }
+                    throw e;
+                }
+                return new LoadGenerator.Worker() {
+                    @Override
+                    public void execute() throws SQLException {
+                        executeAndDrain(preparedStatement);
+                    }
+
+                    @Override
+                    public void close() throws SQLException {
+                        try {
+                            preparedStatement.close();
+                        } finally {
+                            if (pool != null) {
+                                pool.release(workerConnection);
+                            }
+                        }
+                    }
+                };
+            }, executions, durationMillis);
+            logger.info("Load test {}: {}", query, result);
+            return result;
+        } catch (RuntimeException e) {
+            logger.error("Error running load test with query: {}", query, e);
+            SoftAssertions.abort("Error running load test with query: {}", query);
+            return null;
         }
     }
 
     public void truncateTable(String tableName) {
-        String query = "TRUNCATE TABLE " + tableName;
+        requireIdentifier(tableName);
+        // TRUNCATE commits implicitly; under scenario isolation a DELETE keeps the change inside the transaction
+        String query = (isolated ? "DELETE FROM " : "TRUNCATE TABLE ") + tableName;
+        checkSchemaChange(query);
         try (Statement statement = connection.createStatement()) {
             statement.execute(query);
         } catch (SQLException e) {
-            logger.error("Error truncating table: " + tableName, e);
-            Assert.fail("Error truncating table: " + tableName);
+            logger.error("Error truncating table: {}", tableName, e);
+            SoftAssertions.abort("Error truncating table: {}", tableName);
         }
     }
 
     public void insertTestData(String tableName, Map<String, Object> data) {
+        requireIdentifier(tableName);
+        data.keySet().forEach(DatabaseHelper::requireIdentifier);
         StringBuilder columns = new StringBuilder();
         StringBuilder values = new StringBuilder();
         for (String key : data.keySet()) {
@@ -365,25 +767,157 @@ public class DatabaseHelper {
         columns.setLength(columns.length() - 1); // Remove last comma
         values.setLength(values.length() - 1);   // Remove last comma
         String query = "INSERT INTO " + tableName + " (" + columns + ") VALUES (" + values + ")";
-        try (PreparedStatement preparedStatement = connection.prepareStatement(query)) {
+        try {
+            PreparedStatement preparedStatement = statementCache.prepare(query);
             int index = 1;
             for (Object value : data.values()) {
                 preparedStatement.setObject(index++, value);
             }
             preparedStatement.executeUpdate();
         } catch (SQLException e) {
-            logger.error("Error inserting test data into table: " + tableName, e);
-            Assert.fail("Error inserting test data into table: " + tableName);
+            logger.error("Error inserting test data into table: {}", tableName, e);
+            SoftAssertions.abort("Error inserting test data into table: {}", tableName);
+        }
+    }
+
+    // chunkSize rows are committed per transaction and sent as multi-row INSERTs of rowsPerStatement rows;
+    // loadDataLocalInfile switches MySQL loads to LOAD DATA LOCAL INFILE
+    public void setBulkInsertOptions(int chunkSize, int rowsPerStatement, boolean loadDataLocalInfile) {
+        this.bulkChunkSize = Math.max(1, chunkSize);
+        this.bulkRowsPerStatement = Math.max(1, rowsPerStatement);
+        this.bulkLoadDataLocalInfile = loadDataLocalInfile;
+    }
+
+    public BulkInsert.Result bulkInsert(String tableName, List<String> columns, Iterable<Object[]> rows) {
+        requireIdentifier(tableName);
+        columns.forEach(DatabaseHelper::requireIdentifier);
+        try (BulkInsert bulkInsert = newBulkInsert(tableName, columns)) {
+            for (Object[] row : rows) {
+                bulkInsert.add(row);
+            }
+            BulkInsert.Result result = bulkInsert.finish();
+            logger.info("Bulk insert {}", result);
+            return result;
+        } catch (SQLException | IllegalArgumentException e) {
+            logger.error("Error bulk inserting into table: {}", tableName, e);
+            SoftAssertions.abort("Error bulk inserting into table: {}: {}", tableName, e.getMessage());
+            return null;
+        }
+    }
+
+    // Streams a CSV or XLSX file into the table; the header row names the columns. Values are typed like
+    // named query parameters and empty cells are inserted as NULL.
+    public BulkInsert.Result bulkInsertFromFile(String tableName, Path dataFile) {
+        requireIdentifier(tableName);
+        BulkInsert[] bulkInsert = new BulkInsert[1];
+        try {
+            DataFileReader.read(dataFile, (rowNumber, values) -> {
+                if (bulkInsert[0] == null) {
+                    values.keySet().forEach(DatabaseHelper::requireIdentifier);
+                    bulkInsert[0] = newBulkInsert(tableName, new ArrayList<>(values.keySet()));
+                }
+                Object[] row = new Object[values.size()];
+                int i = 0;
+                for (String value : values.values()) {
+                    row[i++] = value.isEmpty() ? null : NamedQuery.convertValue(value);
+                }
+                bulkInsert[0].add(row);
+                return true;
+            });
+            if (bulkInsert[0] == null) {
+                return new BulkInsert.Result(tableName, 0, 0, 0, bulkLoadDataLocalInfile);
+            }
+            BulkInsert.Result result = bulkInsert[0].finish();
+            logger.info("Bulk insert from {}: {}", dataFile, result);
+            return result;
+        } catch (Exception e) {
+            logger.error("Error bulk inserting {} into table: {}", dataFile, tableName, e);
+            SoftAssertions.abort("Error bulk inserting {} into table: {}: {}", dataFile, tableName, e.getMessage());
+            return null;
+        } finally {
+            closeQuietly(bulkInsert[0]);
         }
     }
 
-    public void deleteTestData(String tableName, String condition) {
+    // Loads a YAML fixture whose top-level keys are table names, each holding a list of rows (column: value);
+    // tables are loaded in file order and every row must use columns of the table's first row. The whole
+    // fixture is one transaction (a savepoint under scenario isolation), so a failing table leaves none loaded.
+    public List<BulkInsert.Result> loadFixture(Path fixtureFile) {
+        List<BulkInsert.Result> results = new ArrayList<>();
+        Map<String, List<Map<String, Object>>> tables;
+        try (Reader reader = Files.newBufferedReader(fixtureFile, StandardCharsets.UTF_8)) {
+            tables = new Yaml().load(reader);
+        } catch (IOException e) {
+            logger.error("Error reading fixture: {}", fixtureFile, e);
+            SoftAssertions.abort("Error reading fixture: {}", fixtureFile);
+            return results;
+        }
+        if (tables == null) {
+            return results;
+        }
+        // Checked for every table before anything is inserted
+        Map<String, List<String>> columnsByTable = new LinkedHashMap<>();
+        Map<String, List<Object[]>> valuesByTable = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Map<String, Object>>> table : tables.entrySet()) {
+            List<Map<String, Object>> rows = table.getValue();
+            if (rows == null || rows.isEmpty()) {
+                continue;
+            }
+            List<String> columns = new ArrayList<>(rows.get(0).keySet());
+            List<Object[]> values = new ArrayList<>(rows.size());
+            for (Map<String, Object> row : rows) {
+                if (!columns.containsAll(row.keySet())) {
+                    SoftAssertions.abort("Fixture {} has a row in {} with columns that are not in its first row: {}",
+                            fixtureFile, table.getKey(), row.keySet());
+                }
+                values.add(columns.stream().map(row::get).toArray());
+            }
+            columnsByTable.put(table.getKey(), columns);
+            valuesByTable.put(table.getKey(), values);
+        }
+        startTransaction();
+        boolean loaded = false;
+        try {
+            for (Map.Entry<String, List<String>> table : columnsByTable.entrySet()) {
+                results.add(bulkInsert(table.getKey(), table.getValue(), valuesByTable.get(table.getKey())));
+            }
+            loaded = true;
+        } finally {
+            if (loaded) {
+                commitTransaction();
+            } else {
+                logger.error("Rolling back fixture {}", fixtureFile);
+                rollbackTransaction();
+            }
+        }
+        return results;
+    }
+
+    // Deletes the rows whose column equals the value, which is bound as a parameter
+    public int deleteTestData(String tableName, String column, Object value) {
+        Map<String, Object> keyValues = new LinkedHashMap<>();
+        keyValues.put(column, value);
+        return deleteTestData(tableName, keyValues);
+    }
+
+    // Deletes the rows whose columns equal the given values; values are bound, never concatenated
+    public int deleteTestData(String tableName, Map<String, ?> keyValues) {
+        requireIdentifier(tableName);
+        StringBuilder condition = new StringBuilder();
+        for (String column : keyValues.keySet()) {
+            requireIdentifier(column);
+            condition.append(condition.length() == 0 ? "" : " AND ").append(column).append(" = :").append(column);
+        }
         String query = "DELETE FROM " + tableName + " WHERE " + condition;
-        try (Statement statement = connection.createStatement()) {
-            statement.execute(query);
+        NamedQuery namedQuery = NamedQuery.compile(query);
+        try {
+            PreparedStatement preparedStatement = statementCache.prepare(namedQuery.getSql());
+            namedQuery.bind(preparedStatement, keyValues);
+            return preparedStatement.executeUpdate();
         } catch (SQLException e) {
-            logger.error("Error deleting test data from table: " + tableName, e);
-            Assert.fail("Error deleting test data from table: " + tableName);
+            logger.error("Error deleting test data from table: {}", tableName, e);
+            SoftAssertions.abort("Error deleting test data from table: {}", tableName);
+            return -1;
         }
     }
 
@@ -409,18 +943,147 @@ public class DatabaseHelper {
     }
 
     public boolean compareTableData(String table1, String table2) {
-        String query1 = "SELECT * FROM " + table1;
-        String query2 = "SELECT * FROM " + table2;
+        return diffTables(table1, table2, TableDiff.Mode.MERGE).isEqual();
+    }
 
-        try (Statement statement = connection.createStatement();
-             ResultSet rs1 = statement.executeQuery(query1);
-             ResultSet rs2 = statement.executeQuery(query2)) {
-            return compareResultSets(rs1, rs2);
+    // Order independent comparison of two tables, see TableDiff for the MERGE and HASH modes
+    public TableDiff.Result diffTables(String table1, String table2, TableDiff.Mode mode) {
+        requireIdentifier(table1);
+        requireIdentifier(table2);
+        try {
+            return newTableDiff().compareTables(table1, table2, mode);
         } catch (SQLException e) {
-            logger.error("Error comparing table data between " + table1 + " and " + table2, e);
-            Assert.fail("Error comparing table data between " + table1 + " and " + table2);
-            return false;
+            logger.error("Error comparing table data between {} and {}", table1, table2, e);
+            SoftAssertions.abort("Error comparing table data between {} and {}", table1, table2);
+            return null;
         }
     }
-}
 
+    // Compares the rows of two queries as multisets, ignoring row order
+    public TableDiff.Result diffQueries(String query1, String query2) {
+        try {
+            return newTableDiff().compareQueries(query1, query2);
+        } catch (SQLException e) {
+            logger.error("Error comparing results of {} and {}", query1, query2, e);
+            SoftAssertions.abort("Error comparing results of {} and {}", query1, query2);
+            return null;
+        }
+    }
+
+    // Prepared statement cache hits and misses since this helper took its connection
+    public String getStatementCacheStats() {
+        if (statementCache == null) {
+            return "unavailable";
+        }
+        return "hits=" + (statementCache.getHits() - statementCacheHitsAtStart)
+                + ", misses=" + (statementCache.getMisses() - statementCacheMissesAtStart);
+    }
+
+    // MySQL Connector/J only streams row by row with a fetch size of Integer.MIN_VALUE,
+    // unless cursor fetching is enabled in the connection URL
+    private int getStreamingFetchSize() throws SQLException {
+        if (mysqlRowStreaming == null) {
+            DatabaseMetaData metaData = connection.getMetaData();
+            mysqlRowStreaming = "MySQL".equalsIgnoreCase(metaData.getDatabaseProductName())
+                    && !metaData.getURL().contains("useCursorFetch=true");
+        }
+        return mysqlRowStreaming ? Integer.MIN_VALUE : streamingFetchSize;
+    }
+
+    private TableDiff newTableDiff() throws SQLException {
+        closeOpenResultSet();
+        TableDiff tableDiff = new TableDiff(connection);
+        tableDiff.setFetchSize(getStreamingFetchSize());
+        return tableDiff;
+    }
+
+    private static String toCountQuery(String query) {
+        String trimmed = query.trim();
+        if (trimmed.endsWith(";")) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        }
+        String lower = trimmed.toLowerCase();
+        if (!lower.startsWith("select") || lower.contains(" for update")) {
+            return null;
+        }
+        return "SELECT COUNT(*) FROM (" + trimmed + ") counted_rows";
+    }
+
+    // Executes the statement and reads every row so the timing includes the transfer of the result
+    private static void executeAndDrain(PreparedStatement preparedStatement) throws SQLException {
+        if (preparedStatement.execute()) {
+            try (ResultSet rs = preparedStatement.getResultSet()) {
+                while (rs.next()) {
+                    // rows are only fetched, not kept
+                }
+            }
+        }
+    }
+
+    // Adds the call to the run metrics under its databaseQueries.yaml name
+    private static void recordQuery(Object statement, long startNanos, long rows, boolean failed) {
+        Metrics.recordQuery(statement, System.nanoTime() - startNanos, rows, failed);
+    }
+
+    private static List<Object[]> readRows(ResultSet rs) throws SQLException {
+        int columns = rs.getMetaData().getColumnCount();
+        List<Object[]> results = new ArrayList<>();
+        while (rs.next()) {
+            Object[] row = new Object[columns];
+            for (int i = 1; i <= columns; i++) {
+                row[i - 1] = rs.getObject(i);
+            }
+            results.add(row);
+        }
+        return results;
+    }
+
+    // Table and column names cannot be bound as parameters, so only plain identifiers are accepted
+    private static void requireIdentifier(String name) {
+        if (name == null || !IDENTIFIER.matcher(name).matches()) {
+            logger.error("Invalid SQL identifier: {}", name);
+            SoftAssertions.abort("Invalid SQL identifier: {}", name);
+        }
+    }
+
+    private BulkInsert newBulkInsert(String tableName, List<String> columns) throws SQLException {
+        closeOpenResultSet();
+        return new BulkInsert(connection, tableName, columns, bulkChunkSize, bulkRowsPerStatement, bulkLoadDataLocalInfile);
+    }
+
+    private static void closeQuietly(BulkInsert bulkInsert) {
+        if (bulkInsert != null) {
+            try {
+                bulkInsert.close();
+            } catch (SQLException e) {
+                logger.debug("Error closing bulk insert", e);
+            }
+        }
+    }
+
+    // Every statement that can carry DDL passes through here before it runs. DDL commits the open transaction
+    // implicitly, so under transaction isolation it would commit the scenario's earlier changes and leave its
+    // own behind; it is refused instead. Under schema isolation it is allowed and the clone is rebuilt afterwards.
+    private void checkSchemaChange(String sql) {
+        if (!DDL.matcher(sql).lookingAt()) {
+            return;
+        }
+        if (isolated && !schemaCloned) {
+            logger.error("DDL refused under transaction isolation: {}", sql);
+            SoftAssertions.abort("DDL cannot run under databaseIsolation transaction, it would commit the scenario's "
+                    + "transaction: {}. Use databaseIsolation schema for scenarios that change tables.", sql);
+        }
+        schemaChanged = true;
+    }
+
+    private void closeOpenResultSet() {
+        if (openResultSet != null) {
+            try {
+                openResultSet.close();
+            } catch (SQLException e) {
+                logger.debug("Error closing result set", e);
+            }
+            openResultSet = null;
+        }
+    }
+}
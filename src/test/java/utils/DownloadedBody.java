@@ -0,0 +1,181 @@
+package utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A response body written to a file while it is received, so large downloads never sit in the heap.
+ * The size, SHA-256 digest and the times to the first and last body byte are taken on the way to
+ * disk. Text searches run on the memory-mapped file and JSON paths are read with the streaming
+ * parser, so checking a download costs a fixed amount of memory whatever its size.
+ */
+public final class DownloadedBody {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Mapped a window at a time, so files larger than one mapping can be searched
+    private static final long MAP_WINDOW = 64L * 1024 * 1024;
+
+    private final Path file;
+    private final int statusCode;
+    private final String contentType;
+    private final long size;
+    private final String sha256;
+    private final long timeToFirstByteNanos;
+    private final long timeToLastByteNanos;
+
+    private DownloadedBody(Path file, int statusCode, String contentType, long size, String sha256,
+                           long timeToFirstByteNanos, long timeToLastByteNanos) {
+        this.file = file;
+        this.statusCode = statusCode;
+        this.contentType = contentType;
+        this.size = size;
+        this.sha256 = sha256;
+        this.timeToFirstByteNanos = timeToFirstByteNanos;
+        this.timeToLastByteNanos = timeToLastByteNanos;
+    }
+
+    // Copies the body into the file; the times are measured from startNanos, when the request was sent
+    public static DownloadedBody receive(InputStream body, Path file, int statusCode, String contentType,
+                                         long startNanos) throws IOException {
+        MessageDigest digest = sha256Digest();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long size = 0;
+        long firstByte = -1;
+        try (ReadableByteChannel in = Channels.newChannel(body);
+             FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                if (read > 0 && firstByte < 0) {
+                    firstByte = System.nanoTime() - startNanos;
+                }
+                buffer.flip();
+                digest.update(buffer.duplicate());
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+                size += read;
+            }
+        }
+        long lastByte = System.nanoTime() - startNanos;
+        return new DownloadedBody(file, statusCode, contentType, size, HexFormat.of().formatHex(digest.digest()),
+                firstByte < 0 ? lastByte : firstByte, lastByte);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+
+    public long getTimeToFirstByteMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(timeToFirstByteNanos);
+    }
+
+    public long getTimeToLastByteMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(timeToLastByteNanos);
+    }
+
+    public boolean hasSha256(String expectedHex) {
+        return sha256.equalsIgnoreCase(expectedHex.trim());
+    }
+
+    // Searches the UTF-8 bytes of the text in the mapped file; windows overlap so matches across them are found
+    public boolean contains(String text) throws IOException {
+        return contains(text, MAP_WINDOW);
+    }
+
+    // mapWindow is a parameter so tests can cross window boundaries without 64 MB files
+    boolean contains(String text, long mapWindow) throws IOException {
+        byte[] needle = text.getBytes(StandardCharsets.UTF_8);
+        if (needle.length == 0) {
+            return true;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = 0;
+            while (size - position >= needle.length) {
+                long length = Math.min(mapWindow, size - position);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                if (indexOf(window, needle) >= 0) {
+                    return true;
+                }
+                if (position + length == size) {
+                    return false;
+                }
+                position += length - needle.length + 1;
+            }
+        }
+        return false;
+    }
+
+    // Text of the value at a simple JSON path (data.items[0].id), read with the streaming parser
+    public String readJsonValue(String path) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return JsonStreamValidator.readValue(in, path);
+        }
+    }
+
+    public JsonStreamValidator.Result validate(JsonStreamValidator validator) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return validator.validate(in);
+        }
+    }
+
+    private static int indexOf(ByteBuffer haystack, byte[] needle) {
+        int last = haystack.limit() - needle.length;
+        byte first = needle[0];
+        for (int i = 0; i <= last; i++) {
+            if (haystack.get(i) != first) {
+                continue;
+            }
+            int matched = 1;
+            while (matched < needle.length && haystack.get(i + matched) == needle[matched]) {
+                matched++;
+            }
+            if (matched == needle.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "HTTP " + statusCode + ", " + size + " bytes to " + file + ", first byte after "
+                + getTimeToFirstByteMillis() + " ms, last byte after " + getTimeToLastByteMillis() + " ms, sha256 " + sha256;
+    }
+}
@@ -0,0 +1,61 @@
+package utils;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class DownloadedBodyTest {
+    private static final long WINDOW = 16;
+    private Path file;
+
+    @AfterMethod(alwaysRun = true)
+    public void deleteFile() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void textAcrossTheWindowBoundaryIsFound() throws IOException {
+        DownloadedBody body = download("0123456789abcdefghijklmnopqrstuvwxyz0123456789");
+
+        // Every start offset around the ends of the first two windows, at 16 and 27 (11 + 16)
+        for (int start = 10; start <= 34; start++) {
+            String needle = "0123456789abcdefghijklmnopqrstuvwxyz0123456789".substring(start, start + 6);
+            assertTrue(body.contains(needle, WINDOW), needle + " at " + start);
+        }
+    }
+
+    @Test
+    public void textOfTheLastWindowIsFoundAndMissingTextIsNot() throws IOException {
+        DownloadedBody body = download("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaneedle");
+
+        assertTrue(body.contains("needle", WINDOW));
+        assertTrue(body.contains("aneedle", WINDOW));
+        assertFalse(body.contains("needles", WINDOW));
+        assertFalse(body.contains("b", WINDOW));
+    }
+
+    @Test
+    public void textAsLongAsTheWindowIsFound() throws IOException {
+        String text = "x".repeat(20) + "0123456789abcde" + "y".repeat(20);
+        DownloadedBody body = download(text);
+
+        assertTrue(body.contains("x0123456789abcde", WINDOW));
+        assertTrue(body.contains("0123456789abcdey", WINDOW));
+        assertEquals(body.getSize(), text.length());
+    }
+
+    private DownloadedBody download(String text) throws IOException {
+        file = Files.createTempFile("download-", ".body");
+        return DownloadedBody.receive(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), file, 200,
+                "text/plain", System.nanoTime());
+    }
+}
@@ -0,0 +1,191 @@
+package utils;
+
+import common.YamlRegistry;
+import io.restassured.config.HttpClientConfig;
+import io.restassured.config.RestAssuredConfig;
+import org.apache.http.HttpConnection;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.Credentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.net.InetAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One pooled Apache HTTP client plugged into Rest Assured through RestAssuredConfig. Keep-alive
+ * connections are reused across requests and scenarios; new TLS connections share the JVM default
+ * SSLContext and therefore its session cache, so handshakes can be resumed. Requests that use OAuth
+ * get a client of their own on the same connections. Limits and timeouts come from the httpClient
+ * section of apiPaths.yaml.
+ */
+@SuppressWarnings("deprecation")
+public class HttpClientPool {
+    private static final Logger logger = LogManager.getLogger(HttpClientPool.class);
+    private static volatile HttpClientPool shared;
+
+    private final PoolingClientConnectionManager connectionManager;
+    private final DefaultHttpClient httpClient;
+    private final RestAssuredConfig config;
+    private final ScheduledExecutorService evictor;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder newConnections = new LongAdder();
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final long keepAliveMillis;
+
+    public HttpClientPool(int maxConnections, int maxConnectionsPerRoute, int connectTimeoutMillis,
+                          int readTimeoutMillis, long keepAliveMillis) {
+        connectionManager = new PoolingClientConnectionManager(SchemeRegistryFactory.createDefault(),
+                keepAliveMillis, TimeUnit.MILLISECONDS, host -> {
+                    // Only called for new connections, so this splits request building from the lookup
+                    StepTimings.lap("prepare");
+                    InetAddress[] addresses = SystemDefaultDnsResolver.INSTANCE.resolve(host);
+                    StepTimings.lap("dns");
+                    return addresses;
+                });
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.keepAliveMillis = keepAliveMillis;
+        httpClient = createClient();
+        config = configFor(httpClient);
+
+        evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "http-connection-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictor.scheduleWithFixedDelay(() -> {
+            connectionManager.closeExpiredConnections();
+            connectionManager.closeIdleConnections(keepAliveMillis, TimeUnit.MILLISECONDS);
+        }, keepAliveMillis, keepAliveMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // The suite-wide pool, configured from apiPaths.yaml on first use
+    public static HttpClientPool getShared() {
+        if (shared == null) {
+            synchronized (HttpClientPool.class) {
+                if (shared == null) {
+                    YamlRegistry registry = YamlRegistry.apiPaths();
+                    shared = fromConfig(Integer.parseInt(registry.getString("httpMaxConnections")),
+                            Integer.parseInt(registry.getString("httpMaxConnectionsPerRoute")));
+                }
+            }
+        }
+        return shared;
+    }
+
+    // A separate pool with the configured timeouts but its own connection limits
+    public static HttpClientPool fromConfig(int maxConnections, int maxConnectionsPerRoute) {
+        YamlRegistry registry = YamlRegistry.apiPaths();
+        return new HttpClientPool(maxConnections, maxConnectionsPerRoute,
+                Integer.parseInt(registry.getString("httpConnectTimeoutMillis")),
+                Integer.parseInt(registry.getString("httpReadTimeoutMillis")),
+                Long.parseLong(registry.getString("httpKeepAliveMillis")));
+    }
+
+    // Rest Assured registers non-preemptive credentials on the client itself; clearing the calling
+    // thread's credentials keeps them from leaking into the next scenario that uses the shared client
+    public static void clearThreadCredentials() {
+        ThreadCredentialsProvider.CREDENTIALS.get().clear();
+    }
+
+    public static void shutdownShared() {
+        synchronized (HttpClientPool.class) {
+            if (shared != null) {
+                logger.info("HTTP connection pool: {}", shared.getStats());
+                shared.shutdown();
+                shared = null;
+            }
+        }
+    }
+
+    public RestAssuredConfig getConfig() {
+        return config;
+    }
+
+    // A client of its own on the same pooled connections. Rest Assured installs OAuth 1 and non-preemptive
+    // OAuth 2 as request interceptors on the client, so on the shared client they would sign every later
+    // request of every scenario; a request spec that uses them gets this config instead.
+    public RestAssuredConfig newIsolatedConfig() {
+        return configFor(createClient());
+    }
+
+    public String getStats() {
+        return "requests=" + requests.sum() + ", connectionsOpened=" + newConnections.sum()
+                + ", pool=" + connectionManager.getTotalStats();
+    }
+
+    private DefaultHttpClient createClient() {
+        DefaultHttpClient client = new DefaultHttpClient(connectionManager);
+        HttpParams params = client.getParams();
+        HttpConnectionParams.setConnectionTimeout(params, connectTimeoutMillis);
+        HttpConnectionParams.setSoTimeout(params, readTimeoutMillis);
+        HttpConnectionParams.setTcpNoDelay(params, true);
+        client.setKeepAliveStrategy((response, context) -> {
+            long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return serverKeepAlive > 0 ? Math.min(serverKeepAlive, keepAliveMillis) : keepAliveMillis;
+        });
+        client.setCredentialsProvider(new ThreadCredentialsProvider());
+        client.addRequestInterceptor((request, context) -> {
+            requests.increment();
+            Object connection = context.getAttribute(ExecutionContext.HTTP_CONNECTION);
+            // Request interceptors run once the connection is open, just before the request is written
+            if (connection instanceof HttpConnection && ((HttpConnection) connection).getMetrics().getRequestCount() == 0) {
+                newConnections.increment();
+                StepTimings.lap("connect");
+            } else {
+                StepTimings.lap("prepare");
+            }
+        });
+        client.addResponseInterceptor((response, context) -> StepTimings.lap("ttfb"));
+        return client;
+    }
+
+    private static RestAssuredConfig configFor(DefaultHttpClient client) {
+        return RestAssuredConfig.config().httpClient(HttpClientConfig.httpClientConfig()
+                .reuseHttpClientInstance()
+                .httpClientFactory(() -> client));
+    }
+
+    public void shutdown() {
+        evictor.shutdownNow();
+        connectionManager.shutdown();
+    }
+
+    // Credentials are kept per thread; a scenario sets and uses them on the thread it runs on
+    private static final class ThreadCredentialsProvider implements CredentialsProvider {
+        private static final ThreadLocal<BasicCredentialsProvider> CREDENTIALS = ThreadLocal.withInitial(BasicCredentialsProvider::new);
+
+        @Override
+        public void setCredentials(AuthScope authScope, Credentials credentials) {
+            CREDENTIALS.get().setCredentials(authScope, credentials);
+        }
+
+        @Override
+        public Credentials getCredentials(AuthScope authScope) {
+            return CREDENTIALS.get().getCredentials(authScope);
+        }
+
+        @Override
+        public void clear() {
+            CREDENTIALS.get().clear();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Evaluates simple JSON paths such as data.id or data[0].first_name directly on a Jackson tree,
+ * without going through Groovy's GPath. Paths are compiled once into field and index steps and
+ * cached. Anything this evaluator cannot answer exactly like Rest Assured's JsonPath (filters,
+ * method calls, spreading over arrays, floating point or non-scalar results) is reported as
+ * UNSUPPORTED so the caller can fall back to JsonPath.
+ */
+public final class JsonPathEvaluator {
+    public static final Object UNSUPPORTED = new Object();
+    private static final Object[] NOT_SIMPLE = new Object[0];
+    private static final Map<String, Object[]> COMPILED = new ConcurrentHashMap<>();
+
+    private JsonPathEvaluator() {
+    }
+
+    // Field steps are Strings and index steps are Integers; returns null when the path is not simple
+    public static Object[] compile(String path) {
+        Object[] steps = COMPILED.computeIfAbsent(path, JsonPathEvaluator::parse);
+        return steps == NOT_SIMPLE ? null : steps;
+    }
+
+    public static Object evaluate(JsonNode root, String path) {
+        Object[] steps = compile(path);
+        return steps == null ? UNSUPPORTED : evaluate(root, steps);
+    }
+
+    public static Object evaluate(JsonNode root, Object[] steps) {
+        JsonNode node = root;
+        for (int i = 0; i < steps.length; i++) {
+            boolean last = i == steps.length - 1;
+            Object step = steps[i];
+            JsonNode next;
+            if (step instanceof String) {
+                if (!node.isObject()) {
+                    // GPath spreads a field over array elements; leave that to JsonPath
+                    return UNSUPPORTED;
+                }
+                next = node.get((String) step);
+            } else {
+                if (!node.isArray()) {
+                    return UNSUPPORTED;
+                }
+                next = node.get((Integer) step);
+            }
+            if (next == null || next.isNull()) {
+                return last ? null : UNSUPPORTED;
+            }
+            node = next;
+        }
+        return toScalar(node);
+    }
+
+    private static Object toScalar(JsonNode node) {
+        if (node.isTextual()) {
+            return node.textValue();
+        }
+        if (node.isBoolean()) {
+            return node.booleanValue();
+        }
+        if (node.isInt()) {
+            return node.intValue();
+        }
+        if (node.isLong()) {
+            return node.longValue();
+        }
+        if (node.isBigInteger()) {
+            return node.bigIntegerValue();
+        }
+        return UNSUPPORTED;
+    }
+
+    private static Object[] parse(String path) {
+        List<Object> steps = new ArrayList<>();
+        int i = 0;
+        int length = path.length();
+        while (i < length) {
+            int start = i;
+            while (i < length && (Character.isLetterOrDigit(path.charAt(i)) || path.charAt(i) == '_')) {
+                i++;
+            }
+            if (i == start || Character.isDigit(path.charAt(start))) {
+                return NOT_SIMPLE;
+            }
+            steps.add(path.substring(start, i));
+            while (i < length && path.charAt(i) == '[') {
+                int close = path.indexOf(']', i);
+                if (close < 0) {
+                    return NOT_SIMPLE;
+                }
+                String index = path.substring(i + 1, close);
+                if (index.isEmpty() || index.length() > 9 || !index.chars().allMatch(Character::isDigit)) {
+                    return NOT_SIMPLE;
+                }
+                steps.add(Integer.parseInt(index));
+                i = close + 1;
+            }
+            if (i < length) {
+                if (path.charAt(i) != '.' || i == length - 1) {
+                    return NOT_SIMPLE;
+                }
+                i++;
+            }
+        }
+        return steps.isEmpty() ? NOT_SIMPLE : steps.toArray();
+    }
+}
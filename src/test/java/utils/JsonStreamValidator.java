@@ -0,0 +1,267 @@
+package utils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.json.JsonReadFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.fge.jsonschema.core.exceptions.ProcessingException;
+import com.github.fge.jsonschema.core.report.ProcessingMessage;
+import com.github.fge.jsonschema.core.report.ProcessingReport;
+import com.github.fge.jsonschema.main.JsonSchema;
+import com.github.fge.jsonschema.main.JsonSchemaFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Checks the elements of one array in a JSON document while reading it with Jackson's streaming
+ * parser. Only the current element is ever materialized, so arrays of any size are validated in
+ * bounded memory. The array and element fields are addressed with simple paths (data, data[0].items,
+ * or an empty path for a top-level array). JSON schemas are loaded from the classpath and compiled
+ * once per run.
+ */
+public class JsonStreamValidator {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final JsonFactory FACTORY = MAPPER.getFactory();
+    private static final JsonFactory LENIENT_FACTORY = JsonFactory.builder()
+            .enable(JsonReadFeature.ALLOW_UNQUOTED_FIELD_NAMES)
+            .enable(JsonReadFeature.ALLOW_SINGLE_QUOTES)
+            .enable(JsonReadFeature.ALLOW_JAVA_COMMENTS)
+            .enable(JsonReadFeature.ALLOW_NON_NUMERIC_NUMBERS)
+            .build();
+    private static final Map<String, JsonSchema> SCHEMAS = new ConcurrentHashMap<>();
+    private static final int MAX_FAILURES = 10;
+
+    private final String arrayPath;
+    private final Object[] arraySteps;
+    private final List<ElementCheck> checks = new ArrayList<>();
+
+    public JsonStreamValidator(String arrayPath) {
+        this.arrayPath = arrayPath;
+        this.arraySteps = arrayPath.isEmpty() ? new Object[0] : compile(arrayPath);
+    }
+
+    public JsonStreamValidator expectSchema(String schemaPath) {
+        JsonSchema schema = compiledSchema(schemaPath);
+        checks.add((element, failures) -> {
+            try {
+                ProcessingReport report = schema.validate(element);
+                if (!report.isSuccess()) {
+                    failures.add("does not match " + schemaPath + ": " + firstMessage(report));
+                }
+            } catch (ProcessingException e) {
+                failures.add("could not be validated against " + schemaPath + ": " + e.getMessage());
+            }
+        });
+        return this;
+    }
+
+    public JsonStreamValidator expectField(String fieldPath) {
+        JsonPointer pointer = toPointer(fieldPath);
+        checks.add((element, failures) -> {
+            if (element.at(pointer).isMissingNode()) {
+                failures.add("has no field " + fieldPath);
+            }
+        });
+        return this;
+    }
+
+    // Compares the field as text, the same way the single-response field assertion does
+    public JsonStreamValidator expectFieldValue(String fieldPath, String expectedValue) {
+        return expectFieldMatching(fieldPath, "equal to " + expectedValue, actual -> Objects.equals(actual, expectedValue));
+    }
+
+    public JsonStreamValidator expectFieldMatching(String fieldPath, String description, Predicate<String> predicate) {
+        JsonPointer pointer = toPointer(fieldPath);
+        checks.add((element, failures) -> {
+            JsonNode value = element.at(pointer);
+            String actual = value.isMissingNode() || value.isNull() ? null : value.isValueNode() ? value.asText() : value.toString();
+            if (!predicate.test(actual)) {
+                failures.add("has " + fieldPath + "=" + actual + ", expected " + description);
+            }
+        });
+        return this;
+    }
+
+    public Result validate(InputStream body) throws IOException {
+        Result result = new Result(arrayPath);
+        try (JsonParser parser = FACTORY.createParser(body)) {
+            if (parser.nextToken() == null || !moveTo(parser, arraySteps, 0)) {
+                result.found = false;
+                return result;
+            }
+            if (parser.currentToken() != JsonToken.START_ARRAY) {
+                throw new IOException("'" + arrayPath + "' is not an array");
+            }
+            result.found = true;
+            List<String> elementFailures = new ArrayList<>();
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                result.elements++;
+                if (checks.isEmpty()) {
+                    parser.skipChildren();
+                    continue;
+                }
+                JsonNode element = MAPPER.readTree(parser);
+                elementFailures.clear();
+                for (ElementCheck check : checks) {
+                    check.apply(element, elementFailures);
+                }
+                if (!elementFailures.isEmpty()) {
+                    result.failedElements++;
+                    if (result.failures.size() < MAX_FAILURES) {
+                        result.failures.add("element " + (result.elements - 1) + " " + String.join(", ", elementFailures));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    // True when the text is a single JSON object or array, checked token by token without building a tree.
+    // Like Gson's lenient parsing, unquoted field names, single quotes and comments are accepted.
+    public static boolean isJsonDocument(String text) {
+        try (JsonParser parser = LENIENT_FACTORY.createParser(text)) {
+            JsonToken first = parser.nextToken();
+            if (first != JsonToken.START_OBJECT && first != JsonToken.START_ARRAY) {
+                return false;
+            }
+            parser.skipChildren();
+            return parser.nextToken() == null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public static JsonSchema compiledSchema(String schemaPath) {
+        return SCHEMAS.computeIfAbsent(schemaPath, path -> {
+            try {
+                // The resource: scheme lets relative $refs resolve against the classpath
+                return JsonSchemaFactory.byDefault().getJsonSchema("resource:/" + path.replaceFirst("^/", ""));
+            } catch (ProcessingException e) {
+                throw new IllegalArgumentException("Cannot load JSON schema from classpath: " + path, e);
+            }
+        });
+    }
+
+    public static String firstMessage(ProcessingReport report) {
+        for (ProcessingMessage message : report) {
+            return message.getMessage();
+        }
+        return "invalid";
+    }
+
+    // Text of the value at a simple path, read without building the document; null when absent or null.
+    // Objects and arrays are returned as JSON, like the field checks of the element validator.
+    public static String readValue(InputStream body, String path) throws IOException {
+        Object[] steps = path.isEmpty() ? new Object[0] : compile(path);
+        try (JsonParser parser = FACTORY.createParser(body)) {
+            if (parser.nextToken() == null || !moveTo(parser, steps, 0)) {
+                return null;
+            }
+            if (parser.currentToken() == JsonToken.VALUE_NULL) {
+                return null;
+            }
+            if (parser.currentToken().isScalarValue()) {
+                return parser.getValueAsString();
+            }
+            return MAPPER.readTree(parser).toString();
+        }
+    }
+
+    // Advances the parser, positioned on a value, to the value at steps[step..]; false when absent
+    private static boolean moveTo(JsonParser parser, Object[] steps, int step) throws IOException {
+        if (step == steps.length) {
+            return true;
+        }
+        Object target = steps[step];
+        if (target instanceof String && parser.currentToken() == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                parser.nextToken();
+                if (name.equals(target)) {
+                    return moveTo(parser, steps, step + 1);
+                }
+                parser.skipChildren();
+            }
+        } else if (target instanceof Integer && parser.currentToken() == JsonToken.START_ARRAY) {
+            int index = 0;
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                if (index++ == (Integer) target) {
+                    return moveTo(parser, steps, step + 1);
+                }
+                parser.skipChildren();
+            }
+        }
+        return false;
+    }
+
+    private static Object[] compile(String path) {
+        Object[] steps = JsonPathEvaluator.compile(path);
+        if (steps == null) {
+            throw new IllegalArgumentException("Only simple paths like data or data[0].items can be streamed: " + path);
+        }
+        return steps;
+    }
+
+    private static JsonPointer toPointer(String fieldPath) {
+        StringBuilder pointer = new StringBuilder();
+        for (Object step : compile(fieldPath)) {
+            pointer.append('/').append(step.toString().replace("~", "~0").replace("/", "~1"));
+        }
+        return JsonPointer.compile(pointer.toString());
+    }
+
+    private interface ElementCheck {
+        void apply(JsonNode element, List<String> failures);
+    }
+
+    public static class Result {
+        private final String arrayPath;
+        private boolean found;
+        private long elements;
+        private long failedElements;
+        private final List<String> failures = new ArrayList<>();
+
+        Result(String arrayPath) {
+            this.arrayPath = arrayPath;
+        }
+
+        public boolean isFound() {
+            return found;
+        }
+
+        public long getElements() {
+            return elements;
+        }
+
+        public long getFailedElements() {
+            return failedElements;
+        }
+
+        public List<String> getFailures() {
+            return failures;
+        }
+
+        public boolean isValid() {
+            return found && failedElements == 0;
+        }
+
+        @Override
+        public String toString() {
+            if (!found) {
+                return "No array found at '" + arrayPath + "'";
+            }
+            String summary = "'" + arrayPath + "': " + elements + " elements, " + failedElements + " failed";
+            return failures.isEmpty() ? summary : summary + "; " + String.join("; ", failures);
+        }
+    }
+}
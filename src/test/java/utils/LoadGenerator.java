@@ -0,0 +1,125 @@
+package utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a fixed number of concurrent workers, either as fast as they can go (closed loop) or
+ * at a target rate. With a target rate every execution has an intended start time and latency
+ * is measured from that time, so a stalled system is not hidden by workers that fell behind.
+ * The first warmupExecutions executions are run but not recorded.
+ */
+public class LoadGenerator {
+    private static final Logger logger = LogManager.getLogger(LoadGenerator.class);
+
+    // One worker per thread; it is created and closed on that thread
+    public interface Worker {
+        void execute() throws Exception;
+
+        default void close() throws Exception {
+        }
+    }
+
+    public interface WorkerFactory {
+        Worker create(int workerIndex) throws Exception;
+    }
+
+    private final int concurrency;
+    private final double targetRatePerSecond;
+    private final long warmupExecutions;
+
+    public LoadGenerator(int concurrency, double targetRatePerSecond, long warmupExecutions) {
+        this.concurrency = Math.max(1, concurrency);
+        this.targetRatePerSecond = targetRatePerSecond;
+        this.warmupExecutions = warmupExecutions;
+    }
+
+    // Runs until the given number of measured executions or duration is reached; 0 disables a limit
+    public LoadTestResult run(WorkerFactory workerFactory, long executions, long durationMillis) {
+        if (executions <= 0 && durationMillis <= 0) {
+            throw new IllegalArgumentException("A load test needs an execution count or a duration");
+        }
+        LoadTestResult result = new LoadTestResult();
+        AtomicLong sequence = new AtomicLong();
+        long totalExecutions = executions <= 0 ? Long.MAX_VALUE : executions + warmupExecutions;
+        long intervalNanos = targetRatePerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / targetRatePerSecond) : 0;
+        long start = System.nanoTime();
+        long deadline = durationMillis <= 0 ? Long.MAX_VALUE : start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        AtomicLong measuredStart = new AtomicLong(warmupExecutions == 0 ? start : 0);
+
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "load-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < concurrency; i++) {
+            int workerIndex = i;
+            futures.add(executor.submit(() -> {
+                Worker worker = workerFactory.create(workerIndex);
+                try {
+                    long n;
+                    while ((n = sequence.getAndIncrement()) < totalExecutions) {
+                        long intendedStart = intervalNanos == 0 ? System.nanoTime() : start + n * intervalNanos;
+                        if (intendedStart >= deadline) {
+                            break;
+                        }
+                        long wait = intendedStart - System.nanoTime();
+                        if (wait > 0) {
+                            LockSupport.parkNanos(wait);
+                        }
+                        if (n == warmupExecutions) {
+                            measuredStart.compareAndSet(0, System.nanoTime());
+                        }
+                        String error = null;
+                        try {
+                            worker.execute();
+                        } catch (Exception e) {
+                            error = e.getClass().getSimpleName() + ": " + e.getMessage();
+                        }
+                        long latency = System.nanoTime() - intendedStart;
+                        if (n >= warmupExecutions) {
+                            if (error == null) {
+                                result.recordSuccess(latency);
+                            } else {
+                                result.recordError(latency, error);
+                            }
+                        }
+                        if (System.nanoTime() >= deadline) {
+                            break;
+                        }
+                    }
+                } finally {
+                    worker.close();
+                }
+                return null;
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            logger.error("Load test worker failed", e.getCause());
+            throw new IllegalStateException("Load test worker failed: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while running load test", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        long measuredFrom = measuredStart.get() == 0 ? start : measuredStart.get();
+        result.setElapsedNanos(System.nanoTime() - measuredFrom);
+        return result;
+    }
+}
@@ -0,0 +1,90 @@
+package utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Outcome of a load run: latency distribution of the measured executions, error counts by
+ * cause and the achieved throughput. Warmup executions are not part of the result.
+ */
+public class LoadTestResult {
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+    private final Map<String, LongAdder> errorsByCause = new ConcurrentHashMap<>();
+    private volatile String firstError;
+    private volatile long elapsedNanos;
+
+    public void recordSuccess(long latencyNanos) {
+        latencies.record(latencyNanos);
+    }
+
+    public void recordError(long latencyNanos, String cause) {
+        latencies.record(latencyNanos);
+        errors.increment();
+        errorsByCause.computeIfAbsent(cause, key -> new LongAdder()).increment();
+        if (firstError == null) {
+            firstError = cause;
+        }
+    }
+
+    void setElapsedNanos(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    public long getExecutions() {
+        return latencies.getCount();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public double getErrorRate() {
+        long executions = getExecutions();
+        return executions == 0 ? 0 : (double) getErrors() / executions;
+    }
+
+    public Map<String, LongAdder> getErrorsByCause() {
+        return errorsByCause;
+    }
+
+    public String getFirstError() {
+        return firstError;
+    }
+
+    public double getThroughputPerSecond() {
+        return elapsedNanos == 0 ? 0 : getExecutions() / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    // Accepts p50, p95, p99, p99.9, max, min or mean
+    public double getLatencyMillis(String statistic) {
+        String name = statistic.trim().toLowerCase();
+        switch (name) {
+            case "max":
+                return latencies.getMaxNanos() / 1_000_000.0;
+            case "min":
+                return latencies.getMinNanos() / 1_000_000.0;
+            case "mean":
+            case "avg":
+                return latencies.getMeanNanos() / 1_000_000.0;
+            default:
+                if (!name.startsWith("p")) {
+                    throw new IllegalArgumentException("Unknown latency statistic: " + statistic);
+                }
+                return latencies.getPercentileMillis(Double.parseDouble(name.substring(1)));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("executions=%d, errors=%d (%.2f%%), throughput=%.1f/s, %s",
+                getExecutions(), getErrors(), getErrorRate() * 100, getThroughputPerSecond(), latencies)
+                + (firstError == null ? "" : ", first error: " + firstError);
+    }
+}
@@ -0,0 +1,258 @@
+package utils;
+
+import com.sun.net.httpserver.HttpServer;
+import common.YamlRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live counters and latency histograms of the run's API and database calls, labelled with the
+ * apiPaths.yaml endpoint name and the databaseQueries.yaml query name, in the OpenMetrics text format.
+ * A series is created the first time a name is seen; after that recording is two map lookups and a
+ * few LongAdder increments, with no allocation. The metrics can be written to a file at a fixed
+ * interval and served on a local /metrics endpoint for scraping during long runs.
+ */
+public final class Metrics {
+    private static final Logger logger = LogManager.getLogger(Metrics.class);
+    public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+    private static final String UNNAMED = "unnamed";
+    private static final double[] BUCKET_SECONDS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30};
+    private static final long[] BUCKET_NANOS = new long[BUCKET_SECONDS.length];
+    // Status codes 100-599 are counted per code; index 0 counts requests that got no response
+    private static final int STATUS_CODES = 600;
+
+    static {
+        for (int i = 0; i < BUCKET_SECONDS.length; i++) {
+            BUCKET_NANOS[i] = (long) (BUCKET_SECONDS[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    private static final Map<String, Map<String, RequestSeries>> REQUESTS = new ConcurrentHashMap<>();
+    private static final Map<String, QuerySeries> QUERIES = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService writer;
+    private static HttpServer server;
+    private static volatile Path file;
+
+    private Metrics() {
+    }
+
+    // status 0 means the request failed without a response; bytes are body sizes, -1 when unknown
+    public static void recordRequest(String endpointName, String method, int status, long nanos, long bytesOut, long bytesIn) {
+        String name = endpointName == null ? UNNAMED : endpointName;
+        Map<String, RequestSeries> byMethod = REQUESTS.get(name);
+        if (byMethod == null) {
+            byMethod = REQUESTS.computeIfAbsent(name, key -> new ConcurrentHashMap<>());
+        }
+        RequestSeries series = byMethod.get(method);
+        if (series == null) {
+            series = byMethod.computeIfAbsent(method, key -> new RequestSeries());
+        }
+        series.statusCounts.incrementAndGet(status > 0 && status < STATUS_CODES ? status : 0);
+        series.latency.record(nanos);
+        if (bytesOut > 0) {
+            series.bytesOut.add(bytesOut);
+        }
+        if (bytesIn > 0) {
+            series.bytesIn.add(bytesIn);
+        }
+    }
+
+    // statement is a SQL string or a batch list, labelled with its name in databaseQueries.yaml
+    // or "unnamed" when it was not taken from there
+    public static void recordQuery(Object statement, long nanos, long rows, boolean failed) {
+        String name = YamlRegistry.databaseQueries().nameOf(statement);
+        QuerySeries series = QUERIES.get(name == null ? UNNAMED : name);
+        if (series == null) {
+            series = QUERIES.computeIfAbsent(name == null ? UNNAMED : name, key -> new QuerySeries());
+        }
+        series.latency.record(nanos);
+        if (failed) {
+            series.errors.increment();
+        }
+        if (rows > 0) {
+            series.rows.add(rows);
+        }
+    }
+
+    // Writes the metrics to the file every intervalMillis and serves them on 127.0.0.1:port/metrics when port > 0
+    public static synchronized void start(Path metricsFile, long intervalMillis, int port) throws IOException {
+        stop();
+        file = metricsFile;
+        if (file != null && intervalMillis > 0) {
+            writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "metrics-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            writer.scheduleAtFixedRate(Metrics::writeFile, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+        if (port > 0) {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            server.createContext("/metrics", exchange -> {
+                byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.start();
+            logger.info("Serving metrics on http://127.0.0.1:{}/metrics", port);
+        }
+    }
+
+    // Stops the writer and the endpoint after a final write of the file
+    public static synchronized void stop() {
+        if (writer != null) {
+            writer.shutdownNow();
+            writer = null;
+        }
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+        if (file != null) {
+            writeFile();
+            file = null;
+        }
+    }
+
+    private static void writeFile() {
+        Path target = file;
+        if (target == null) {
+            return;
+        }
+        try {
+            if (target.toAbsolutePath().getParent() != null) {
+                Files.createDirectories(target.toAbsolutePath().getParent());
+            }
+            // Written next to the target and moved over it, so a scraper never reads half a file
+            Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+            Files.writeString(temp, scrape());
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("Error writing metrics file: {}", target, e);
+        }
+    }
+
+    public static String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        Map<String, Map<String, RequestSeries>> requests = new TreeMap<>(REQUESTS);
+        Map<String, QuerySeries> queries = new TreeMap<>(QUERIES);
+
+        out.append("# TYPE api_requests counter\n# HELP api_requests API requests by endpoint, method and status code.\n");
+        requests.forEach((endpoint, byMethod) -> new TreeMap<>(byMethod).forEach((method, series) -> {
+            for (int status = 0; status < STATUS_CODES; status++) {
+                long count = series.statusCounts.get(status);
+                if (count > 0) {
+                    out.append("api_requests_total{endpoint=\"").append(escape(endpoint)).append("\",method=\"")
+                            .append(escape(method)).append("\",code=\"").append(status == 0 ? "none" : status)
+                            .append("\"} ").append(count).append('\n');
+                }
+            }
+        }));
+        out.append("# TYPE api_request_errors counter\n# HELP api_request_errors API requests that failed or returned 4xx/5xx.\n");
+        requests.forEach((endpoint, byMethod) -> new TreeMap<>(byMethod).forEach((method, series) -> {
+            long errors = series.statusCounts.get(0);
+            for (int status = 400; status < STATUS_CODES; status++) {
+                errors += series.statusCounts.get(status);
+            }
+            out.append("api_request_errors_total").append(requestLabels(endpoint, method)).append(' ').append(errors).append('\n');
+        }));
+        out.append("# TYPE api_request_duration_seconds histogram\n# HELP api_request_duration_seconds API request latency.\n");
+        requests.forEach((endpoint, byMethod) -> new TreeMap<>(byMethod).forEach((method, series) ->
+                appendHistogram(out, "api_request_duration_seconds", "endpoint=\"" + escape(endpoint)
+                        + "\",method=\"" + escape(method) + "\"", series.latency)));
+        out.append("# TYPE api_request_bytes counter\n# HELP api_request_bytes Request body bytes sent.\n");
+        requests.forEach((endpoint, byMethod) -> new TreeMap<>(byMethod).forEach((method, series) ->
+                out.append("api_request_bytes_total").append(requestLabels(endpoint, method)).append(' ')
+                        .append(series.bytesOut.sum()).append('\n')));
+        out.append("# TYPE api_response_bytes counter\n# HELP api_response_bytes Response body bytes received.\n");
+        requests.forEach((endpoint, byMethod) -> new TreeMap<>(byMethod).forEach((method, series) ->
+                out.append("api_response_bytes_total").append(requestLabels(endpoint, method)).append(' ')
+                        .append(series.bytesIn.sum()).append('\n')));
+
+        out.append("# TYPE db_query_errors counter\n# HELP db_query_errors Database calls that threw an SQLException.\n");
+        queries.forEach((query, series) -> out.append("db_query_errors_total{query=\"").append(escape(query))
+                .append("\"} ").append(series.errors.sum()).append('\n'));
+        out.append("# TYPE db_query_rows counter\n# HELP db_query_rows Rows returned or affected.\n");
+        queries.forEach((query, series) -> out.append("db_query_rows_total{query=\"").append(escape(query))
+                .append("\"} ").append(series.rows.sum()).append('\n'));
+        out.append("# TYPE db_query_duration_seconds histogram\n# HELP db_query_duration_seconds Database call latency.\n");
+        queries.forEach((query, series) -> appendHistogram(out, "db_query_duration_seconds",
+                "query=\"" + escape(query) + "\"", series.latency));
+        return out.append("# EOF\n").toString();
+    }
+
+    private static String requestLabels(String endpoint, String method) {
+        return "{endpoint=\"" + escape(endpoint) + "\",method=\"" + escape(method) + "\"}";
+    }
+
+    private static void appendHistogram(StringBuilder out, String name, String labels, Histogram histogram) {
+        long cumulative = 0;
+        for (int i = 0; i <= BUCKET_SECONDS.length; i++) {
+            cumulative += histogram.buckets[i].sum();
+            out.append(name).append("_bucket{").append(labels).append(",le=\"")
+                    .append(i < BUCKET_SECONDS.length ? Double.toString(BUCKET_SECONDS[i]) : "+Inf")
+                    .append("\"} ").append(cumulative).append('\n');
+        }
+        out.append(name).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+        out.append(name).append("_sum{").append(labels).append("} ")
+                .append(histogram.sumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1)).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    // Fixed-bucket latency histogram; the last bucket counts everything above the largest bound
+    private static final class Histogram {
+        private final LongAdder[] buckets = new LongAdder[BUCKET_NANOS.length + 1];
+        private final LongAdder sumNanos = new LongAdder();
+
+        private Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        private void record(long nanos) {
+            int bucket = 0;
+            while (bucket < BUCKET_NANOS.length && nanos > BUCKET_NANOS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+            sumNanos.add(nanos);
+        }
+    }
+
+    private static final class RequestSeries {
+        private final AtomicLongArray statusCounts = new AtomicLongArray(STATUS_CODES);
+        private final Histogram latency = new Histogram();
+        private final LongAdder bytesOut = new LongAdder();
+        private final LongAdder bytesIn = new LongAdder();
+    }
+
+    private static final class QuerySeries {
+        private final Histogram latency = new Histogram();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+    }
+}
@@ -0,0 +1,80 @@
+package utils;
+
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class MetricsTest {
+    // Metrics are kept for the whole run, so every test records under endpoint names of its own
+
+    @Test
+    public void requestSeriesAreWrittenAsOpenMetrics() {
+        Metrics.recordRequest("metrics-test", "GET", 200, TimeUnit.MILLISECONDS.toNanos(3), 10, 100);
+        Metrics.recordRequest("metrics-test", "GET", 503, TimeUnit.MILLISECONDS.toNanos(20), 0, 50);
+        Metrics.recordRequest("metrics-test", "GET", 0, TimeUnit.SECONDS.toNanos(1), -1, -1);
+
+        List<String> lines = Metrics.scrape().lines().toList();
+
+        String labels = "endpoint=\"metrics-test\",method=\"GET\"";
+        assertTrue(lines.contains("api_requests_total{" + labels + ",code=\"200\"} 1"), lines.toString());
+        assertTrue(lines.contains("api_requests_total{" + labels + ",code=\"503\"} 1"));
+        assertTrue(lines.contains("api_requests_total{" + labels + ",code=\"none\"} 1"));
+        // The request without a response and the 503
+        assertTrue(lines.contains("api_request_errors_total{" + labels + "} 2"));
+        assertTrue(lines.contains("api_request_bytes_total{" + labels + "} 10"));
+        assertTrue(lines.contains("api_response_bytes_total{" + labels + "} 150"));
+    }
+
+    @Test
+    public void histogramBucketsAreCumulativeAndIncludeTheirBound() {
+        Metrics.recordRequest("metrics-histogram", "POST", 201, TimeUnit.MILLISECONDS.toNanos(5), 0, 0);
+        Metrics.recordRequest("metrics-histogram", "POST", 201, TimeUnit.MILLISECONDS.toNanos(20), 0, 0);
+        Metrics.recordRequest("metrics-histogram", "POST", 201, TimeUnit.SECONDS.toNanos(45), 0, 0);
+
+        List<String> lines = Metrics.scrape().lines().toList();
+
+        String prefix = "api_request_duration_seconds_bucket{endpoint=\"metrics-histogram\",method=\"POST\",le=";
+        assertTrue(lines.contains(prefix + "\"0.005\"} 1"), lines.toString());
+        assertTrue(lines.contains(prefix + "\"0.01\"} 1"));
+        assertTrue(lines.contains(prefix + "\"0.025\"} 2"));
+        assertTrue(lines.contains(prefix + "\"30.0\"} 2"));
+        assertTrue(lines.contains(prefix + "\"+Inf\"} 3"));
+        assertTrue(lines.contains("api_request_duration_seconds_count{endpoint=\"metrics-histogram\",method=\"POST\"} 3"));
+        assertTrue(lines.contains("api_request_duration_seconds_sum{endpoint=\"metrics-histogram\",method=\"POST\"} 45.025"));
+    }
+
+    @Test
+    public void labelValuesAreEscaped() {
+        Metrics.recordRequest("metrics \"quoted\" \\ path\nline", "GET", 200, 1, 0, 0);
+
+        assertTrue(Metrics.scrape().contains("api_requests_total{endpoint=\"metrics \\\"quoted\\\" \\\\ path\\nline\""
+                + ",method=\"GET\",code=\"200\"} 1\n"));
+    }
+
+    @Test
+    public void everySampleBelongsToTheFamilyDeclaredAboveIt() {
+        Metrics.recordRequest("metrics-format", "DELETE", 204, 1000, 0, 0);
+        Metrics.recordQuery("SELECT 1 FROM metrics_format", 1000, 1, false);
+
+        String text = Metrics.scrape();
+        List<String> lines = text.lines().toList();
+
+        assertTrue(text.endsWith("\n# EOF\n"));
+        String family = null;
+        for (String line : lines.subList(0, lines.size() - 1)) {
+            if (line.startsWith("# TYPE ")) {
+                family = line.split(" ")[2];
+            } else if (!line.startsWith("# HELP " + family + " ")) {
+                assertTrue(line.matches("[a-z_]+\\{.*\\} [0-9.E+-]+"), line);
+                String name = line.substring(0, line.indexOf('{'));
+                assertTrue(name.equals(family + "_total") || name.equals(family + "_bucket")
+                        || name.equals(family + "_count") || name.equals(family + "_sum"), line);
+            }
+        }
+        assertEquals(lines.stream().filter(line -> line.startsWith("# TYPE ")).count(), 8);
+    }
+}
@@ -0,0 +1,162 @@
+package utils;
+
+import common.Common;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * A query from databaseQueries.yaml with its named placeholders (":userId") compiled to JDBC
+ * positional parameters. Templates are compiled once per distinct SQL text and cached, so the
+ * resulting SQL is stable and the prepared statement for it can be reused.
+ */
+public final class NamedQuery {
+    private static final Map<String, NamedQuery> COMPILED = new ConcurrentHashMap<>();
+    private static final Pattern INTEGER = Pattern.compile("-?(0|[1-9]\\d{0,17})");
+    private static final Pattern DECIMAL = Pattern.compile("-?(0|[1-9]\\d*)\\.\\d+");
+
+    private final String sql;
+    private final List<String> placeholders;
+    private final List<String> parameterNames;
+
+    private NamedQuery(String sql, List<String> placeholders) {
+        this.sql = sql;
+        this.placeholders = Collections.unmodifiableList(placeholders);
+        List<String> distinct = new ArrayList<>();
+        for (String name : placeholders) {
+            if (!distinct.contains(name)) {
+                distinct.add(name);
+            }
+        }
+        this.parameterNames = Collections.unmodifiableList(distinct);
+    }
+
+    public static NamedQuery compile(String namedSql) {
+        return COMPILED.computeIfAbsent(namedSql, NamedQuery::parse);
+    }
+
+    // SQL with every named placeholder replaced by '?'
+    public String getSql() {
+        return sql;
+    }
+
+    // Distinct parameter names in order of first appearance
+    public List<String> getParameterNames() {
+        return parameterNames;
+    }
+
+    public void bind(PreparedStatement preparedStatement, Map<String, ?> values) throws SQLException {
+        for (int i = 0; i < placeholders.size(); i++) {
+            String name = placeholders.get(i);
+            if (!values.containsKey(name)) {
+                throw new SQLException("No value supplied for query parameter ':" + name + "'");
+            }
+            preparedStatement.setObject(i + 1, values.get(name));
+        }
+    }
+
+    // Maps positional values onto the parameter names in order of first appearance
+    public Map<String, Object> toNamedValues(Object... values) {
+        if (values.length != parameterNames.size()) {
+            throw new IllegalArgumentException("Expected " + parameterNames.size() + " parameters " + parameterNames
+                    + " but got " + values.length);
+        }
+        Map<String, Object> named = new LinkedHashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            named.put(parameterNames.get(i), values[i]);
+        }
+        return named;
+    }
+
+    // Converts Gherkin cell values to JDBC types: null, booleans, integers and exact decimals
+    public static Object convertValue(String value) {
+        if (value == null || "null".equalsIgnoreCase(value)) {
+            return null;
+        }
+        if (Common.isBoolean(value)) {
+            return Boolean.parseBoolean(value);
+        }
+        if (INTEGER.matcher(value).matches()) {
+            long number = Long.parseLong(value);
+            return number == (int) number ? (Object) (int) number : (Object) number;
+        }
+        if (DECIMAL.matcher(value).matches()) {
+            return new BigDecimal(value);
+        }
+        return value;
+    }
+
+    public static Map<String, Object> convertValues(Map<String, String> values) {
+        Map<String, Object> converted = new LinkedHashMap<>();
+        values.forEach((name, value) -> converted.put(name, convertValue(value)));
+        return converted;
+    }
+
+    private static NamedQuery parse(String namedSql) {
+        StringBuilder sql = new StringBuilder(namedSql.length());
+        List<String> placeholders = new ArrayList<>();
+        int length = namedSql.length();
+        int i = 0;
+        while (i < length) {
+            char c = namedSql.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                int end = skipQuoted(namedSql, i, c);
+                sql.append(namedSql, i, end);
+                i = end;
+            } else if (c == '-' && i + 1 < length && namedSql.charAt(i + 1) == '-') {
+                int end = namedSql.indexOf('\n', i);
+                end = end < 0 ? length : end;
+                sql.append(namedSql, i, end);
+                i = end;
+            } else if (c == '/' && i + 1 < length && namedSql.charAt(i + 1) == '*') {
+                int end = namedSql.indexOf("*/", i + 2);
+                end = end < 0 ? length : end + 2;
+                sql.append(namedSql, i, end);
+                i = end;
+            } else if (c == ':' && i + 1 < length && namedSql.charAt(i + 1) == ':') {
+                // PostgreSQL style cast, not a parameter
+                sql.append("::");
+                i += 2;
+            } else if (c == ':' && i + 1 < length && Character.isJavaIdentifierStart(namedSql.charAt(i + 1))) {
+                int end = i + 1;
+                while (end < length && Character.isJavaIdentifierPart(namedSql.charAt(end))) {
+                    end++;
+                }
+                placeholders.add(namedSql.substring(i + 1, end));
+                sql.append('?');
+                i = end;
+            } else {
+                sql.append(c);
+                i++;
+            }
+        }
+        return new NamedQuery(sql.toString(), placeholders);
+    }
+
+    private static int skipQuoted(String text, int start, char quote) {
+        int i = start + 1;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == quote) {
+                if (i + 1 < text.length() && text.charAt(i + 1) == quote) {
+                    i += 2;
+                } else {
+                    return i + 1;
+                }
+            } else {
+                i++;
+            }
+        }
+        return text.length();
+    }
+}
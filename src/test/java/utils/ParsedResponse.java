@@ -0,0 +1,106 @@
+package utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.restassured.path.json.JsonPath;
+import io.restassured.path.xml.XmlPath;
+import io.restassured.response.Response;
+
+import java.util.List;
+
+/**
+ * Parses a response body at most once per representation (text, Jackson tree, JsonPath, XmlPath)
+ * and only when an assertion first needs it, so every Then-step on the same response shares the
+ * parsed document. Simple paths are answered from the Jackson tree by JsonPathEvaluator; run with
+ * -Djson.fastPath=false to always use Rest Assured's JsonPath.
+ */
+public final class ParsedResponse {
+    private static final boolean FAST_PATH = !"false".equalsIgnoreCase(System.getProperty("json.fastPath"));
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    // Steps of a scenario run on one thread, so the last response per thread is the one being asserted on
+    private static final ThreadLocal<ParsedResponse> LAST = new ThreadLocal<>();
+
+    private final Response response;
+    private String body;
+    private JsonNode tree;
+    private boolean treeParsed;
+    private JsonPath jsonPath;
+    private XmlPath xmlPath;
+
+    public ParsedResponse(Response response) {
+        this.response = response;
+    }
+
+    public static ParsedResponse of(Response response) {
+        ParsedResponse last = LAST.get();
+        if (last == null || last.response != response) {
+            last = new ParsedResponse(response);
+            LAST.set(last);
+        }
+        return last;
+    }
+
+    // Called when a scenario ends, so a pooled runner thread does not keep its last response body alive
+    public static void clear() {
+        LAST.remove();
+    }
+
+    public String asString() {
+        if (body == null) {
+            body = response.asString();
+        }
+        return body;
+    }
+
+    // Jackson tree of the body, or null when the body is not JSON
+    public JsonNode tree() {
+        if (!treeParsed) {
+            treeParsed = true;
+            String text = asString();
+            long start = System.nanoTime();
+            try {
+                tree = MAPPER.readTree(text);
+            } catch (Exception e) {
+                tree = null;
+            }
+            StepTimings.add("parse", System.nanoTime() - start);
+        }
+        return tree;
+    }
+
+    public JsonPath jsonPath() {
+        if (jsonPath == null) {
+            // Rest Assured's JsonPath parses on each lookup, so its time shows up as assert time
+            jsonPath = response.jsonPath();
+        }
+        return jsonPath;
+    }
+
+    public XmlPath xmlPath() {
+        if (xmlPath == null) {
+            String text = asString();
+            long start = System.nanoTime();
+            xmlPath = new XmlPath(text);
+            StepTimings.add("parse", System.nanoTime() - start);
+        }
+        return xmlPath;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T get(String path) {
+        if (FAST_PATH) {
+            Object[] steps = JsonPathEvaluator.compile(path);
+            if (steps != null && tree() != null) {
+                Object value = JsonPathEvaluator.evaluate(tree(), steps);
+                if (value != JsonPathEvaluator.UNSUPPORTED) {
+                    return (T) value;
+                }
+            }
+        }
+        return jsonPath().get(path);
+    }
+
+    public <T> List<T> getList(String path) {
+        return jsonPath().getList(path);
+    }
+}
@@ -0,0 +1,157 @@
+package utils;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Receives the rows of a streamed query one at a time, so assertions over large result sets
+ * never hold more than the current row in memory. Returning false stops the stream early.
+ */
+public interface RowVisitor {
+
+    boolean visit(ResultSet row) throws SQLException;
+
+    static Counter count() {
+        return new Counter();
+    }
+
+    static ColumnMatcher columnEquals(String columnName, String expectedValue) {
+        return new ColumnMatcher(columnName, expectedValue);
+    }
+
+    static ColumnAggregate aggregate(String columnName) {
+        return new ColumnAggregate(columnName);
+    }
+
+    static FirstRows firstRows(int limit) {
+        return new FirstRows(limit);
+    }
+
+    class Counter implements RowVisitor {
+        private long rows;
+
+        @Override
+        public boolean visit(ResultSet row) {
+            rows++;
+            return true;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+    }
+
+    // Counts the rows whose column value, compared as text, equals the expected value
+    class ColumnMatcher implements RowVisitor {
+        private final String columnName;
+        private final String expectedValue;
+        private long rows;
+        private long matches;
+        private String firstMismatch;
+
+        public ColumnMatcher(String columnName, String expectedValue) {
+            this.columnName = columnName;
+            this.expectedValue = expectedValue;
+        }
+
+        @Override
+        public boolean visit(ResultSet row) throws SQLException {
+            rows++;
+            String actual = row.getString(columnName);
+            if (Objects.equals(actual, expectedValue)) {
+                matches++;
+            } else if (firstMismatch == null) {
+                firstMismatch = "row " + rows + " has " + columnName + "=" + actual;
+            }
+            return true;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getMatches() {
+            return matches;
+        }
+
+        public boolean allMatch() {
+            return matches == rows;
+        }
+
+        public String getFirstMismatch() {
+            return firstMismatch;
+        }
+    }
+
+    // Sum, minimum and maximum of a numeric column; SQL NULLs are skipped
+    class ColumnAggregate implements RowVisitor {
+        private final String columnName;
+        private long count;
+        private BigDecimal sum = BigDecimal.ZERO;
+        private BigDecimal min;
+        private BigDecimal max;
+
+        public ColumnAggregate(String columnName) {
+            this.columnName = columnName;
+        }
+
+        @Override
+        public boolean visit(ResultSet row) throws SQLException {
+            BigDecimal value = row.getBigDecimal(columnName);
+            if (value != null) {
+                count++;
+                sum = sum.add(value);
+                min = min == null || value.compareTo(min) < 0 ? value : min;
+                max = max == null || value.compareTo(max) > 0 ? value : max;
+            }
+            return true;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public BigDecimal getSum() {
+            return sum;
+        }
+
+        public BigDecimal getMin() {
+            return min;
+        }
+
+        public BigDecimal getMax() {
+            return max;
+        }
+    }
+
+    class FirstRows implements RowVisitor {
+        private final int limit;
+        private final List<Object[]> rows = new ArrayList<>();
+
+        public FirstRows(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean visit(ResultSet row) throws SQLException {
+            if (rows.size() >= limit) {
+                return false;
+            }
+            int columns = row.getMetaData().getColumnCount();
+            Object[] values = new Object[columns];
+            for (int i = 1; i <= columns; i++) {
+                values[i - 1] = row.getObject(i);
+            }
+            rows.add(values);
+            return rows.size() < limit;
+        }
+
+        public List<Object[]> getRows() {
+            return rows;
+        }
+    }
+}
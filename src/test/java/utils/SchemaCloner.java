@@ -0,0 +1,100 @@
+package utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Gives every scenario thread its own MySQL schema copied from a template schema, so scenarios that
+ * change table definitions can run in parallel. A clone is named template_wN after the worker, or
+ * template_sS_wN in shard S of a sharded run whose JVMs share the database, and is created on first use. Rebuilding drops tables that are not in the template and recreates the others
+ * with CREATE TABLE ... LIKE plus a copy of the template rows; foreign keys, views and routines of the
+ * template are not copied.
+ */
+public final class SchemaCloner {
+    private static final Logger logger = LogManager.getLogger(SchemaCloner.class);
+    private static final Pattern SCHEMA_NAME = Pattern.compile("[A-Za-z0-9_$]+");
+    private static final AtomicInteger nextWorker = new AtomicInteger();
+    private static final ThreadLocal<Integer> worker = ThreadLocal.withInitial(nextWorker::incrementAndGet);
+    private static final Set<String> created = ConcurrentHashMap.newKeySet();
+
+    private SchemaCloner() {
+    }
+
+    // The clone for the calling thread, created from the template if this run has not built it yet
+    public static String cloneForCurrentThread(Connection connection, String template) throws SQLException {
+        requireSchemaName(template);
+        String clone = template + shardSuffix() + "_w" + worker.get();
+        // Marked as built only once the copy is complete, so a failed build is tried again by the next scenario
+        if (!created.contains(clone)) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE DATABASE IF NOT EXISTS `" + clone + "`");
+            }
+            rebuild(connection, template, clone);
+            created.add(clone);
+        }
+        return clone;
+    }
+
+    public static void rebuild(Connection connection, String template, String clone) throws SQLException {
+        requireSchemaName(template);
+        requireSchemaName(clone);
+        long start = System.nanoTime();
+        List<String> templateTables = listTables(connection, template);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SET FOREIGN_KEY_CHECKS = 0");
+            try {
+                for (String table : listTables(connection, clone)) {
+                    if (!templateTables.contains(table)) {
+                        statement.execute("DROP TABLE `" + clone + "`.`" + table + "`");
+                    }
+                }
+                for (String table : templateTables) {
+                    statement.execute("DROP TABLE IF EXISTS `" + clone + "`.`" + table + "`");
+                    statement.execute("CREATE TABLE `" + clone + "`.`" + table + "` LIKE `" + template + "`.`" + table + "`");
+                    statement.execute("INSERT INTO `" + clone + "`.`" + table + "` SELECT * FROM `" + template + "`.`" + table + "`");
+                }
+            } finally {
+                statement.execute("SET FOREIGN_KEY_CHECKS = 1");
+            }
+        }
+        logger.info("Rebuilt schema {} from {} ({} tables) in {} ms", clone, template, templateTables.size(),
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // Worker numbers start at 1 in every JVM, so the shards of one run need their own clone names
+    private static String shardSuffix() {
+        return Integer.getInteger("shard.count", 1) > 1 ? "_s" + Integer.getInteger("shard.index", 1) : "";
+    }
+
+    private static List<String> listTables(Connection connection, String schema) throws SQLException {
+        List<String> tables = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT table_name FROM information_schema.tables WHERE table_schema = ? AND table_type = 'BASE TABLE'")) {
+            statement.setString(1, schema);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    tables.add(rs.getString(1));
+                }
+            }
+        }
+        return tables;
+    }
+
+    private static void requireSchemaName(String name) {
+        if (name == null || !SCHEMA_NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid schema name: " + name);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.testng.Assert;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Scenario-scoped assertion collector. In hard mode (the default) a failed check fails the step at once,
+ * as Assert does. In soft mode failed checks are recorded and the scenario carries on, so every broken
+ * field of a scenario is reported in one run; assertAll at the end of the scenario fails it with all of
+ * them. Messages are log4j style templates ("expected {} rows") formatted only when a check fails, so
+ * passing checks build no strings. Errors that leave nothing to assert on (a request that could not be
+ * sent, a query that failed) go through abort and stop the scenario in both modes.
+ */
+public final class SoftAssertions {
+    private static final Logger logger = LogManager.getLogger(SoftAssertions.class);
+    // Steps of a scenario run on one thread; threads outside a scenario fail hard
+    private static final ThreadLocal<SoftAssertions> CURRENT = new ThreadLocal<>();
+
+    private final boolean soft;
+    private final List<String> failures = new ArrayList<>();
+
+    private SoftAssertions(boolean soft) {
+        this.soft = soft;
+    }
+
+    public static SoftAssertions begin(boolean soft) {
+        SoftAssertions assertions = new SoftAssertions(soft);
+        CURRENT.set(assertions);
+        return assertions;
+    }
+
+    // Detaches the collector from the thread and returns it, or null when none was started
+    public static SoftAssertions end() {
+        SoftAssertions assertions = CURRENT.get();
+        CURRENT.remove();
+        return assertions;
+    }
+
+    public static boolean isSoft() {
+        SoftAssertions assertions = CURRENT.get();
+        return assertions != null && assertions.soft;
+    }
+
+    public static void check(boolean condition, String message, Object... params) {
+        if (!condition) {
+            fail(message, params);
+        }
+    }
+
+    public static void checkEquals(Object actual, Object expected, String message, Object... params) {
+        if (!Objects.equals(actual, expected)) {
+            fail(message + " expected [" + expected + "] but found [" + actual + "]", params);
+        }
+    }
+
+    // A failed check: recorded in soft mode, thrown in hard mode
+    public static void fail(String message, Object... params) {
+        String text = ParameterizedMessage.format(message, params);
+        SoftAssertions assertions = CURRENT.get();
+        if (assertions == null || !assertions.soft) {
+            Assert.fail(text);
+        }
+        logger.warn("Soft assertion failed: {}", text);
+        assertions.failures.add(text);
+    }
+
+    // An error the scenario cannot continue after, in either mode. Helpers that return a value use it when
+    // they cannot compute one, so a step never asserts on a placeholder and reports the error a second time.
+    public static void abort(String message, Object... params) {
+        Assert.fail(ParameterizedMessage.format(message, params));
+    }
+
+    public List<String> getFailures() {
+        return Collections.unmodifiableList(failures);
+    }
+
+    // Fails with every failure recorded in soft mode
+    public void assertAll() {
+        if (failures.isEmpty()) {
+            return;
+        }
+        StringBuilder message = new StringBuilder().append(failures.size()).append(" soft assertion failure(s):");
+        for (int i = 0; i < failures.size(); i++) {
+            message.append("\n  ").append(i + 1).append(". ").append(failures.get(i));
+        }
+        Assert.fail(message.toString());
+    }
+}
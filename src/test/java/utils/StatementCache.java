@@ -0,0 +1,90 @@
+package utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LRU cache of prepared statements for a single connection, keyed by SQL text. Statements
+ * evicted from the cache are closed. A connection is only ever used by one scenario at a time,
+ * so the cache itself is not synchronized; the suite-wide hit and miss totals are. Re-executing a
+ * cached statement closes its previous result set, so only statements whose results are read and
+ * closed before the call returns belong here; DDL and result sets handed to callers use their own.
+ */
+public class StatementCache {
+    private static final Logger logger = LogManager.getLogger(StatementCache.class);
+    private static final LongAdder TOTAL_HITS = new LongAdder();
+    private static final LongAdder TOTAL_MISSES = new LongAdder();
+
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public StatementCache(Connection connection, int capacity) {
+        this.connection = connection;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= Math.max(1, capacity)) {
+                    return false;
+                }
+                evictions++;
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement != null && !statement.isClosed()) {
+            hits++;
+            TOTAL_HITS.increment();
+            return statement;
+        }
+        misses++;
+        TOTAL_MISSES.increment();
+        statement = connection.prepareStatement(sql);
+        statements.put(sql, statement);
+        return statement;
+    }
+
+    public void close() {
+        for (PreparedStatement statement : statements.values()) {
+            closeQuietly(statement);
+        }
+        statements.clear();
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public String getStats() {
+        return "hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", cached=" + statements.size();
+    }
+
+    public static String getTotalStats() {
+        return "hits=" + TOTAL_HITS.sum() + ", misses=" + TOTAL_MISSES.sum();
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            logger.debug("Error closing cached statement", e);
+        }
+    }
+}
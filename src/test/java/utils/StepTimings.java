@@ -0,0 +1,242 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Phase timings of the HTTP requests and SQL statements run by a Cucumber step, so a slow step can be
+ * split into prepare, dns, connect, ttfb, transfer, parse and assert for HTTP or borrow, execute and
+ * fetch for JDBC. Phases are laps that run from the end of the previous phase of the same request:
+ * prepare is request building plus leasing a pooled connection, and dns and connect (TCP and TLS)
+ * only appear when a new connection is opened. Timings are kept only
+ * while the StepTimingPlugin reports a step running on the thread; load test and data file workers
+ * are not recorded. Every request and statement is also summed per endpoint or query for the run.
+ */
+public final class StepTimings {
+    private static final int MAX_TARGET_LENGTH = 120;
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    // Numeric and UUID path segments, so /users/2 and /users/3 are summed as one endpoint
+    private static final Pattern ID_SEGMENT = Pattern.compile(
+            "/(\\d+|[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12})(?=/|$)");
+    private static final ThreadLocal<ThreadState> STATE = ThreadLocal.withInitial(ThreadState::new);
+    private static final Map<String, Target> TARGETS = new ConcurrentHashMap<>();
+    private static final Operation NONE = new Operation(null, null);
+    private static final List<String> PHASE_ORDER = List.of(
+            "prepare", "dns", "connect", "ttfb", "transfer", "parse", "assert", "borrow", "execute", "fetch");
+
+    private StepTimings() {
+    }
+
+    public static void startStep() {
+        ThreadState state = STATE.get();
+        state.inStep = true;
+        state.phases = new LinkedHashMap<>();
+    }
+
+    // Ends the step on this thread; its phases are kept until takeLastStep is called
+    public static void finishStep(long stepNanos) {
+        ThreadState state = STATE.get();
+        state.inStep = false;
+        state.lastStep = state.phases.isEmpty() ? null : new StepReport(state.phases, stepNanos);
+        state.phases = new LinkedHashMap<>();
+    }
+
+    public static StepReport takeLastStep() {
+        ThreadState state = STATE.get();
+        StepReport report = state.lastStep;
+        state.lastStep = null;
+        return report;
+    }
+
+    public static Operation beginRequest(String method, String endpoint) {
+        int query = endpoint.indexOf('?');
+        String path = query < 0 ? endpoint : endpoint.substring(0, query);
+        return begin(method.toUpperCase() + " " + ID_SEGMENT.matcher(path).replaceAll("/{id}"));
+    }
+
+    public static Operation beginStatement(String sql) {
+        return begin("SQL " + WHITESPACE.matcher(sql.trim()).replaceAll(" "));
+    }
+
+    private static Operation begin(String target) {
+        ThreadState state = STATE.get();
+        if (!state.inStep) {
+            return NONE;
+        }
+        String key = target.length() > MAX_TARGET_LENGTH ? target.substring(0, MAX_TARGET_LENGTH) + "..." : target;
+        Operation operation = new Operation(state, key);
+        state.active = operation;
+        return operation;
+    }
+
+    // Ends the current phase of the request or statement in progress on this thread, if any
+    public static void lap(String phase) {
+        ThreadState state = STATE.get();
+        if (state.inStep && state.active != null) {
+            state.active.lap(phase);
+        }
+    }
+
+    // Adds time to the last request or statement of this thread, e.g. parsing its body in a later step
+    public static void add(String phase, long nanos) {
+        ThreadState state = STATE.get();
+        if (state.inStep && state.active != null) {
+            state.active.add(phase, nanos);
+            if ("parse".equals(phase)) {
+                state.parseNanos += nanos;
+            }
+        }
+    }
+
+    // Assertion timing excludes the parse time recorded while the assertion ran
+    public static long startAssert() {
+        ThreadState state = STATE.get();
+        state.parseNanosAtAssert = state.parseNanos;
+        return System.nanoTime();
+    }
+
+    public static void endAssert(long startNanos) {
+        ThreadState state = STATE.get();
+        add("assert", System.nanoTime() - startNanos - (state.parseNanos - state.parseNanosAtAssert));
+    }
+
+    // Endpoints and queries by descending total time
+    public static List<TargetStats> getSlowest(int limit) {
+        List<TargetStats> stats = new ArrayList<>();
+        TARGETS.forEach((name, target) -> stats.add(new TargetStats(name, target)));
+        stats.sort(Comparator.comparingLong(TargetStats::getTotalNanos).reversed());
+        return stats.size() > limit ? new ArrayList<>(stats.subList(0, limit)) : stats;
+    }
+
+    public static void reset() {
+        TARGETS.clear();
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.1f ms", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    private static final class ThreadState {
+        private boolean inStep;
+        private Map<String, Map<String, Long>> phases = new LinkedHashMap<>();
+        private StepReport lastStep;
+        private Operation active;
+        private long parseNanos;
+        private long parseNanosAtAssert;
+    }
+
+    private static final class Target {
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final Map<String, LongAdder> phaseNanos = new ConcurrentHashMap<>();
+    }
+
+    public static final class Operation {
+        private final ThreadState state;
+        private final String target;
+        private final long start = System.nanoTime();
+        private long mark = start;
+        private boolean ended;
+
+        private Operation(ThreadState state, String target) {
+            this.state = state;
+            this.target = target;
+        }
+
+        public void lap(String phase) {
+            if (state == null || ended) {
+                return;
+            }
+            long now = System.nanoTime();
+            add(phase, now - mark);
+            mark = now;
+        }
+
+        // Records the request or statement in the run totals
+        public void end() {
+            if (state != null && !ended) {
+                ended = true;
+                TARGETS.computeIfAbsent(target, name -> new Target()).latencies.record(mark - start);
+            }
+        }
+
+        private void add(String phase, long nanos) {
+            state.phases.computeIfAbsent(target, name -> new LinkedHashMap<>()).merge(phase, nanos, Long::sum);
+            TARGETS.computeIfAbsent(target, name -> new Target()).phaseNanos
+                    .computeIfAbsent(phase, name -> new LongAdder()).add(nanos);
+        }
+    }
+
+    // The phases recorded during one step, per request or statement
+    public static final class StepReport {
+        private final Map<String, Map<String, Long>> phases;
+        private final long stepNanos;
+
+        private StepReport(Map<String, Map<String, Long>> phases, long stepNanos) {
+            this.phases = phases;
+            this.stepNanos = stepNanos;
+        }
+
+        public Map<String, Map<String, Long>> getPhases() {
+            return phases;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            long recorded = 0;
+            for (Map.Entry<String, Map<String, Long>> target : phases.entrySet()) {
+                text.append(target.getKey()).append(':');
+                String separator = " ";
+                for (Map.Entry<String, Long> phase : target.getValue().entrySet()) {
+                    text.append(separator).append(phase.getKey()).append(' ').append(millis(phase.getValue()));
+                    separator = ", ";
+                    recorded += phase.getValue();
+                }
+                text.append('\n');
+            }
+            return text.append("step ").append(millis(stepNanos)).append(", other ")
+                    .append(millis(Math.max(0, stepNanos - recorded))).toString();
+        }
+    }
+
+    public static final class TargetStats {
+        private final String name;
+        private final LatencyHistogram latencies;
+        private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+
+        private TargetStats(String name, Target target) {
+            this.name = name;
+            this.latencies = target.latencies;
+            List<String> phases = new ArrayList<>(target.phaseNanos.keySet());
+            phases.sort(Comparator.comparingInt(phase -> PHASE_ORDER.contains(phase) ? PHASE_ORDER.indexOf(phase) : PHASE_ORDER.size()));
+            for (String phase : phases) {
+                phaseNanos.put(phase, target.phaseNanos.get(phase).sum());
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public LatencyHistogram getLatencies() {
+            return latencies;
+        }
+
+        // Total time of all phases, including parse and assert time spent after the request
+        public long getTotalNanos() {
+            return phaseNanos.values().stream().mapToLong(Long::longValue).sum();
+        }
+
+        // Phase totals in nanoseconds; divide by the count for a per-call average
+        public Map<String, Long> getPhaseNanos() {
+            return phaseNanos;
+        }
+    }
+}
@@ -0,0 +1,650 @@
+package utils;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Order independent comparison of two tables or queries with bounded memory.
+ * <p>
+ * MERGE walks both tables in primary key order. Each step reads at most chunkSize rows of each
+ * table over the same key range, with the range bounds chosen by the database's ORDER BY, so
+ * at most two chunks are held whatever the table sizes or the spread of their keys. HASH
+ * streams each side once into hash partitioned spill files, keeping a count and checksum per
+ * partition; only partitions whose checksums differ are compared, optionally in parallel, and a
+ * partition with more than rowsPerPartition rows is split again by its row count before it is
+ * loaded.
+ */
+public class TableDiff {
+    private static final Logger logger = LogManager.getLogger(TableDiff.class);
+    private static final char FIELD_SEPARATOR = '\u001F';
+    private static final String NULL_MARKER = "\u0000";
+    private static final int MAX_SPLIT_PARTS = 256;
+    private static final int MAX_SPLIT_LEVEL = 4;
+
+    public enum Mode { MERGE, HASH }
+
+    private final Connection connection;
+    private int chunkSize = 10_000;
+    private int partitions = 64;
+    private int rowsPerPartition = 50_000;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int sampleLimit = 10;
+    private int fetchSize;
+
+    public TableDiff(Connection connection) {
+        this.connection = connection;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public void setPartitions(int partitions) {
+        this.partitions = partitions;
+    }
+
+    // Largest partition loaded into memory; larger ones are split into row count / rowsPerPartition parts
+    public void setRowsPerPartition(int rowsPerPartition) {
+        this.rowsPerPartition = Math.max(1, rowsPerPartition);
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public void setSampleLimit(int sampleLimit) {
+        this.sampleLimit = sampleLimit;
+    }
+
+    // Fetch size for the streamed HASH reads, see DatabaseHelper.streamQuery
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    // MERGE falls back to HASH when the first table has no primary key
+    public Result compareTables(String table1, String table2, Mode mode) throws SQLException {
+        List<String> keyColumns = getPrimaryKeyColumns(table1);
+        if (mode == Mode.MERGE) {
+            if (!keyColumns.isEmpty()) {
+                return mergeCompare(table1, table2, keyColumns);
+            }
+            logger.info("Table {} has no primary key, comparing with hash partitions", table1);
+        }
+        return hashCompare("SELECT * FROM " + table1, "SELECT * FROM " + table2, keyColumns);
+    }
+
+    // Compares two queries as multisets of rows
+    public Result compareQueries(String query1, String query2) throws SQLException {
+        return hashCompare(query1, query2, Collections.emptyList());
+    }
+
+    private Result mergeCompare(String table1, String table2, List<String> keyColumns) throws SQLException {
+        Result result = new Result(sampleLimit);
+        KeysetCursor left = new KeysetCursor(table1, keyColumns);
+        KeysetCursor right = new KeysetCursor(table2, keyColumns);
+        if (left.columnCount != right.columnCount) {
+            result.columnMismatch = table1 + " has " + left.columnCount + " columns, " + table2 + " has " + right.columnCount;
+            return result;
+        }
+        Object[] lower = null;
+        while (true) {
+            Chunk leftChunk = left.read(lower, null);
+            Object[] upper = leftChunk.full ? leftChunk.lastKey : null;
+            Chunk rightChunk = right.read(lower, upper);
+            if (rightChunk.full) {
+                // More rows of the second table fall in this range: end it at the last one read instead
+                upper = rightChunk.lastKey;
+                leftChunk = left.read(lower, upper);
+            }
+            // Both chunks now hold every row of their table in (lower, upper]
+            Map<String, String> leftRows = new HashMap<>();
+            for (String[] row : leftChunk.rows) {
+                leftRows.put(row[0], row[1]);
+            }
+            for (String[] row : rightChunk.rows) {
+                String leftRow = leftRows.remove(row[0]);
+                if (leftRow == null) {
+                    result.extra(row[0], row[1]);
+                } else {
+                    result.compare(row[0], leftRow, row[1]);
+                }
+            }
+            leftRows.forEach(result::missing);
+            if (upper == null) {
+                return result;
+            }
+            lower = upper;
+        }
+    }
+
+    private Result hashCompare(String query1, String query2, List<String> keyColumns) throws SQLException {
+        Result result = new Result(sampleLimit);
+        Path directory = null;
+        try {
+            directory = Files.createTempDirectory("table-diff");
+            Spill left = spill(query1, keyColumns, directory.resolve("left"));
+            Spill right = spill(query2, keyColumns, directory.resolve("right"));
+            if (left.columnCount != right.columnCount) {
+                result.columnMismatch = "first query has " + left.columnCount + " columns, second has " + right.columnCount;
+                return result;
+            }
+            List<Integer> differing = new ArrayList<>();
+            for (int p = 0; p < partitions; p++) {
+                if (left.counts[p] != right.counts[p] || left.checksums[p] != right.checksums[p]) {
+                    differing.add(p);
+                } else {
+                    result.matched += left.counts[p];
+                }
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, differing.size())));
+            try {
+                List<Future<Result>> partials = new ArrayList<>();
+                for (int p : differing) {
+                    Path leftFile = left.file(p);
+                    Path rightFile = right.file(p);
+                    long rows = Math.max(left.counts[p], right.counts[p]);
+                    partials.add(executor.submit(() -> comparePartition(leftFile, rightFile, rows, 0)));
+                }
+                for (Future<Result> partial : partials) {
+                    result.merge(partial.get());
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+            return result;
+        } catch (IOException e) {
+            throw new SQLException("Error spilling rows to disk for comparison", e);
+        } catch (ExecutionException e) {
+            throw new SQLException("Error comparing partitions", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while comparing partitions", e);
+        } finally {
+            deleteQuietly(directory);
+        }
+    }
+
+    private Spill spill(String query, List<String> keyColumns, Path directory) throws SQLException, IOException {
+        Files.createDirectories(directory);
+        Spill spill = new Spill(directory, partitions);
+        DataOutputStream[] outputs = new DataOutputStream[partitions];
+        try (PreparedStatement preparedStatement = connection.prepareStatement(query,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            preparedStatement.setFetchSize(fetchSize);
+            try (ResultSet rs = preparedStatement.executeQuery()) {
+                spill.columnCount = rs.getMetaData().getColumnCount();
+                int[] keyIndexes = keyIndexes(rs.getMetaData(), keyColumns);
+                while (rs.next()) {
+                    String row = rowText(rs, spill.columnCount);
+                    String key = keyIndexes.length == 0 ? row : keyText(rs, keyIndexes);
+                    long rowHash = hash(row);
+                    int partition = partitionOf(key, 0, partitions);
+                    if (outputs[partition] == null) {
+                        outputs[partition] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spill.file(partition))));
+                    }
+                    writeString(outputs[partition], key);
+                    outputs[partition].writeLong(rowHash);
+                    writeString(outputs[partition], row);
+                    spill.counts[partition]++;
+                    spill.checksums[partition] += rowHash;
+                }
+            }
+        } finally {
+            for (DataOutputStream output : outputs) {
+                if (output != null) {
+                    output.close();
+                }
+            }
+        }
+        return spill;
+    }
+
+    // Partitions with more rows than rowsPerPartition are split with another hash seed until they fit;
+    // a split that leaves every row in one part (all rows share a key) is compared as it is
+    private Result comparePartition(Path leftFile, Path rightFile, long rowCount, int level) throws IOException {
+        if (rowCount > rowsPerPartition && level < MAX_SPLIT_LEVEL) {
+            int parts = (int) Math.min(MAX_SPLIT_PARTS, (rowCount + rowsPerPartition - 1) / rowsPerPartition);
+            Spill left = split(leftFile, parts, level + 1);
+            Spill right = split(rightFile, parts, level + 1);
+            if (Math.max(left.largest(), right.largest()) < rowCount) {
+                Result result = new Result(sampleLimit);
+                for (int p = 0; p < parts; p++) {
+                    if (left.counts[p] == right.counts[p] && left.checksums[p] == right.checksums[p]) {
+                        result.matched += left.counts[p];
+                    } else {
+                        result.merge(comparePartition(left.file(p), right.file(p), Math.max(left.counts[p], right.counts[p]), level + 1));
+                    }
+                    Files.deleteIfExists(left.file(p));
+                    Files.deleteIfExists(right.file(p));
+                }
+                return result;
+            }
+        }
+        Result result = new Result(sampleLimit);
+        Map<String, List<SpilledRow>> leftRows = new HashMap<>();
+        readPartition(leftFile, row -> leftRows.computeIfAbsent(row.key, k -> new ArrayList<>(1)).add(row));
+        readPartition(rightFile, row -> {
+            List<SpilledRow> candidates = leftRows.get(row.key);
+            if (candidates == null) {
+                result.extra(row.key, row.text);
+                return;
+            }
+            SpilledRow match = candidates.remove(candidates.size() - 1);
+            if (candidates.isEmpty()) {
+                leftRows.remove(row.key);
+            }
+            if (match.hash == row.hash && match.text.equals(row.text)) {
+                result.matched++;
+            } else {
+                result.changed(row.key, match.text, row.text);
+            }
+        });
+        leftRows.forEach((key, rows) -> rows.forEach(row -> result.missing(key, row.text)));
+        return result;
+    }
+
+    // Spreads the rows of a partition file over parts files next to it, hashing the keys with the level as seed
+    private Spill split(Path file, int parts, int level) throws IOException {
+        Spill spill = new Spill(file.resolveSibling(file.getFileName() + "." + level), parts);
+        Files.createDirectories(spill.directory);
+        DataOutputStream[] outputs = new DataOutputStream[parts];
+        try {
+            readPartition(file, row -> {
+                int partition = partitionOf(row.key, level, parts);
+                try {
+                    if (outputs[partition] == null) {
+                        outputs[partition] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spill.file(partition))));
+                    }
+                    writeString(outputs[partition], row.key);
+                    outputs[partition].writeLong(row.hash);
+                    writeString(outputs[partition], row.text);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                spill.counts[partition]++;
+                spill.checksums[partition] += row.hash;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            for (DataOutputStream output : outputs) {
+                if (output != null) {
+                    output.close();
+                }
+            }
+        }
+        return spill;
+    }
+
+    private void readPartition(Path file, Consumer<SpilledRow> consumer) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                String key;
+                try {
+                    key = readString(input);
+                } catch (EOFException e) {
+                    return;
+                }
+                long rowHash = input.readLong();
+                consumer.accept(new SpilledRow(key, rowHash, readString(input)));
+            }
+        }
+    }
+
+    // A schema.table name is looked up with its qualifier as the catalog (MySQL databases), then as
+    // the schema; names are matched in the case the database stores unquoted identifiers in
+    private List<String> getPrimaryKeyColumns(String tableName) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        int dot = tableName.indexOf('.');
+        String table = storedCase(metaData, tableName.substring(dot + 1));
+        if (dot < 0) {
+            return getPrimaryKeyColumns(metaData, connection.getCatalog(), null, table);
+        }
+        String qualifier = storedCase(metaData, tableName.substring(0, dot));
+        List<String> columns = getPrimaryKeyColumns(metaData, qualifier, null, table);
+        return columns.isEmpty() ? getPrimaryKeyColumns(metaData, connection.getCatalog(), qualifier, table) : columns;
+    }
+
+    private static List<String> getPrimaryKeyColumns(DatabaseMetaData metaData, String catalog, String schema,
+                                                     String table) throws SQLException {
+        Map<Short, String> columns = new TreeMap<>();
+        try (ResultSet rs = metaData.getPrimaryKeys(catalog, schema, table)) {
+            while (rs.next()) {
+                columns.put(rs.getShort("KEY_SEQ"), rs.getString("COLUMN_NAME"));
+            }
+        }
+        return new ArrayList<>(columns.values());
+    }
+
+    private static String storedCase(DatabaseMetaData metaData, String identifier) throws SQLException {
+        if (metaData.storesUpperCaseIdentifiers()) {
+            return identifier.toUpperCase(Locale.ROOT);
+        }
+        return metaData.storesLowerCaseIdentifiers() ? identifier.toLowerCase(Locale.ROOT) : identifier;
+    }
+
+    private static int[] keyIndexes(ResultSetMetaData metaData, List<String> keyColumns) throws SQLException {
+        int[] indexes = new int[keyColumns.size()];
+        for (int k = 0; k < keyColumns.size(); k++) {
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                if (metaData.getColumnLabel(i).equalsIgnoreCase(keyColumns.get(k))) {
+                    indexes[k] = i;
+                }
+            }
+            if (indexes[k] == 0) {
+                throw new SQLException("Key column " + keyColumns.get(k) + " is not part of the result");
+            }
+        }
+        return indexes;
+    }
+
+    private static String rowText(ResultSet rs, int columnCount) throws SQLException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 1; i <= columnCount; i++) {
+            if (i > 1) {
+                text.append(FIELD_SEPARATOR);
+            }
+            String value = rs.getString(i);
+            text.append(value == null ? NULL_MARKER : value);
+        }
+        return text.toString();
+    }
+
+    private static String keyText(ResultSet rs, int[] keyIndexes) throws SQLException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < keyIndexes.length; i++) {
+            if (i > 0) {
+                text.append(FIELD_SEPARATOR);
+            }
+            String value = rs.getString(keyIndexes[i]);
+            text.append(value == null ? NULL_MARKER : value);
+        }
+        return text.toString();
+    }
+
+    // Level 0 is the first spill; every split level hashes with a different seed so rows move apart
+    private static int partitionOf(String key, int level, int parts) {
+        long h = hash(key);
+        if (level > 0) {
+            h = mix(h ^ (level * 0x9e3779b97f4a7c15L));
+        }
+        return (int) Math.floorMod(h, (long) parts);
+    }
+
+    // 64-bit FNV-1a followed by a finalizing mix so partition numbers are evenly spread
+    private static long hash(String text) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            h ^= text.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void deleteQuietly(Path directory) {
+        if (directory == null) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Collections.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            logger.warn("Could not delete spill directory {}", directory, e);
+        }
+    }
+
+    private static String display(String text) {
+        return text.replace(FIELD_SEPARATOR, '|').replace(NULL_MARKER, "NULL");
+    }
+
+    // Reads a table in key order, one chunk per query, over a key range given by the last keys of earlier chunks
+    private class KeysetCursor {
+        private final String table;
+        private final List<String> keyColumns;
+        private final String orderBy;
+        private final String keyParameters;
+        private final int columnCount;
+
+        private KeysetCursor(String table, List<String> keyColumns) throws SQLException {
+            this.table = table;
+            this.keyColumns = keyColumns;
+            this.orderBy = String.join(", ", keyColumns);
+            this.keyParameters = String.join(", ", Collections.nCopies(keyColumns.size(), "?"));
+            try (PreparedStatement preparedStatement = connection.prepareStatement("SELECT * FROM " + table + " WHERE 1 = 0");
+                 ResultSet rs = preparedStatement.executeQuery()) {
+                this.columnCount = rs.getMetaData().getColumnCount();
+            }
+        }
+
+        // Up to chunkSize rows with lower < key <= upper in key order; a null bound is open
+        private Chunk read(Object[] lower, Object[] upper) throws SQLException {
+            List<String> conditions = new ArrayList<>();
+            if (lower != null) {
+                conditions.add("(" + orderBy + ") > (" + keyParameters + ")");
+            }
+            if (upper != null) {
+                conditions.add("(" + orderBy + ") <= (" + keyParameters + ")");
+            }
+            String query = "SELECT * FROM " + table
+                    + (conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions))
+                    + " ORDER BY " + orderBy;
+            Chunk chunk = new Chunk();
+            try (PreparedStatement preparedStatement = connection.prepareStatement(query)) {
+                preparedStatement.setMaxRows(chunkSize);
+                int parameter = 1;
+                for (Object[] bound : new Object[][]{lower, upper}) {
+                    if (bound != null) {
+                        for (Object value : bound) {
+                            preparedStatement.setObject(parameter++, value);
+                        }
+                    }
+                }
+                try (ResultSet rs = preparedStatement.executeQuery()) {
+                    int[] keyIndexes = keyIndexes(rs.getMetaData(), keyColumns);
+                    while (rs.next()) {
+                        chunk.rows.add(new String[]{keyText(rs, keyIndexes), rowText(rs, columnCount)});
+                        chunk.lastKey = new Object[keyIndexes.length];
+                        for (int i = 0; i < keyIndexes.length; i++) {
+                            chunk.lastKey[i] = rs.getObject(keyIndexes[i]);
+                        }
+                    }
+                }
+            }
+            chunk.full = chunk.rows.size() == chunkSize;
+            return chunk;
+        }
+    }
+
+    private static final class Chunk {
+        private final List<String[]> rows = new ArrayList<>();
+        private Object[] lastKey;
+        private boolean full;
+    }
+
+    private static final class Spill {
+        private final Path directory;
+        private final long[] counts;
+        private final long[] checksums;
+        private int columnCount;
+
+        private Spill(Path directory, int partitions) {
+            this.directory = directory;
+            this.counts = new long[partitions];
+            this.checksums = new long[partitions];
+        }
+
+        private Path file(int partition) {
+            return directory.resolve(partition + ".bin");
+        }
+
+        private long largest() {
+            long largest = 0;
+            for (long count : counts) {
+                largest = Math.max(largest, count);
+            }
+            return largest;
+        }
+    }
+
+    private static final class SpilledRow {
+        private final String key;
+        private final long hash;
+        private final String text;
+
+        private SpilledRow(String key, long hash, String text) {
+            this.key = key;
+            this.hash = hash;
+            this.text = text;
+        }
+    }
+
+    // Counts of matched, missing (only in the first source), extra (only in the second) and changed rows
+    public static class Result {
+        private final int sampleLimit;
+        private long matched;
+        private long missing;
+        private long extra;
+        private long changed;
+        private String columnMismatch;
+        private final List<String> samples = new ArrayList<>();
+
+        private Result(int sampleLimit) {
+            this.sampleLimit = sampleLimit;
+        }
+
+        private void compare(String key, String leftRow, String rightRow) {
+            if (leftRow.equals(rightRow)) {
+                matched++;
+            } else {
+                changed(key, leftRow, rightRow);
+            }
+        }
+
+        private void missing(String key, String row) {
+            missing++;
+            sample("missing " + display(row));
+        }
+
+        private void extra(String key, String row) {
+            extra++;
+            sample("extra   " + display(row));
+        }
+
+        private void changed(String key, String leftRow, String rightRow) {
+            changed++;
+            sample("changed key " + display(key) + ": " + display(leftRow) + " -> " + display(rightRow));
+        }
+
+        private void sample(String line) {
+            if (samples.size() < sampleLimit) {
+                samples.add(line);
+            }
+        }
+
+        private void merge(Result other) {
+            matched += other.matched;
+            missing += other.missing;
+            extra += other.extra;
+            changed += other.changed;
+            Iterator<String> lines = other.samples.iterator();
+            while (samples.size() < sampleLimit && lines.hasNext()) {
+                samples.add(lines.next());
+            }
+        }
+
+        public boolean isEqual() {
+            return columnMismatch == null && missing == 0 && extra == 0 && changed == 0;
+        }
+
+        public long getMatched() {
+            return matched;
+        }
+
+        public long getMissing() {
+            return missing;
+        }
+
+        public long getExtra() {
+            return extra;
+        }
+
+        public long getChanged() {
+            return changed;
+        }
+
+        public List<String> getSamples() {
+            return samples;
+        }
+
+        @Override
+        public String toString() {
+            if (columnMismatch != null) {
+                return "Column mismatch: " + columnMismatch;
+            }
+            StringBuilder report = new StringBuilder("matched=" + matched + ", missing=" + missing
+                    + ", extra=" + extra + ", changed=" + changed);
+            for (String line : samples) {
+                report.append(System.lineSeparator()).append("  ").append(line);
+            }
+            return report.toString();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package utils;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TableDiffTest {
+    private Connection connection;
+
+    @BeforeMethod
+    public void openDatabase() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:table_diff;DB_CLOSE_DELAY=-1");
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void dropDatabase() throws SQLException {
+        execute("DROP ALL OBJECTS");
+        connection.close();
+    }
+
+    @Test
+    public void tablesWithTheSameRowsInAnotherOrderAreEqual() throws SQLException {
+        createUsers("left_users", 1, 2, 3, 4, 5);
+        createUsers("right_users", 5, 3, 1, 4, 2);
+        for (TableDiff.Mode mode : TableDiff.Mode.values()) {
+            TableDiff.Result result = diff(2).compareTables("left_users", "right_users", mode);
+            assertTrue(result.isEqual(), mode + ": " + result);
+            assertEquals(result.getMatched(), 5, mode.toString());
+        }
+    }
+
+    @Test
+    public void mergeFindsDifferencesAcrossSkewedKeyRanges() throws SQLException {
+        // The second table has a long run of keys that all sort between two keys of the first
+        createUsers("left_users", 1, 2, 3, 1000, 1001);
+        createUsers("right_users", 2, 3, 1000, 1001);
+        for (int id = 10; id < 40; id++) {
+            execute("INSERT INTO right_users VALUES (" + id + ", 'user" + id + "')");
+        }
+        execute("UPDATE right_users SET name = 'changed' WHERE id = 1001");
+
+        TableDiff.Result result = diff(3).compareTables("left_users", "right_users", TableDiff.Mode.MERGE);
+
+        assertFalse(result.isEqual());
+        assertEquals(result.getMatched(), 3);
+        assertEquals(result.getMissing(), 1);
+        assertEquals(result.getExtra(), 30);
+        assertEquals(result.getChanged(), 1);
+    }
+
+    @Test
+    public void mergeWalksCompositeKeysInOrder() throws SQLException {
+        execute("CREATE TABLE left_items (order_id INT, line INT, sku VARCHAR(20), PRIMARY KEY (order_id, line))");
+        execute("CREATE TABLE right_items (order_id INT, line INT, sku VARCHAR(20), PRIMARY KEY (order_id, line))");
+        for (int order = 1; order <= 4; order++) {
+            for (int line = 1; line <= 3; line++) {
+                execute("INSERT INTO left_items VALUES (" + order + ", " + line + ", 'sku" + order + line + "')");
+                if (!(order == 2 && line == 2)) {
+                    execute("INSERT INTO right_items VALUES (" + order + ", " + line + ", 'sku" + order + line + "')");
+                }
+            }
+        }
+
+        TableDiff.Result result = diff(2).compareTables("left_items", "right_items", TableDiff.Mode.MERGE);
+
+        assertEquals(result.getMatched(), 11);
+        assertEquals(result.getMissing(), 1);
+        assertEquals(result.getExtra(), 0);
+    }
+
+    @Test
+    public void hashSplitsPartitionsLargerThanTheRowLimit() throws SQLException {
+        createUsers("left_users", range(1, 200));
+        createUsers("right_users", range(2, 201));
+        execute("UPDATE right_users SET name = 'changed' WHERE id = 100");
+        TableDiff tableDiff = diff(10);
+        tableDiff.setPartitions(2);
+        tableDiff.setRowsPerPartition(7);
+
+        TableDiff.Result result = tableDiff.compareTables("left_users", "right_users", TableDiff.Mode.HASH);
+
+        assertEquals(result.getMatched(), 198);
+        assertEquals(result.getMissing(), 1);
+        assertEquals(result.getExtra(), 1);
+        assertEquals(result.getChanged(), 1);
+    }
+
+    @Test
+    public void schemaQualifiedTableNamesFindTheirPrimaryKey() throws SQLException {
+        createUsers("left_users", 1, 2);
+        createUsers("right_users", 1, 2);
+        execute("UPDATE right_users SET name = 'changed' WHERE id = 2");
+
+        TableDiff.Result result = diff(10).compareTables("public.left_users", "public.right_users", TableDiff.Mode.MERGE);
+
+        // Without the key the changed row would count as one missing and one extra row
+        assertEquals(result.getChanged(), 1);
+        assertEquals(result.getMissing(), 0);
+        assertEquals(result.getExtra(), 0);
+    }
+
+    @Test
+    public void queriesAreComparedAsMultisets() throws SQLException {
+        execute("CREATE TABLE tags (name VARCHAR(20))");
+        execute("INSERT INTO tags VALUES ('a'), ('b'), ('b'), ('c')");
+
+        TableDiff.Result result = diff(10).compareQueries("SELECT name FROM tags",
+                "SELECT name FROM tags WHERE name <> 'c' UNION ALL SELECT 'b'");
+
+        assertEquals(result.getMatched(), 3);
+        assertEquals(result.getMissing(), 1);
+        assertEquals(result.getExtra(), 1);
+    }
+
+    private TableDiff diff(int chunkSize) {
+        TableDiff tableDiff = new TableDiff(connection);
+        tableDiff.setChunkSize(chunkSize);
+        tableDiff.setParallelism(2);
+        return tableDiff;
+    }
+
+    private void createUsers(String table, int... ids) throws SQLException {
+        execute("CREATE TABLE " + table + " (id INT PRIMARY KEY, name VARCHAR(40))");
+        for (int id : ids) {
+            execute("INSERT INTO " + table + " VALUES (" + id + ", 'user" + id + "')");
+        }
+    }
+
+    private static int[] range(int from, int to) {
+        int[] ids = new int[to - from + 1];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = from + i;
+        }
+        return ids;
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.restassured.response.Response;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Login tokens shared across scenarios, keyed by base URL, login path and user. A token is reused
+ * until shortly before it expires; expiry comes from the JWT exp claim, an expires_in field in the
+ * login response, or the configured default time to live. Refreshes for one key are single-flight:
+ * parallel scenarios that find the token missing or expired wait for one login instead of all
+ * calling the login endpoint.
+ */
+public final class TokenCache {
+    private static final Logger logger = LogManager.getLogger(TokenCache.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    // Tokens are renewed this long before they expire so a request never starts with a stale one,
+    // but at most a quarter of their lifetime, so short-lived tokens are still reused
+    private static final long EXPIRY_MARGIN_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final Map<String, Entry> ENTRIES = new ConcurrentHashMap<>();
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder logins = new LongAdder();
+
+    private TokenCache() {
+    }
+
+    public static String key(String baseUri, String loginPath, String user) {
+        return baseUri + "|" + loginPath + "|" + user;
+    }
+
+    // Returns the cached token, logging in through the given call when it is missing or expiring
+    public static String getToken(String key, long defaultTtlMillis, Supplier<Response> login) {
+        Entry entry = ENTRIES.computeIfAbsent(key, k -> new Entry());
+        String token = entry.validToken();
+        if (token != null) {
+            hits.increment();
+            return token;
+        }
+        synchronized (entry) {
+            token = entry.validToken();
+            if (token != null) {
+                hits.increment();
+                return token;
+            }
+            entry.update(login(key, login), defaultTtlMillis);
+            return entry.token;
+        }
+    }
+
+    // Logs in again unless another thread already replaced the rejected token, e.g. after a 401
+    public static String refresh(String key, String rejectedToken, long defaultTtlMillis, Supplier<Response> login) {
+        Entry entry = ENTRIES.computeIfAbsent(key, k -> new Entry());
+        synchronized (entry) {
+            if (entry.token != null && !entry.token.equals(rejectedToken) && entry.validToken() != null) {
+                return entry.token;
+            }
+            entry.update(login(key, login), defaultTtlMillis);
+            return entry.token;
+        }
+    }
+
+    public static void invalidateAll() {
+        ENTRIES.clear();
+    }
+
+    public static String getStats() {
+        return "logins=" + logins.sum() + ", cacheHits=" + hits.sum() + ", users=" + ENTRIES.size();
+    }
+
+    private static Response login(String key, Supplier<Response> login) {
+        Response response = login.get();
+        logins.increment();
+        if (response.getStatusCode() >= 400) {
+            throw new IllegalStateException("Login for " + key + " failed with HTTP " + response.getStatusCode());
+        }
+        logger.info("Logged in for {}", key);
+        return response;
+    }
+
+    // Expiry from the JWT exp claim (seconds since the epoch), or 0 when the token is not a JWT
+    static long jwtExpiryMillis(String token) {
+        String[] parts = token.split("\\.");
+        if (parts.length != 3) {
+            return 0;
+        }
+        try {
+            JsonNode claims = MAPPER.readTree(new String(Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8));
+            JsonNode exp = claims.get("exp");
+            return exp != null && exp.canConvertToLong() ? TimeUnit.SECONDS.toMillis(exp.asLong()) : 0;
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    private static final class Entry {
+        private volatile String token;
+        private volatile long renewAtMillis;
+
+        String validToken() {
+            String current = token;
+            return current != null && System.currentTimeMillis() < renewAtMillis ? current : null;
+        }
+
+        void update(Response response, long defaultTtlMillis) {
+            ParsedResponse parsed = new ParsedResponse(response);
+            Object tokenValue = parsed.get("token");
+            if (tokenValue == null) {
+                tokenValue = parsed.get("access_token");
+            }
+            String newToken = tokenValue == null ? null : tokenValue.toString();
+            if (newToken == null) {
+                // Only the field names: the body may hold credentials that must not reach the logs or the report
+                JsonNode tree = parsed.tree();
+                List<String> fields = new ArrayList<>();
+                if (tree != null) {
+                    tree.fieldNames().forEachRemaining(fields::add);
+                }
+                throw new IllegalStateException("Login response (HTTP " + response.getStatusCode()
+                        + ") has no token or access_token field" + (tree == null ? ", and is not JSON" : ", only " + fields));
+            }
+            long now = System.currentTimeMillis();
+            long expiresAt = jwtExpiryMillis(newToken);
+            if (expiresAt == 0) {
+                Object expiresIn = parsed.get("expires_in");
+                expiresAt = expiresIn instanceof Number
+                        ? now + TimeUnit.SECONDS.toMillis(((Number) expiresIn).longValue())
+                        : now + defaultTtlMillis;
+            }
+            renewAtMillis = expiresAt - Math.min(EXPIRY_MARGIN_MILLIS, Math.max(0, expiresAt - now) / 4);
+            token = newToken;
+        }
+    }
+}